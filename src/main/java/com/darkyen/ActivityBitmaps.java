@@ -0,0 +1,312 @@
+package com.darkyen;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Minutes in which the user was active, one bit per minute, days are UTC days of 1440 minutes.
+ * <p>
+ * The current day is a plain bitmap, so marking activity is a comparison in the same minute and setting a bit in a new one.
+ * Past days are compressed into runs of active minutes and carry the amount of active minutes of all days before them,
+ * so counting active minutes in a range sums whole days in constant time and only looks at the runs of the days at its ends.
+ * Local days are just ranges of minutes, so the data does not depend on the time zone.
+ * Thread safe, marking in the same minute does not lock.
+ */
+final class ActivityBitmaps {
+
+	private static final Logger LOG = Logger.getLogger(ActivityBitmaps.class.getName());
+
+	static final String FILE_NAME = "activity.bin";
+
+	/*
+	File format (all numbers are big endian):
+	 int magic 'DTTA'
+	 int format version
+	 int amount of days
+	 For each day, sorted:
+	  int UTC epoch day
+	  short amount of runs
+	  For each run of active minutes:
+	   short first minute of the day
+	   short amount of minutes
+	 */
+	private static final int MAGIC = 0x44545441;
+	private static final int VERSION = 1;
+
+	static final int MINUTES_PER_DAY = 24 * 60;
+	private static final long MS_PER_MINUTE = 60_000L;
+
+	/** Sorted UTC epoch days of past days with activity */
+	private int[] days = new int[64];
+	/** Runs of each past day, pairs of first minute and amount of minutes */
+	private char[][] runs = new char[64][];
+	/** Active minutes of all past days before the day at the same index, one more element than there are days */
+	private long[] minutesBefore = new long[65];
+	private int dayCount = 0;
+
+	/** UTC epoch day of {@link #current}, Integer.MIN_VALUE before anything was marked */
+	private int currentDay = Integer.MIN_VALUE;
+	/** Bitmap of the current day */
+	private final long[] current = new long[(MINUTES_PER_DAY + 63) / 64];
+	/** Minute since the epoch which was marked last, read without locking */
+	private volatile long lastMinute = Long.MIN_VALUE;
+
+	/** A minute was marked since the last snapshot */
+	private boolean dirty = false;
+
+	/** Mark the minute of the time as active */
+	void mark(long nowMs) {
+		final long minute = Math.floorDiv(nowMs, MS_PER_MINUTE);
+		if (minute == lastMinute) {
+			return;
+		}
+		synchronized (this) {
+			lastMinute = minute;
+			final int day = (int) Math.floorDiv(minute, MINUTES_PER_DAY);
+			if (day != currentDay) {
+				startDay(day);
+			}
+			final int minuteOfDay = (int) Math.floorMod(minute, MINUTES_PER_DAY);
+			current[minuteOfDay >>> 6] |= 1L << minuteOfDay;
+			dirty = true;
+		}
+	}
+
+	/** Compress the current day and make the day current */
+	private void startDay(int day) {
+		sealCurrent();
+		currentDay = day;
+		final int index = Arrays.binarySearch(days, 0, dayCount, day);
+		if (index >= 0) {
+			// Day which was sealed before, when the clock went back or after loading
+			markRuns(runs[index]);
+			removeDay(index);
+		}
+	}
+
+	/** Mark the minutes of the runs in the current day */
+	private void markRuns(@NotNull char[] dayRuns) {
+		for (int i = 0; i < dayRuns.length; i += 2) {
+			for (int minute = dayRuns[i], end = dayRuns[i] + dayRuns[i + 1]; minute < end; minute++) {
+				current[minute >>> 6] |= 1L << minute;
+			}
+		}
+	}
+
+	private void sealCurrent() {
+		if (currentDay == Integer.MIN_VALUE) {
+			return;
+		}
+		final char[] dayRuns = toRuns(current);
+		Arrays.fill(current, 0L);
+		if (dayRuns.length > 0) {
+			insertDay(currentDay, dayRuns);
+		}
+	}
+
+	@NotNull
+	private static char[] toRuns(@NotNull long[] bitmap) {
+		int runCount = 0;
+		final char[] result = new char[MINUTES_PER_DAY];
+		int minute = 0;
+		while (minute < MINUTES_PER_DAY) {
+			final int start = nextBit(bitmap, minute, true);
+			if (start >= MINUTES_PER_DAY) {
+				break;
+			}
+			final int end = Math.min(nextBit(bitmap, start, false), MINUTES_PER_DAY);
+			result[runCount * 2] = (char) start;
+			result[runCount * 2 + 1] = (char) (end - start);
+			runCount++;
+			minute = end;
+		}
+		return Arrays.copyOf(result, runCount * 2);
+	}
+
+	/** @return index of the first bit at or after {@code from} which is set (or clear), bitmap length * 64 if there is none */
+	private static int nextBit(@NotNull long[] bitmap, int from, boolean set) {
+		int word = from >>> 6;
+		if (word >= bitmap.length) {
+			return bitmap.length * 64;
+		}
+		long bits = (set ? bitmap[word] : ~bitmap[word]) & (-1L << from);
+		while (bits == 0) {
+			if (++word == bitmap.length) {
+				return bitmap.length * 64;
+			}
+			bits = set ? bitmap[word] : ~bitmap[word];
+		}
+		return word * 64 + Long.numberOfTrailingZeros(bits);
+	}
+
+	private static int minutesOf(@NotNull char[] dayRuns) {
+		int minutes = 0;
+		for (int i = 1; i < dayRuns.length; i += 2) {
+			minutes += dayRuns[i];
+		}
+		return minutes;
+	}
+
+	private void insertDay(int day, @NotNull char[] dayRuns) {
+		int index = Arrays.binarySearch(days, 0, dayCount, day);
+		if (index >= 0) {
+			runs[index] = dayRuns;
+		} else {
+			index = -index - 1;
+			if (dayCount == days.length) {
+				days = Arrays.copyOf(days, dayCount * 2);
+				runs = Arrays.copyOf(runs, dayCount * 2);
+				minutesBefore = Arrays.copyOf(minutesBefore, dayCount * 2 + 1);
+			}
+			System.arraycopy(days, index, days, index + 1, dayCount - index);
+			System.arraycopy(runs, index, runs, index + 1, dayCount - index);
+			days[index] = day;
+			runs[index] = dayRuns;
+			dayCount++;
+		}
+		// Days are added at the end, unless the clock goes back
+		recomputeMinutesBefore(index);
+	}
+
+	private void removeDay(int index) {
+		System.arraycopy(days, index + 1, days, index, dayCount - index - 1);
+		System.arraycopy(runs, index + 1, runs, index, dayCount - index - 1);
+		dayCount--;
+		runs[dayCount] = null;
+		recomputeMinutesBefore(index);
+	}
+
+	private void recomputeMinutesBefore(int fromIndex) {
+		for (int i = fromIndex; i < dayCount; i++) {
+			minutesBefore[i + 1] = minutesBefore[i] + minutesOf(runs[i]);
+		}
+	}
+
+	/** @return amount of active minutes in the range, minutes which are only partially in the range count when they start in it */
+	synchronized long activeMinutes(long fromMs, long toMs) {
+		final long fromMinute = Math.floorDiv(fromMs + MS_PER_MINUTE - 1, MS_PER_MINUTE);
+		final long toMinute = Math.floorDiv(toMs + MS_PER_MINUTE - 1, MS_PER_MINUTE);
+		if (toMinute <= fromMinute) {
+			return 0;
+		}
+		final int fromDay = (int) Math.floorDiv(fromMinute, MINUTES_PER_DAY);
+		final int toDay = (int) Math.floorDiv(toMinute - 1, MINUTES_PER_DAY);
+
+		long result = 0;
+		// Past days: whole days in between from the sums, days at the ends from their runs
+		int fromIndex = Arrays.binarySearch(days, 0, dayCount, fromDay);
+		if (fromIndex >= 0) {
+			result += minutesInRuns(runs[fromIndex], fromMinute - fromDay * (long) MINUTES_PER_DAY, toMinute - fromDay * (long) MINUTES_PER_DAY);
+			fromIndex++;
+		} else {
+			fromIndex = -fromIndex - 1;
+		}
+		if (toDay != fromDay) {
+			int toIndex = Arrays.binarySearch(days, fromIndex, dayCount, toDay);
+			if (toIndex >= 0) {
+				result += minutesInRuns(runs[toIndex], 0, toMinute - toDay * (long) MINUTES_PER_DAY);
+			} else {
+				toIndex = -toIndex - 1;
+			}
+			result += minutesBefore[toIndex] - minutesBefore[fromIndex];
+		}
+
+		// Current day from its bitmap
+		if (currentDay >= fromDay && currentDay <= toDay) {
+			final long dayStartMinute = currentDay * (long) MINUTES_PER_DAY;
+			final int from = (int) Math.max(0L, fromMinute - dayStartMinute);
+			final int to = (int) Math.min(MINUTES_PER_DAY, toMinute - dayStartMinute);
+			result += bitsInRange(current, from, to);
+		}
+		return result;
+	}
+
+	private static long minutesInRuns(@NotNull char[] dayRuns, long from, long to) {
+		long result = 0;
+		for (int i = 0; i < dayRuns.length; i += 2) {
+			final long start = Math.max(from, dayRuns[i]);
+			final long end = Math.min(to, dayRuns[i] + dayRuns[i + 1]);
+			if (end > start) {
+				result += end - start;
+			}
+		}
+		return result;
+	}
+
+	private static int bitsInRange(@NotNull long[] bitmap, int from, int to) {
+		if (to <= from) {
+			return 0;
+		}
+		final int fromWord = from >>> 6;
+		final int toWord = (to - 1) >>> 6;
+		final long fromMask = -1L << from;
+		final long toMask = -1L >>> (63 - ((to - 1) & 63));
+		if (fromWord == toWord) {
+			return Long.bitCount(bitmap[fromWord] & fromMask & toMask);
+		}
+		int result = Long.bitCount(bitmap[fromWord] & fromMask);
+		for (int word = fromWord + 1; word < toWord; word++) {
+			result += Long.bitCount(bitmap[word]);
+		}
+		return result + Long.bitCount(bitmap[toWord] & toMask);
+	}
+
+	/** @return the activity to save to the directory, including the current day, null if no minute was marked since the last snapshot */
+	@Nullable
+	synchronized byte[] snapshot() {
+		if (!dirty) {
+			return null;
+		}
+		dirty = false;
+		final char[] currentRuns = toRuns(current);
+		final boolean writeCurrent = currentDay != Integer.MIN_VALUE && currentRuns.length > 0;
+		return Util.dataFileBytes(MAGIC, VERSION, out -> {
+			out.writeInt(dayCount + (writeCurrent ? 1 : 0));
+			boolean currentWritten = !writeCurrent;
+			for (int i = 0; i < dayCount; i++) {
+				if (!currentWritten && currentDay < days[i]) {
+					writeDay(out, currentDay, currentRuns);
+					currentWritten = true;
+				}
+				writeDay(out, days[i], runs[i]);
+			}
+			if (!currentWritten) {
+				writeDay(out, currentDay, currentRuns);
+			}
+		});
+	}
+
+	private static void writeDay(@NotNull DataOutputStream out, int day, @NotNull char[] dayRuns) throws IOException {
+		out.writeInt(day);
+		out.writeShort(dayRuns.length / 2);
+		for (char value : dayRuns) {
+			out.writeShort(value);
+		}
+	}
+
+	/** Load what was saved to the directory, the minutes marked before the load are kept */
+	synchronized void load(@NotNull Path directory) {
+		Util.readDataFile(directory.resolve(FILE_NAME), MAGIC, VERSION, in -> {
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final int day = in.readInt();
+				final char[] dayRuns = new char[in.readUnsignedShort() * 2];
+				for (int r = 0; r < dayRuns.length; r++) {
+					dayRuns[r] = in.readChar();
+				}
+				if (day == currentDay) {
+					// Marked before the load
+					markRuns(dayRuns);
+				} else {
+					insertDay(day, dayRuns);
+				}
+			}
+		}, LOG, "activity");
+	}
+}
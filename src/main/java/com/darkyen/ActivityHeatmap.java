@@ -0,0 +1,117 @@
+package com.darkyen;
+
+import com.intellij.ui.JBColor;
+import com.intellij.util.ui.JBUI;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAdjusters;
+import java.time.temporal.WeekFields;
+import java.util.Locale;
+
+/**
+ * Heatmap of active minutes of each local day of the last year, one column per week.
+ */
+final class ActivityHeatmap extends JComponent {
+
+	private static final int WEEKS = 53;
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("EEE yyyy-MM-dd");
+
+	/** Upper bounds of active minutes of each color, the last color is for more */
+	private static final int[] LEVEL_MINUTES = {0, 30, 120, 240};
+	private static final Color[] LEVEL_COLORS = {
+			new JBColor(new Color(235, 237, 240), new Color(60, 63, 65)),
+			new JBColor(new Color(172, 214, 168), new Color(40, 70, 37)),
+			new JBColor(new Color(113, 180, 106), new Color(47, 100, 40)),
+			new JBColor(new Color(57, 139, 50), new Color(62, 138, 52)),
+			new JBColor(new Color(28, 98, 19), new Color(92, 180, 80)),
+	};
+
+	@NotNull
+	private final LocalDate firstDay;
+	/** Active minutes of each day from {@link #firstDay}, -1 for days in the future */
+	@NotNull
+	private final int[] dayMinutes = new int[WEEKS * 7];
+
+	ActivityHeatmap(@NotNull ActivityBitmaps activity) {
+		final ZoneId zone = ZoneId.systemDefault();
+		final LocalDate today = LocalDate.now(zone);
+		final DayOfWeek firstDayOfWeek = WeekFields.of(Locale.getDefault()).getFirstDayOfWeek();
+		firstDay = today.with(TemporalAdjusters.previousOrSame(firstDayOfWeek)).minusWeeks(WEEKS - 1);
+
+		long dayStartMs = firstDay.atStartOfDay(zone).toInstant().toEpochMilli();
+		LocalDate day = firstDay;
+		for (int i = 0; i < dayMinutes.length; i++) {
+			final LocalDate nextDay = day.plusDays(1);
+			final long dayEndMs = nextDay.atStartOfDay(zone).toInstant().toEpochMilli();
+			dayMinutes[i] = day.isAfter(today) ? -1 : (int) activity.activeMinutes(dayStartMs, dayEndMs);
+			day = nextDay;
+			dayStartMs = dayEndMs;
+		}
+
+		setToolTipText("");
+		final Insets insets = JBUI.insets(4);
+		setBorder(BorderFactory.createEmptyBorder(insets.top, insets.left, insets.bottom, insets.right));
+	}
+
+	/** @return total active minutes on the heatmap */
+	long totalMinutes() {
+		long total = 0;
+		for (int minutes : dayMinutes) {
+			total += Math.max(0, minutes);
+		}
+		return total;
+	}
+
+	private static int cellSize() {
+		return JBUI.scale(12);
+	}
+
+	@Override
+	public Dimension getPreferredSize() {
+		final Insets insets = getInsets();
+		return new Dimension(WEEKS * cellSize() + insets.left + insets.right, 7 * cellSize() + insets.top + insets.bottom);
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		final Insets insets = getInsets();
+		final int cell = cellSize();
+		final int gap = Math.max(1, cell / 6);
+		for (int i = 0; i < dayMinutes.length; i++) {
+			final int minutes = dayMinutes[i];
+			if (minutes < 0) {
+				continue;
+			}
+			int level = 0;
+			while (level < LEVEL_MINUTES.length && minutes > LEVEL_MINUTES[level]) {
+				level++;
+			}
+			g.setColor(LEVEL_COLORS[level]);
+			g.fillRect(insets.left + (i / 7) * cell, insets.top + (i % 7) * cell, cell - gap, cell - gap);
+		}
+	}
+
+	@Override
+	public String getToolTipText(MouseEvent event) {
+		final Insets insets = getInsets();
+		final int cell = cellSize();
+		final int week = (event.getX() - insets.left) / cell;
+		final int dayOfWeek = (event.getY() - insets.top) / cell;
+		if (event.getX() < insets.left || event.getY() < insets.top || week >= WEEKS || dayOfWeek >= 7) {
+			return null;
+		}
+		final int index = week * 7 + dayOfWeek;
+		if (dayMinutes[index] < 0) {
+			return null;
+		}
+		return DATE_FORMAT.format(firstDay.plusDays(index)) + ": "
+				+ TimeTrackerService.NOTIFICATION_TIME_FORMATTING.millisecondsToString(dayMinutes[index] * 60_000L) + " active";
+	}
+}
@@ -0,0 +1,68 @@
+package com.darkyen;
+
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.ui.components.JBList;
+import com.intellij.ui.components.JBScrollPane;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * Dialog with the heatmap of activity in the last year.
+ */
+public final class ActivityHeatmapDialog extends DialogWrapper {
+
+	@NotNull
+	private final TimeTrackerService service;
+
+	public ActivityHeatmapDialog(@NotNull TimeTrackerService service) {
+		super(service.project, false);
+		this.service = service;
+		setTitle("Activity in the Last Year");
+		setOKButtonText("Close");
+		init();
+	}
+
+	@Nullable
+	@Override
+	protected JComponent createCenterPanel() {
+		final JPanel panel = new JPanel(new BorderLayout(0, 4));
+		final ActivityHeatmap heatmap = new ActivityHeatmap(service.activity());
+		panel.add(heatmap, BorderLayout.CENTER);
+		final StringBuilder inputs = new StringBuilder("Inputs:");
+		for (InputKind kind : InputKind.VALUES) {
+			inputs.append(kind == InputKind.VALUES[0] ? " " : ", ").append(kind.label).append(' ').append(service.getInputCount(kind));
+		}
+		final Box labels = Box.createVerticalBox();
+		labels.add(new JLabel("Active: " + TimeTrackerService.NOTIFICATION_TIME_FORMATTING.millisecondsToString(heatmap.totalMinutes() * 60_000L)
+				+ " (minutes with any input in this project)"));
+		labels.add(new JLabel(inputs.toString()));
+		labels.add(new JLabel("Focus streaks (running time with no long pause and no other project):"));
+
+		final DefaultListModel<String> streaksModel = new DefaultListModel<>();
+		for (Map.Entry<LocalDate, long[]> day : service.focusStreaks().entrySet()) {
+			final long[] streaks = day.getValue();
+			streaksModel.addElement(day.getKey() + "  " + streaks[0] + (streaks[0] == 1 ? " streak" : " streaks")
+					+ ", longest " + TimeTrackerService.NOTIFICATION_TIME_FORMATTING.millisecondsToString(streaks[2])
+					+ ", average " + TimeTrackerService.NOTIFICATION_TIME_FORMATTING.millisecondsToString(streaks[1] / streaks[0]));
+		}
+		final JBList<String> streaksList = new JBList<>(streaksModel);
+		streaksList.setEmptyText("No focus streak was long enough yet");
+		final JBScrollPane streaksScroll = new JBScrollPane(streaksList);
+		streaksScroll.setPreferredSize(new Dimension(400, 120));
+		streaksScroll.setAlignmentX(0f);
+		labels.add(streaksScroll);
+		panel.add(labels, BorderLayout.SOUTH);
+		return panel;
+	}
+
+	@NotNull
+	@Override
+	protected Action[] createActions() {
+		return new Action[]{getOKAction()};
+	}
+}
@@ -0,0 +1,65 @@
+package com.darkyen;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.changes.ChangeList;
+import com.intellij.openapi.vcs.changes.ChangeListListener;
+import com.intellij.openapi.vcs.changes.ChangeListManager;
+import com.intellij.openapi.vcs.changes.LocalChangeList;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Tells the {@link TimeTrackerService} which changelist is the default one, so that the time is counted to it.
+ * Registered only when the IDE has VCS support, so that the rest of the plugin does not depend on it.
+ */
+public final class ChangelistListener implements ChangeListListener {
+
+	@NotNull
+	private final Project project;
+
+	public ChangelistListener(@NotNull Project project) {
+		this.project = project;
+	}
+
+	@Override
+	public void defaultListChanged(ChangeList oldDefaultList, ChangeList newDefaultList) {
+		if (newDefaultList instanceof LocalChangeList) {
+			activated((LocalChangeList) newDefaultList);
+		}
+	}
+
+	@Override
+	public void changeListRenamed(ChangeList list, String oldName) {
+		if (list instanceof LocalChangeList) {
+			final TimeTrackerService service = project.getService(TimeTrackerService.class);
+			if (service != null) {
+				service.changelistRenamed(((LocalChangeList) list).getId(), list.getName());
+			}
+		}
+	}
+
+	@Override
+	public void changeListRemoved(ChangeList list) {
+		if (list instanceof LocalChangeList) {
+			final TimeTrackerService service = project.getService(TimeTrackerService.class);
+			if (service != null) {
+				service.changelistRemoved(((LocalChangeList) list).getId());
+			}
+		}
+	}
+
+	@Override
+	public void changeListUpdateDone() {
+		// There is no event for the default changelist when the project is opened, so it is taken after the first update
+		if (project.isDisposed()) {
+			return;
+		}
+		activated(ChangeListManager.getInstance(project).getDefaultChangeList());
+	}
+
+	private void activated(@NotNull LocalChangeList list) {
+		final TimeTrackerService service = project.getService(TimeTrackerService.class);
+		if (service != null) {
+			service.changelistActivated(list.getId(), list.getName());
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package com.darkyen;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Time counted for each IDE changelist, keyed by changelist id, in an open addressing table of primitive counters.
+ * <p>
+ * The slot of the active changelist is remembered, so counting time is a single addition
+ * and switching to another changelist is a single lookup.
+ * Not thread safe.
+ */
+final class ChangelistTimes {
+
+	private static final Logger LOG = Logger.getLogger(ChangelistTimes.class.getName());
+
+	static final String FILE_NAME = "changelists.bin";
+
+	/*
+	File format (all numbers are big endian):
+	 int magic 'DTTL'
+	 int format version
+	 int amount of changelists
+	 For each changelist:
+	  UTF changelist id
+	  long ms
+	 */
+	private static final int MAGIC = 0x4454544C;
+	private static final int VERSION = 1;
+
+	/** Changelist ids, null is empty */
+	private String[] ids = new String[16];
+	private long[] timesMs = new long[16];
+	private int size = 0;
+
+	/** Slot of the active changelist, -1 if there is none */
+	private int activeSlot = -1;
+	@Nullable
+	private String activeName = null;
+
+	/** The times differ from the last snapshot */
+	private boolean dirty = false;
+
+	/** Make the changelist active, so that the time is counted to it */
+	void activate(@NotNull String id, @NotNull String name) {
+		activeName = name;
+		if (activeSlot >= 0 && ids[activeSlot].equals(id)) {
+			return;
+		}
+		activeSlot = slotOf(id, true);
+	}
+
+	/** Rename the changelist, the time is kept */
+	void renamed(@NotNull String id, @NotNull String name) {
+		if (activeSlot >= 0 && ids[activeSlot].equals(id)) {
+			activeName = name;
+		}
+	}
+
+	/** Forget the time of the changelist, when it is deleted */
+	void remove(@NotNull String id) {
+		final int slot = slotOf(id, false);
+		if (slot < 0) {
+			return;
+		}
+		final boolean wasActive = slot == activeSlot;
+		final String activeId = activeSlot >= 0 ? ids[activeSlot] : null;
+
+		// Backward shift deletion, so that lookups do not need tombstones
+		final int mask = ids.length - 1;
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while (ids[next] != null) {
+			final int home = home(ids[next], mask);
+			// Move the entry to the hole, if the hole is between its home slot and its current slot
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				ids[hole] = ids[next];
+				timesMs[hole] = timesMs[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		ids[hole] = null;
+		timesMs[hole] = 0;
+		size--;
+		dirty = true;
+
+		if (wasActive) {
+			activeSlot = -1;
+			activeName = null;
+		} else if (activeId != null) {
+			activeSlot = slotOf(activeId, false);
+		}
+	}
+
+	/** Count the time to the active changelist */
+	void add(long ms) {
+		if (activeSlot >= 0) {
+			timesMs[activeSlot] = Math.max(0L, timesMs[activeSlot] + ms);
+			dirty = true;
+		}
+	}
+
+	void clear() {
+		Arrays.fill(timesMs, 0L);
+		dirty = true;
+	}
+
+	/** @return name of the active changelist, null if no changelist is active */
+	@Nullable
+	String activeName() {
+		return activeName;
+	}
+
+	/** @return time counted to the active changelist */
+	long activeMs() {
+		return activeSlot >= 0 ? timesMs[activeSlot] : 0L;
+	}
+
+	@NotNull
+	Map<String, Long> toMap() {
+		final HashMap<String, Long> result = new HashMap<>();
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] != null && timesMs[i] > 0) {
+				result.put(ids[i], timesMs[i]);
+			}
+		}
+		return result;
+	}
+
+	/** Add the times to the counted times, used for times kept in the workspace file */
+	void merge(@NotNull Map<String, Long> times) {
+		for (Map.Entry<String, Long> entry : times.entrySet()) {
+			if (entry.getKey() != null && entry.getValue() != null && entry.getValue() > 0) {
+				final int slot = slotOf(entry.getKey(), true);
+				timesMs[slot] += entry.getValue();
+				dirty = true;
+			}
+		}
+	}
+
+	/** @return the times to save to the directory, null when they have not changed since the last snapshot */
+	@Nullable
+	byte[] snapshot() {
+		if (!dirty) {
+			return null;
+		}
+		dirty = false;
+		return Util.dataFileBytes(MAGIC, VERSION, out -> {
+			int count = 0;
+			for (int i = 0; i < ids.length; i++) {
+				if (ids[i] != null && timesMs[i] > 0) {
+					count++;
+				}
+			}
+			out.writeInt(count);
+			for (int i = 0; i < ids.length; i++) {
+				if (ids[i] != null && timesMs[i] > 0) {
+					out.writeUTF(ids[i]);
+					out.writeLong(timesMs[i]);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Load what was saved to the directory.
+	 * @return whether the file existed, false if the times were never saved there
+	 */
+	boolean load(@NotNull Path directory) {
+		return Util.readDataFile(directory.resolve(FILE_NAME), MAGIC, VERSION, in -> {
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final String id = in.readUTF();
+				final long ms = in.readLong();
+				// Looked up first, the lookup may grow the arrays
+				final int slot = slotOf(id, true);
+				timesMs[slot] = ms;
+			}
+		}, LOG, "changelist times");
+	}
+
+	private static int home(@NotNull String id, int mask) {
+		final int hash = id.hashCode() * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/** @return slot of the changelist, or -1 if it has none and it should not be created */
+	private int slotOf(@NotNull String id, boolean create) {
+		if (create && (size + 1) * 2 > ids.length) {
+			grow();
+		}
+		final int mask = ids.length - 1;
+		int slot = home(id, mask);
+		while (true) {
+			final String existing = ids[slot];
+			if (existing == null) {
+				if (!create) {
+					return -1;
+				}
+				ids[slot] = id;
+				timesMs[slot] = 0L;
+				size++;
+				return slot;
+			}
+			if (existing.equals(id)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void grow() {
+		final String activeId = activeSlot >= 0 ? ids[activeSlot] : null;
+		final String[] oldIds = ids;
+		final long[] oldTimesMs = timesMs;
+		ids = new String[oldIds.length * 2];
+		timesMs = new long[oldIds.length * 2];
+		size = 0;
+		for (int i = 0; i < oldIds.length; i++) {
+			if (oldIds[i] != null) {
+				timesMs[slotOf(oldIds[i], true)] = oldTimesMs[i];
+			}
+		}
+		activeSlot = activeId == null ? -1 : slotOf(activeId, false);
+	}
+}
@@ -0,0 +1,607 @@
+package com.darkyen;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Time counted for each commit, learned by following the reflog of HEAD.
+ * <p>
+ * The commit hook appends the seconds it has injected and the time to the commit seconds file, when it resets the time file.
+ * Each new commit in the reflog is paired with the latest entry made at or before it, from the last commit back,
+ * so a series of commits made between two reads (rebase, cherry-picks, scripts) gets the seconds of each commit,
+ * and entries of commits which did not happen (closed editor, rejected message) are dropped.
+ * Commits are kept in the order in which they were made, with prefix sums of their time,
+ * and indexed by hash, so the time of a commit and of a range of commits can be found in constant time.
+ * <p>
+ * Only the new parts of the reflog and of the commit seconds file are read, from the offsets where the last read ended.
+ * The reflog is known to be rewritten when the bytes before the offset have changed.
+ */
+final class CommitLedger {
+
+	private static final Logger LOG = Logger.getLogger("com.darkyen.CommitLedger");
+
+	static final String LEDGER_FILE_NAME = ".darkyenus_time_tracker_commits";
+	/** Appended by the commit hook, lines of injected seconds, space, unix time in seconds (empty when not known) */
+	static final String COMMIT_SECONDS_FILE_NAME = ".darkyenus_time_tracker_commit_seconds";
+
+	/*
+	Ledger file format (all numbers are big endian):
+	Header (HEADER_SIZE bytes):
+	 0. int magic 'DTTC'
+	 4. int format version
+	 8. long offset in the reflog, up to which it was read
+	 16. long checksum of the bytes of the reflog just before the offset, -1 if not known
+	 24. long offset in the commit seconds file, up to which its entries were paired
+	Followed by records (RECORD_SIZE bytes each):
+	 0. 32 bytes of commit hash, zero padded (SHA-1 hashes are 20 bytes)
+	 32. byte length of the hash
+	 33. byte flags, FLAG_ constants
+	 34. short reserved, zero
+	 36. int counted seconds
+	 40. long time of the commit in ms
+	 */
+	private static final int MAGIC = 0x44545443;
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 32;
+	private static final int HEADER_SIZE_V1 = 16;
+	private static final int RECORD_SIZE = 48;
+	private static final int MAX_HASH_BYTES = 32;
+
+	/** Commit replaces a previous commit (amend), its time is not counted again in ranges */
+	static final byte FLAG_REPLACES = 1;
+
+	/** Amount of bytes before the reflog offset whose checksum detects a rewritten reflog */
+	private static final int ANCHOR_BYTES = 256;
+
+	@NotNull
+	private final Path ledgerFile;
+	@NotNull
+	private final Path reflogFile;
+	@NotNull
+	private final Path commitSecondsFile;
+
+	/** Loaded lazily */
+	private boolean loaded = false;
+	private long reflogOffset = -1;
+	private long reflogAnchor = -1;
+	private long commitSecondsOffset = 0;
+	/** Loaded from an older format, all records are written again on the next save */
+	private boolean saveAll = false;
+
+	private int count = 0;
+	private byte[] hashes = new byte[MAX_HASH_BYTES * 64];
+	private byte[] hashLengths = new byte[64];
+	private byte[] flags = new byte[64];
+	private int[] seconds = new int[64];
+	private long[] timesMs = new long[64];
+	/** prefixSeconds[i] = sum of counted seconds of commits before i, not including replacing commits */
+	private long[] prefixSeconds = new long[65];
+
+	/** Open addressing table of (commit index + 1), keyed by the first 8 bytes of the hash, zero is empty */
+	private int[] slots = new int[128];
+
+	/** Entries of the commit seconds file which were not paired yet: seconds, time in ms (0 if not known), offset after the entry */
+	private final ArrayList<long[]> hookEntries = new ArrayList<>();
+
+	CommitLedger(@NotNull Path gitDirectory) {
+		this.ledgerFile = gitDirectory.resolve(LEDGER_FILE_NAME);
+		this.reflogFile = gitDirectory.resolve("logs").resolve("HEAD");
+		this.commitSecondsFile = gitDirectory.resolve(COMMIT_SECONDS_FILE_NAME);
+	}
+
+	interface CommitVisitor {
+		void commit(@NotNull String hash, int seconds);
+	}
+
+	/**
+	 * Read new entries of the reflog and record new commits. Does file IO.
+	 * @param newCommits notified about each newly recorded commit
+	 */
+	synchronized void readReflog(@Nullable CommitVisitor newCommits) {
+		load();
+
+		final long reflogSize;
+		try {
+			reflogSize = Files.size(reflogFile);
+		} catch (NoSuchFileException e) {
+			return;
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to check reflog", e);
+			return;
+		}
+
+		if (reflogOffset < 0) {
+			// First time, old commits have no counted time
+			reflogOffset = reflogSize;
+			reflogAnchor = anchor(reflogOffset);
+			commitSecondsOffset = sizeOf(commitSecondsFile);
+			save(count);
+			return;
+		}
+		if (reflogSize < reflogOffset || (reflogAnchor != -1 && reflogAnchor != anchor(reflogOffset))) {
+			// Reflog was rewritten, known commits are skipped thanks to the index
+			reflogOffset = 0;
+		}
+		if (reflogSize == reflogOffset) {
+			if (reflogAnchor == -1) {
+				reflogAnchor = anchor(reflogOffset);
+				save(count);
+			}
+			return;
+		}
+
+		final int countBefore = count;
+		if (sizeOf(commitSecondsFile) < commitSecondsOffset) {
+			// Deleted by the user
+			commitSecondsOffset = 0;
+		}
+		hookEntries.clear();
+		readLines(commitSecondsFile, commitSecondsOffset, this::hookEntry);
+		final ArrayList<ReflogEntry> entries = new ArrayList<>();
+		final long readOffset = readLines(reflogFile, reflogOffset, (line, endOffset) -> {
+			final ReflogEntry entry = ReflogEntry.parse(line);
+			if (entry != null) {
+				entries.add(entry);
+			}
+		});
+		if (readOffset < 0) {
+			return;
+		}
+		final long[][] paired = pairHookEntries(entries);
+		for (int i = 0; i < entries.size(); i++) {
+			record(entries.get(i), paired[i]);
+		}
+		// Incomplete line is read next time
+		reflogOffset = readOffset;
+		reflogAnchor = anchor(reflogOffset);
+		save(countBefore);
+
+		if (newCommits != null) {
+			for (int i = countBefore; i < count; i++) {
+				newCommits.commit(hexOf(i), seconds[i]);
+			}
+		}
+	}
+
+	private interface LineVisitor {
+		void line(@NotNull String line, long endOffset);
+	}
+
+	/**
+	 * Stream complete lines of the file from the offset.
+	 * @return offset after the last complete line, -1 if the file could not be read
+	 */
+	private static long readLines(@NotNull Path file, long offset, @NotNull LineVisitor visitor) {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			channel.position(offset);
+			final InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+			byte[] line = new byte[256];
+			int length = 0;
+			long position = offset;
+			int b;
+			while ((b = in.read()) >= 0) {
+				position++;
+				if (b == '\n') {
+					visitor.line(new String(line, 0, length, StandardCharsets.UTF_8), position);
+					offset = position;
+					length = 0;
+				} else {
+					if (length == line.length) {
+						line = Arrays.copyOf(line, length * 2);
+					}
+					line[length++] = (byte) b;
+				}
+			}
+			return offset;
+		} catch (NoSuchFileException e) {
+			return offset;
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to read " + file, e);
+			return -1;
+		}
+	}
+
+	private static long sizeOf(@NotNull Path file) {
+		try {
+			return Files.size(file);
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/** @return checksum of the bytes of the reflog before the offset, -1 if they could not be read */
+	private long anchor(long offset) {
+		final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(offset, ANCHOR_BYTES));
+		try (FileChannel channel = FileChannel.open(reflogFile, StandardOpenOption.READ)) {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, offset - buffer.capacity() + buffer.position()) < 0) {
+					return -1;
+				}
+			}
+		} catch (IOException e) {
+			return -1;
+		}
+		final CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.capacity());
+		return crc.getValue();
+	}
+
+	/** Line of the commit seconds file: seconds, space, unix time in seconds */
+	private void hookEntry(@NotNull String line, long endOffset) {
+		final int space = line.indexOf(' ');
+		long entrySeconds = -1;
+		long entryTimeMs = 0;
+		try {
+			entrySeconds = Long.parseLong(space < 0 ? line : line.substring(0, space));
+			if (space >= 0 && space + 1 < line.length()) {
+				entryTimeMs = Long.parseLong(line.substring(space + 1).trim()) * 1000L;
+			}
+		} catch (NumberFormatException ignored) {}
+		hookEntries.add(new long[]{entrySeconds, entryTimeMs, endOffset});
+	}
+
+	/** @return true if the reflog message is of a commit for which the commit hook records the seconds */
+	private static boolean madeWithHook(@NotNull String message) {
+		if (message.startsWith("commit:") || message.startsWith("commit (initial):") || message.startsWith("cherry-pick")) {
+			return true;
+		}
+		// Squashes are skipped by the hook, like merges
+		return message.startsWith("rebase") && (message.contains("(pick)") || message.contains("(reword)") || message.contains("(continue)"));
+	}
+
+	/**
+	 * Pair the new commits made with the hook with the hook entries. Each commit, from the last one back, gets the latest entry
+	 * which was not paired with a later commit and which was made at or before the commit.
+	 * Entries before the paired ones which are left are of commits which did not happen, they are dropped.
+	 * @return entry paired with each reflog entry, null for none
+	 */
+	@NotNull
+	private long[][] pairHookEntries(@NotNull ArrayList<ReflogEntry> entries) {
+		final long[][] paired = new long[entries.size()][];
+		int available = hookEntries.size();
+		int lastPaired = -1;
+		for (int i = entries.size() - 1; i >= 0 && available > 0; i--) {
+			final ReflogEntry entry = entries.get(i);
+			if (!madeWithHook(entry.message) || indexOf(entry.newHash) >= 0) {
+				continue;
+			}
+			// Reflog has times in whole seconds, the hook must have run before the commit
+			int hookEntry = available - 1;
+			while (hookEntry >= 0 && hookEntries.get(hookEntry)[1] >= entry.timeMs + 1000L) {
+				hookEntry--;
+			}
+			if (hookEntry < 0) {
+				continue;
+			}
+			paired[i] = hookEntries.get(hookEntry);
+			available = hookEntry;
+			lastPaired = Math.max(lastPaired, hookEntry);
+		}
+		if (lastPaired >= 0) {
+			// Entries after the last paired one may be of a commit which is being made
+			commitSecondsOffset = hookEntries.get(lastPaired)[2];
+		}
+		return paired;
+	}
+
+	/** Record the commit of the reflog entry, if it is new */
+	private void record(@NotNull ReflogEntry entry, @Nullable long[] hookEntry) {
+		if (indexOf(entry.newHash) >= 0) {
+			return;
+		}
+		if (hookEntry != null) {
+			if (hookEntry[0] >= 0) {
+				add(entry.newHash, (byte) 0, (int) Math.min(hookEntry[0], Integer.MAX_VALUE), entry.timeMs);
+			}
+		} else if (entry.message.startsWith("commit (amend):") && entry.oldHash != null) {
+			// The hook does not count time for amends, the amended commit took the time of the original
+			final int original = indexOf(entry.oldHash);
+			if (original >= 0) {
+				add(entry.newHash, FLAG_REPLACES, seconds[original], entry.timeMs);
+			}
+		}
+	}
+
+	/** Reflog line: old-hash new-hash name &lt;email&gt; timestamp timezone TAB message */
+	private static final class ReflogEntry {
+		@Nullable
+		final byte[] oldHash;
+		@NotNull
+		final byte[] newHash;
+		/** Time of the entry, 0 if not known */
+		final long timeMs;
+		@NotNull
+		final String message;
+
+		private ReflogEntry(@Nullable byte[] oldHash, @NotNull byte[] newHash, long timeMs, @NotNull String message) {
+			this.oldHash = oldHash;
+			this.newHash = newHash;
+			this.timeMs = timeMs;
+			this.message = message;
+		}
+
+		/** @return the entry, null if the line is not an entry with a new commit */
+		@Nullable
+		static ReflogEntry parse(@NotNull String line) {
+			final int tab = line.indexOf('\t');
+			final int firstSpace = line.indexOf(' ');
+			final int secondSpace = firstSpace < 0 ? -1 : line.indexOf(' ', firstSpace + 1);
+			if (tab < 0 || secondSpace < 0 || secondSpace > tab) {
+				return null;
+			}
+			final byte[] newHash = parseHash(line, firstSpace + 1, secondSpace);
+			if (newHash == null) {
+				return null;
+			}
+
+			long timeMs = 0;
+			final int timeZoneSpace = line.lastIndexOf(' ', tab - 1);
+			final int timeSpace = timeZoneSpace <= 0 ? -1 : line.lastIndexOf(' ', timeZoneSpace - 1);
+			if (timeSpace >= 0) {
+				try {
+					timeMs = Long.parseLong(line, timeSpace + 1, timeZoneSpace, 10) * 1000L;
+				} catch (NumberFormatException ignored) {}
+			}
+			return new ReflogEntry(parseHash(line, 0, firstSpace), newHash, timeMs, line.substring(tab + 1));
+		}
+	}
+
+	@Nullable
+	private static byte[] parseHash(@NotNull String line, int start, int end) {
+		final int hexLength = end - start;
+		if (hexLength <= 0 || (hexLength & 1) != 0 || hexLength > MAX_HASH_BYTES * 2) {
+			return null;
+		}
+		final byte[] hash = new byte[hexLength / 2];
+		boolean allZero = true;
+		for (int i = 0; i < hash.length; i++) {
+			final int high = Character.digit(line.charAt(start + i * 2), 16);
+			final int low = Character.digit(line.charAt(start + i * 2 + 1), 16);
+			if (high < 0 || low < 0) {
+				return null;
+			}
+			hash[i] = (byte) (high << 4 | low);
+			allZero &= hash[i] == 0;
+		}
+		// Zero hash means no commit
+		return allZero ? null : hash;
+	}
+
+	@Nullable
+	static byte[] parseHash(@NotNull String hex) {
+		return parseHash(hex, 0, hex.length());
+	}
+
+	private static long key(@NotNull byte[] hash, int offset, int length) {
+		long key = 0;
+		for (int i = 0; i < 8 && i < length; i++) {
+			key = key << 8 | (hash[offset + i] & 0xFF);
+		}
+		return key;
+	}
+
+	private static int slotOf(long key, int mask) {
+		// Hashes are random already, but short ones may have zero low bits
+		return (int) (key ^ key >>> 29) & mask;
+	}
+
+	private boolean hashEquals(int index, @NotNull byte[] hash) {
+		return hashLengths[index] == hash.length
+				&& Arrays.equals(hashes, index * MAX_HASH_BYTES, index * MAX_HASH_BYTES + hash.length, hash, 0, hash.length);
+	}
+
+	/** @return index of the commit with given (full) hash or -1 */
+	private int indexOf(@NotNull byte[] hash) {
+		final int mask = slots.length - 1;
+		final long key = key(hash, 0, hash.length);
+		for (int slot = slotOf(key, mask); ; slot = (slot + 1) & mask) {
+			final int index = slots[slot] - 1;
+			if (index < 0) {
+				return -1;
+			}
+			if (hashEquals(index, hash)) {
+				return index;
+			}
+		}
+	}
+
+	/** @return index of the only commit whose hash starts with given hex, -1 if there is no such or more such commits */
+	private int indexOfPrefix(@NotNull String hexPrefix) {
+		final byte[] full = parseHash(hexPrefix);
+		if (full != null) {
+			final int index = indexOf(full);
+			if (index >= 0) {
+				return index;
+			}
+		}
+		// Abbreviated hash, this is rare enough to be done by scanning
+		final String prefix = hexPrefix.toLowerCase();
+		int found = -1;
+		for (int i = 0; i < count; i++) {
+			if (hexOf(i).startsWith(prefix)) {
+				if (found >= 0) {
+					return -1;
+				}
+				found = i;
+			}
+		}
+		return found;
+	}
+
+	@NotNull
+	private String hexOf(int index) {
+		final StringBuilder sb = new StringBuilder(hashLengths[index] * 2);
+		for (int i = 0; i < hashLengths[index]; i++) {
+			final int b = hashes[index * MAX_HASH_BYTES + i] & 0xFF;
+			sb.append(Character.forDigit(b >>> 4, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	private void add(@NotNull byte[] hash, byte flags, int seconds, long timeMs) {
+		final int index = count;
+		if (index == this.seconds.length) {
+			final int newCapacity = index * 2;
+			hashes = Arrays.copyOf(hashes, newCapacity * MAX_HASH_BYTES);
+			hashLengths = Arrays.copyOf(hashLengths, newCapacity);
+			this.flags = Arrays.copyOf(this.flags, newCapacity);
+			this.seconds = Arrays.copyOf(this.seconds, newCapacity);
+			timesMs = Arrays.copyOf(timesMs, newCapacity);
+			prefixSeconds = Arrays.copyOf(prefixSeconds, newCapacity + 1);
+		}
+		System.arraycopy(hash, 0, hashes, index * MAX_HASH_BYTES, hash.length);
+		hashLengths[index] = (byte) hash.length;
+		this.flags[index] = flags;
+		this.seconds[index] = seconds;
+		timesMs[index] = timeMs;
+		prefixSeconds[index + 1] = prefixSeconds[index] + ((flags & FLAG_REPLACES) != 0 ? 0 : seconds);
+		count = index + 1;
+
+		if (count * 2 > slots.length) {
+			slots = new int[slots.length * 2];
+			for (int i = 0; i < count; i++) {
+				insertSlot(i);
+			}
+		} else {
+			insertSlot(index);
+		}
+	}
+
+	private void insertSlot(int index) {
+		final int mask = slots.length - 1;
+		int slot = slotOf(key(hashes, index * MAX_HASH_BYTES, hashLengths[index]), mask);
+		while (slots[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		slots[slot] = index + 1;
+	}
+
+	/** @return seconds counted for the commit, -1 if not known. Hash may be abbreviated. */
+	synchronized long secondsOf(@NotNull String hash) {
+		load();
+		final int index = indexOfPrefix(hash);
+		return index < 0 ? -1 : seconds[index];
+	}
+
+	/**
+	 * @return seconds counted for commits made after {@code fromHash} up to and including {@code toHash}
+	 * (like git's {@code from..to}, but in the order in which the commits were made), -1 if some of them is not known
+	 */
+	synchronized long rangeSeconds(@NotNull String fromHash, @NotNull String toHash) {
+		load();
+		final int from = indexOfPrefix(fromHash);
+		final int to = indexOfPrefix(toHash);
+		if (from < 0 || to < 0) {
+			return -1;
+		}
+		if (to <= from) {
+			return 0;
+		}
+		return prefixSeconds[to + 1] - prefixSeconds[from + 1];
+	}
+
+	/** @return amount of known commits */
+	synchronized int size() {
+		load();
+		return count;
+	}
+
+	private void load() {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+
+		final byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(ledgerFile);
+		} catch (NoSuchFileException e) {
+			return;
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to read commit ledger", e);
+			return;
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		final int version = bytes.length < HEADER_SIZE_V1 || buffer.getInt() != MAGIC ? -1 : buffer.getInt();
+		if (version == 1) {
+			reflogOffset = buffer.getLong();
+			saveAll = true;
+		} else if (version == VERSION && bytes.length >= HEADER_SIZE) {
+			reflogOffset = buffer.getLong();
+			reflogAnchor = buffer.getLong();
+			commitSecondsOffset = buffer.getLong();
+		} else {
+			LOG.log(Level.WARNING, "Commit ledger is corrupted, starting a new one");
+			return;
+		}
+		final byte[] hash = new byte[MAX_HASH_BYTES];
+		while (buffer.remaining() >= RECORD_SIZE) {
+			buffer.get(hash);
+			final int hashLength = Math.min(buffer.get(), MAX_HASH_BYTES);
+			final byte recordFlags = buffer.get();
+			buffer.getShort();
+			final int recordSeconds = buffer.getInt();
+			final long recordTimeMs = buffer.getLong();
+			if (hashLength > 0) {
+				add(Arrays.copyOf(hash, hashLength), recordFlags, recordSeconds, recordTimeMs);
+			}
+		}
+	}
+
+	/** Append records from {@code fromRecord} and update the header */
+	private void save(int fromRecord) {
+		if (saveAll) {
+			// Header of the older format was shorter, so all records move
+			fromRecord = 0;
+			saveAll = false;
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate((count - fromRecord) * RECORD_SIZE);
+		for (int i = fromRecord; i < count; i++) {
+			buffer.put(hashes, i * MAX_HASH_BYTES, MAX_HASH_BYTES);
+			buffer.put(hashLengths[i]);
+			buffer.put(flags[i]);
+			buffer.putShort((short) 0);
+			buffer.putInt(seconds[i]);
+			buffer.putLong(timesMs[i]);
+		}
+		buffer.flip();
+
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putLong(reflogOffset);
+		header.putLong(reflogAnchor);
+		header.putLong(commitSecondsOffset);
+		header.flip();
+
+		try (FileChannel channel = FileChannel.open(ledgerFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			// Records first, so that the offset never gets ahead of them
+			long position = HEADER_SIZE + (long) fromRecord * RECORD_SIZE;
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			while (header.hasRemaining()) {
+				channel.write(header, header.position());
+			}
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to write commit ledger", e);
+		}
+	}
+}
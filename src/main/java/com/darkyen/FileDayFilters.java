@@ -0,0 +1,269 @@
+package com.darkyen;
+
+import com.intellij.openapi.util.registry.Registry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bloom filters of the ids of files which were counted some time, one set of filters for each local day,
+ * so that finding the days in which a file was worked on tests each day in constant time, instead of going through the history.
+ * <p>
+ * The first filter of each day is sized for {@link #EXPECTED_FILES} files and half of the configured false positive rate.
+ * When a day has more files, another filter is added to it, twice as large and with half the rate of the previous one,
+ * so the rates of all filters of a day sum to less than the configured rate, however many files the day has.
+ * Not thread safe.
+ */
+final class FileDayFilters {
+
+	private static final Logger LOG = Logger.getLogger(FileDayFilters.class.getName());
+
+	static final String FILE_NAME = "filedays.bin";
+
+	/** Registry key with the false positive rate of the filters of new days, in per mille */
+	static final String FALSE_POSITIVES_REGISTRY_KEY = "darkyenus.time.tracker.file.days.false.positives";
+	private static final int DEFAULT_FALSE_POSITIVES_PER_MILLE = 10;
+	/** Amount of files the first filter of each day is sized for */
+	private static final int EXPECTED_FILES = 64;
+
+	/*
+	File format (all numbers are big endian):
+	 int magic 'DTTB'
+	 int format version
+	 long creation timestamp of the VFS, file ids are valid only with the same one
+	 int amount of days
+	 For each day, sorted:
+	  long local epoch day
+	  byte amount of filters
+	  For each filter:
+	   byte amount of hash functions
+	   int amount of files the filter is sized for
+	   int amount of added files
+	   int amount of longs of bits, followed by them
+	 */
+	private static final int MAGIC = 0x44545442;
+	private static final int VERSION = 1;
+
+	/** Sorted local epoch days which have filters */
+	private long[] days = new long[64];
+	/** Filters of each day, the last one is being filled */
+	private Filter[][] filters = new Filter[64][];
+	private int dayCount = 0;
+
+	/** Bounds of the current local day, so that the day is computed only when it changes */
+	private long dayStartMs = Long.MAX_VALUE;
+	private long dayEndMs = Long.MIN_VALUE;
+	/** Index of the current day in {@link #days}, -1 if it has no filters yet */
+	private int dayIndex = -1;
+	private long day;
+
+	/** File which was added last, to not hash it again while it stays active */
+	private int lastId = 0;
+
+	/** The filters differ from the last snapshot */
+	private boolean dirty = false;
+
+	/** Remember that the file was worked on at the time */
+	void add(int id, long timeMs) {
+		if (id <= 0) {
+			return;
+		}
+		if (timeMs < dayStartMs || timeMs >= dayEndMs) {
+			startDay(timeMs);
+		} else if (id == lastId) {
+			return;
+		}
+		lastId = id;
+
+		final long hash = mix(id);
+		if (dayIndex < 0) {
+			dayIndex = insertDay(day);
+		}
+		final Filter[] dayFilters = filters[dayIndex];
+		for (Filter filter : dayFilters) {
+			if (filter.mightContain(hash)) {
+				return;
+			}
+		}
+		Filter filter = dayFilters[dayFilters.length - 1];
+		if (filter.added >= filter.capacity) {
+			filter = new Filter(filter.capacity * 2, falsePositiveRate(dayFilters.length));
+			filters[dayIndex] = Arrays.copyOf(dayFilters, dayFilters.length + 1);
+			filters[dayIndex][dayFilters.length] = filter;
+		}
+		filter.add(hash);
+		dirty = true;
+	}
+
+	/** @return local days in which the file might have been worked on, a few may be false positives */
+	@NotNull
+	List<LocalDate> days(int id) {
+		final ArrayList<LocalDate> result = new ArrayList<>();
+		final long hash = mix(id);
+		for (int i = 0; i < dayCount; i++) {
+			for (Filter filter : filters[i]) {
+				if (filter.mightContain(hash)) {
+					result.add(LocalDate.ofEpochDay(days[i]));
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	private void startDay(long timeMs) {
+		final ZoneId zone = ZoneId.systemDefault();
+		final LocalDate date = Instant.ofEpochMilli(timeMs).atZone(zone).toLocalDate();
+		dayStartMs = date.atStartOfDay(zone).toInstant().toEpochMilli();
+		dayEndMs = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+		day = date.toEpochDay();
+		final int index = Arrays.binarySearch(days, 0, dayCount, day);
+		dayIndex = index >= 0 ? index : -1;
+		lastId = 0;
+	}
+
+	/** @return index of the new day */
+	private int insertDay(long newDay) {
+		final int index = -Arrays.binarySearch(days, 0, dayCount, newDay) - 1;
+		if (dayCount == days.length) {
+			days = Arrays.copyOf(days, dayCount * 2);
+			filters = Arrays.copyOf(filters, dayCount * 2);
+		}
+		System.arraycopy(days, index, days, index + 1, dayCount - index);
+		System.arraycopy(filters, index, filters, index + 1, dayCount - index);
+		days[index] = newDay;
+		filters[index] = new Filter[]{new Filter(EXPECTED_FILES, falsePositiveRate(0))};
+		dayCount++;
+		return index;
+	}
+
+	/** @return false positive rate of the filter with given index in its day */
+	private static double falsePositiveRate(int filterIndex) {
+		final int perMille = Registry.intValue(FALSE_POSITIVES_REGISTRY_KEY, DEFAULT_FALSE_POSITIVES_PER_MILLE);
+		return Math.min(Math.max(perMille, 1), 500) / 1000.0 * Math.pow(0.5, filterIndex + 1);
+	}
+
+	private static long mix(int id) {
+		long hash = id * 0x9E3779B97F4A7C15L;
+		hash ^= hash >>> 29;
+		hash *= 0xBF58476D1CE4E5B9L;
+		return hash ^ (hash >>> 32);
+	}
+
+	/** @return the filters to save to the directory, null when they have not changed */
+	@Nullable
+	byte[] snapshot(long vfsTimestamp) {
+		if (!dirty) {
+			return null;
+		}
+		dirty = false;
+		return Util.dataFileBytes(MAGIC, VERSION, out -> {
+			out.writeLong(vfsTimestamp);
+			out.writeInt(dayCount);
+			for (int i = 0; i < dayCount; i++) {
+				out.writeLong(days[i]);
+				out.writeByte(filters[i].length);
+				for (Filter filter : filters[i]) {
+					out.writeByte(filter.hashes);
+					out.writeInt(filter.capacity);
+					out.writeInt(filter.added);
+					out.writeInt(filter.bits.length);
+					for (long bits : filter.bits) {
+						out.writeLong(bits);
+					}
+				}
+			}
+		});
+	}
+
+	/** Load what was saved to the directory, unless the file ids have changed since */
+	void load(@NotNull Path directory, long vfsTimestamp) {
+		Util.readDataFile(directory.resolve(FILE_NAME), MAGIC, VERSION, in -> {
+			if (in.readLong() != vfsTimestamp) {
+				// File ids are assigned anew when the caches of the IDE are rebuilt
+				LOG.log(Level.INFO, "File ids have changed, days of files are dropped");
+				dirty = true;
+				return;
+			}
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final long loadedDay = in.readLong();
+				final Filter[] dayFilters = new Filter[in.readUnsignedByte()];
+				for (int f = 0; f < dayFilters.length; f++) {
+					final int hashes = in.readUnsignedByte();
+					final int capacity = in.readInt();
+					final int added = in.readInt();
+					final long[] bits = new long[in.readInt()];
+					for (int b = 0; b < bits.length; b++) {
+						bits[b] = in.readLong();
+					}
+					dayFilters[f] = new Filter(hashes, capacity, added, bits);
+				}
+				if (dayFilters.length == 0) {
+					continue;
+				}
+				final int index = insertDay(loadedDay);
+				filters[index] = dayFilters;
+			}
+		}, LOG, "days of files");
+	}
+
+	/** Bloom filter of hashed ids, with double hashing and the amount of bits a power of two */
+	private static final class Filter {
+		final int hashes;
+		final int capacity;
+		int added;
+		final long[] bits;
+
+		Filter(int capacity, double falsePositiveRate) {
+			final double ln2 = Math.log(2);
+			final double optimalBits = -capacity * Math.log(falsePositiveRate) / (ln2 * ln2);
+			final int words = Integer.highestOneBit(Math.max(1, (int) Math.ceil(optimalBits / 64.0) * 2 - 1));
+			this.hashes = Math.max(1, (int) Math.round(words * 64.0 / capacity * ln2));
+			this.capacity = capacity;
+			this.added = 0;
+			this.bits = new long[words];
+		}
+
+		Filter(int hashes, int capacity, int added, long[] bits) {
+			this.hashes = Math.max(1, hashes);
+			this.capacity = capacity;
+			this.added = added;
+			// Amount of bits must be a power of two
+			this.bits = Integer.bitCount(bits.length) == 1 ? bits : new long[1];
+		}
+
+		boolean mightContain(long hash) {
+			final int mask = bits.length * 64 - 1;
+			final int h1 = (int) hash;
+			final int h2 = (int) (hash >>> 32) | 1;
+			for (int i = 0; i < hashes; i++) {
+				final int bit = (h1 + i * h2) & mask;
+				if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void add(long hash) {
+			final int mask = bits.length * 64 - 1;
+			final int h1 = (int) hash;
+			final int h2 = (int) (hash >>> 32) | 1;
+			for (int i = 0; i < hashes; i++) {
+				final int bit = (h1 + i * h2) & mask;
+				bits[bit >>> 6] |= 1L << bit;
+			}
+			added++;
+		}
+	}
+}
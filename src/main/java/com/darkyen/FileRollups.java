@@ -0,0 +1,434 @@
+package com.darkyen;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Time of files summed by file type, by module and by directory, updated as the time is counted to the active file.
+ * <p>
+ * Directories form a tree of nodes with the time of their whole subtree, keyed by the id of the directory,
+ * which does not change when the directory is renamed or moved. Counting time adds it to the nodes up to the root
+ * and moving a file or a directory moves its time from the old ancestors to the new ones, both in time proportional to the depth.
+ * Not thread safe.
+ */
+final class FileRollups {
+
+	private static final Logger LOG = Logger.getLogger(FileRollups.class.getName());
+
+	static final String FILE_NAME = "rollups.bin";
+
+	/*
+	File format (all numbers are big endian, strings are modified UTF-8 of DataOutput):
+	 int magic 'DTTR'
+	 int format version
+	 long creation timestamp of the VFS, directory ids are valid only with the same one
+	 int amount of file types, then for each: string name, long ms
+	 int amount of modules, then for each: string name, long ms
+	 int amount of directories, then for each: int id, int parent id (0 for none), long ms
+	 */
+	private static final int MAGIC = 0x44545452;
+	private static final int VERSION = 1;
+
+	/** Counters of each file type, by the name of the type, each is an array of one element */
+	private final HashMap<String, long[]> types = new HashMap<>();
+	/** Counters of each module, by the name of the module */
+	private final HashMap<String, long[]> modules = new HashMap<>();
+
+	/** Directory ids to node index + 1, open addressing, zero is empty */
+	private int[] slotIds = new int[256];
+	private int[] slotNodes = new int[256];
+	/** Nodes of the directory tree */
+	private int[] nodeIds = new int[128];
+	private int[] nodeParents = new int[128];
+	private long[] nodeMs = new long[128];
+	private int nodes = 0;
+
+	/** Id of the active file, 0 if there is none */
+	private int activeId = 0;
+	@Nullable
+	private long[] activeType = null;
+	@Nullable
+	private long[] activeModule = null;
+	/** Node of the directory of the active file, -1 if there is none */
+	private int activeDirectory = -1;
+
+	/** The counters or the directory tree differ from the last snapshot */
+	private boolean dirty = false;
+
+	/**
+	 * Make the file active, so that the time is counted to its type, module and directories.
+	 * @param id of the file, not positive when there is no active file
+	 * @param directory which contains the file
+	 */
+	void activate(int id, @Nullable String type, @Nullable String module, @Nullable VirtualFile directory) {
+		if (id <= 0) {
+			activeId = 0;
+			activeType = null;
+			activeModule = null;
+			activeDirectory = -1;
+			return;
+		}
+		activeId = id;
+		activeType = counter(types, type);
+		activeModule = counter(modules, module);
+		activeDirectory = directoryNode(directory);
+	}
+
+	/** Count the time to the active file */
+	void add(long ms) {
+		if (activeId == 0 || ms <= 0) {
+			return;
+		}
+		if (activeType != null) {
+			activeType[0] += ms;
+		}
+		if (activeModule != null) {
+			activeModule[0] += ms;
+		}
+		addToAncestors(activeDirectory, ms);
+		dirty = true;
+	}
+
+	/**
+	 * Move the time of the file or of the whole directory to its new parent directory and module.
+	 * @param fileMs time of the file, ignored for directories
+	 */
+	void moved(@NotNull VirtualFile file, @NotNull VirtualFile oldParent, @NotNull VirtualFile newParent,
+			   @Nullable String oldModule, @Nullable String newModule, long fileMs) {
+		if (!(file instanceof VirtualFileWithId)) {
+			return;
+		}
+		final int id = ((VirtualFileWithId) file).getId();
+		final long ms;
+		boolean containsActive = id == activeId;
+		if (file.isDirectory()) {
+			final int node = findNode(id);
+			if (node < 0) {
+				// Nothing in the directory was counted yet
+				return;
+			}
+			ms = nodeMs[node];
+			if (ms > 0) {
+				addToAncestors(nodeParents[node], -ms);
+			}
+			// Directory of the new parent can't be in the moved subtree, so this does not make a cycle
+			final int newParentNode = directoryNode(newParent);
+			// Moved even without time, so that the time counted later goes to the new ancestors
+			nodeParents[node] = newParentNode;
+			if (ms > 0) {
+				addToAncestors(newParentNode, ms);
+			}
+			for (int ancestor = activeDirectory; ancestor >= 0 && !containsActive; ancestor = nodeParents[ancestor]) {
+				containsActive = ancestor == node;
+			}
+		} else {
+			final int oldParentNode = oldParent instanceof VirtualFileWithId ? findNode(((VirtualFileWithId) oldParent).getId()) : -1;
+			if (fileMs > 0) {
+				addToAncestors(oldParentNode, -fileMs);
+			}
+			final int newParentNode = fileMs > 0 || id == activeId ? directoryNode(newParent) : -1;
+			if (fileMs > 0) {
+				addToAncestors(newParentNode, fileMs);
+			}
+			if (id == activeId) {
+				activeDirectory = newParentNode;
+			}
+			ms = fileMs;
+		}
+
+		if (oldModule == null ? newModule != null : !oldModule.equals(newModule)) {
+			transfer(modules, oldModule, newModule, ms);
+			if (containsActive) {
+				activeModule = counter(modules, newModule);
+			}
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Move the time of the renamed file to its new type.
+	 * @param fileMs time of the file
+	 */
+	void renamed(int id, @NotNull String oldType, @NotNull String newType, long fileMs) {
+		if (oldType.equals(newType)) {
+			return;
+		}
+		transfer(types, oldType, newType, fileMs);
+		if (id == activeId) {
+			activeType = counter(types, newType);
+		}
+		dirty = true;
+	}
+
+	void clear() {
+		for (long[] counter : types.values()) {
+			counter[0] = 0;
+		}
+		for (long[] counter : modules.values()) {
+			counter[0] = 0;
+		}
+		Arrays.fill(nodeMs, 0L);
+		dirty = true;
+	}
+
+	/** @return copy of the time of each type, module and directory, which can be added back by {@link #addAll(FileRollups)} */
+	@NotNull
+	FileRollups copy() {
+		final FileRollups copy = new FileRollups();
+		for (Map.Entry<String, long[]> entry : types.entrySet()) {
+			copy.types.put(entry.getKey(), entry.getValue().clone());
+		}
+		for (Map.Entry<String, long[]> entry : modules.entrySet()) {
+			copy.modules.put(entry.getKey(), entry.getValue().clone());
+		}
+		copy.nodeIds = Arrays.copyOf(nodeIds, nodes);
+		copy.nodeParents = Arrays.copyOf(nodeParents, nodes);
+		copy.nodeMs = Arrays.copyOf(nodeMs, nodes);
+		copy.nodes = nodes;
+		return copy;
+	}
+
+	/** Add the time of the other rollups, used for undoing {@link #clear()} */
+	void addAll(@NotNull FileRollups other) {
+		for (Map.Entry<String, long[]> entry : other.types.entrySet()) {
+			if (entry.getValue()[0] > 0) {
+				counter(types, entry.getKey())[0] += entry.getValue()[0];
+			}
+		}
+		for (Map.Entry<String, long[]> entry : other.modules.entrySet()) {
+			if (entry.getValue()[0] > 0) {
+				counter(modules, entry.getKey())[0] += entry.getValue()[0];
+			}
+		}
+		// Directories may have moved since, so the time of each directory without its subdirectories goes to its current ancestors
+		final long[] ownMs = Arrays.copyOf(other.nodeMs, other.nodes);
+		for (int node = 0; node < other.nodes; node++) {
+			if (other.nodeParents[node] >= 0) {
+				ownMs[other.nodeParents[node]] -= other.nodeMs[node];
+			}
+		}
+		for (int node = 0; node < other.nodes; node++) {
+			if (ownMs[node] > 0) {
+				addToAncestors(findNode(other.nodeIds[node]), ownMs[node]);
+			}
+		}
+		dirty = true;
+	}
+
+	/** @return time of each file type, sorted from the one with most time */
+	@NotNull
+	List<Map.Entry<String, Long>> types() {
+		return sorted(types);
+	}
+
+	/** @return time of each module, sorted from the one with most time */
+	@NotNull
+	List<Map.Entry<String, Long>> modules() {
+		return sorted(modules);
+	}
+
+	/**
+	 * Find the directories with the most time in their subtree.
+	 * @return amount of found directories, see {@link FileTimes#top(int[], long[])}
+	 */
+	int topDirectories(int[] topIds, long[] topTimesMs) {
+		int found = 0;
+		for (int node = 0; node < nodes; node++) {
+			final long timeMs = nodeMs[node];
+			if (timeMs <= 0 || (found == topIds.length && timeMs <= topTimesMs[found - 1])) {
+				continue;
+			}
+			int i = found == topIds.length ? found - 1 : found++;
+			while (i > 0 && topTimesMs[i - 1] < timeMs) {
+				topIds[i] = topIds[i - 1];
+				topTimesMs[i] = topTimesMs[i - 1];
+				i--;
+			}
+			topIds[i] = nodeIds[node];
+			topTimesMs[i] = timeMs;
+		}
+		return found;
+	}
+
+	@NotNull
+	private static List<Map.Entry<String, Long>> sorted(@NotNull HashMap<String, long[]> counters) {
+		final ArrayList<Map.Entry<String, Long>> result = new ArrayList<>(counters.size());
+		for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+			if (entry.getValue()[0] > 0) {
+				result.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()[0]));
+			}
+		}
+		result.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+		return result;
+	}
+
+	@Nullable
+	private static long[] counter(@NotNull HashMap<String, long[]> counters, @Nullable String name) {
+		return name == null ? null : counters.computeIfAbsent(name, n -> new long[1]);
+	}
+
+	private static void transfer(@NotNull HashMap<String, long[]> counters, @Nullable String from, @Nullable String to, long ms) {
+		if (ms <= 0) {
+			return;
+		}
+		final long[] fromCounter = from == null ? null : counters.get(from);
+		if (fromCounter != null) {
+			fromCounter[0] = Math.max(0L, fromCounter[0] - ms);
+		}
+		final long[] toCounter = counter(counters, to);
+		if (toCounter != null) {
+			toCounter[0] += ms;
+		}
+	}
+
+	private void addToAncestors(int node, long ms) {
+		for (; node >= 0; node = nodeParents[node]) {
+			nodeMs[node] = Math.max(0L, nodeMs[node] + ms);
+		}
+	}
+
+	/** @return node of the directory, created with its ancestors if it does not exist, -1 if the directory has no id */
+	private int directoryNode(@Nullable VirtualFile directory) {
+		if (!(directory instanceof VirtualFileWithId)) {
+			return -1;
+		}
+		final int id = ((VirtualFileWithId) directory).getId();
+		final int existing = findNode(id);
+		if (existing >= 0) {
+			return existing;
+		}
+		final int parent = directoryNode(directory.getParent());
+		return createNode(id, parent);
+	}
+
+	private int findNode(int id) {
+		final int mask = slotIds.length - 1;
+		int slot = home(id, mask);
+		while (true) {
+			final int existing = slotIds[slot];
+			if (existing == id) {
+				return slotNodes[slot] - 1;
+			}
+			if (existing == 0) {
+				return -1;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private int createNode(int id, int parent) {
+		if (nodes == nodeIds.length) {
+			nodeIds = Arrays.copyOf(nodeIds, nodes * 2);
+			nodeParents = Arrays.copyOf(nodeParents, nodes * 2);
+			nodeMs = Arrays.copyOf(nodeMs, nodes * 2);
+		}
+		final int node = nodes++;
+		nodeIds[node] = id;
+		nodeParents[node] = parent;
+		nodeMs[node] = 0L;
+
+		if (nodes * 2 > slotIds.length) {
+			slotIds = new int[slotIds.length * 2];
+			slotNodes = new int[slotNodes.length * 2];
+			for (int i = 0; i < nodes; i++) {
+				insertSlot(nodeIds[i], i);
+			}
+		} else {
+			insertSlot(id, node);
+		}
+		return node;
+	}
+
+	private void insertSlot(int id, int node) {
+		final int mask = slotIds.length - 1;
+		int slot = home(id, mask);
+		while (slotIds[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		slotIds[slot] = id;
+		slotNodes[slot] = node + 1;
+	}
+
+	private static int home(int id, int mask) {
+		final int hash = id * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/** @return the rollups to save to the directory, null when they have not changed since they were last taken */
+	@Nullable
+	byte[] snapshot(long vfsTimestamp) {
+		if (!dirty) {
+			return null;
+		}
+		dirty = false;
+		return Util.dataFileBytes(MAGIC, VERSION, out -> {
+			out.writeLong(vfsTimestamp);
+			writeCounters(out, types);
+			writeCounters(out, modules);
+			out.writeInt(nodes);
+			for (int node = 0; node < nodes; node++) {
+				out.writeInt(nodeIds[node]);
+				out.writeInt(nodeParents[node] < 0 ? 0 : nodeIds[nodeParents[node]]);
+				out.writeLong(nodeMs[node]);
+			}
+		});
+	}
+
+	private static void writeCounters(@NotNull DataOutputStream out, @NotNull HashMap<String, long[]> counters) throws IOException {
+		out.writeInt(counters.size());
+		for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+			out.writeUTF(entry.getKey());
+			out.writeLong(entry.getValue()[0]);
+		}
+	}
+
+	private static void readCounters(@NotNull DataInputStream in, @NotNull HashMap<String, long[]> counters) throws IOException {
+		final int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			final String name = in.readUTF();
+			counter(counters, name)[0] += in.readLong();
+		}
+	}
+
+	/** Load what was saved to the directory, directories only if their ids have not changed since */
+	void load(@NotNull Path directory, long vfsTimestamp) {
+		Util.readDataFile(directory.resolve(FILE_NAME), MAGIC, VERSION, in -> {
+			final boolean sameIds = in.readLong() == vfsTimestamp;
+			readCounters(in, types);
+			readCounters(in, modules);
+			if (!sameIds) {
+				// File ids are assigned anew when the caches of the IDE are rebuilt
+				LOG.log(Level.INFO, "File ids have changed, time of directories is dropped");
+				dirty = true;
+				return;
+			}
+
+			final int count = in.readInt();
+			final int[] parentIds = new int[count];
+			for (int i = 0; i < count; i++) {
+				final int node = createNode(in.readInt(), -1);
+				parentIds[i] = in.readInt();
+				nodeMs[node] = in.readLong();
+			}
+			// Parents are linked after all nodes exist, a moved directory may have been created before its new parent
+			for (int node = 0; node < count; node++) {
+				nodeParents[node] = parentIds[node] == 0 ? -1 : findNode(parentIds[node]);
+			}
+		}, LOG, "time of file types, modules and directories");
+	}
+}
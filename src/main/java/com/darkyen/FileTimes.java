@@ -0,0 +1,214 @@
+package com.darkyen;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Time counted for each file, keyed by the id of its {@link com.intellij.openapi.vfs.VirtualFile},
+ * in an open addressing table of primitive keys and counters, so that it does not box and allocates only when it grows.
+ * <p>
+ * The slot of the active file is remembered, so counting time is a single addition
+ * and switching to another file is a single lookup.
+ * Not thread safe.
+ */
+final class FileTimes {
+
+	private static final Logger LOG = Logger.getLogger(FileTimes.class.getName());
+
+	static final String FILE_NAME = "files.bin";
+
+	/*
+	File format (all numbers are big endian):
+	 int magic 'DTTF'
+	 int format version
+	 long creation timestamp of the VFS, file ids are valid only with the same one
+	 int amount of files
+	 For each file:
+	  int file id
+	  long counted ms
+	 */
+	private static final int MAGIC = 0x44545446;
+	private static final int VERSION = 1;
+
+	/** File ids, zero is empty (ids are positive) */
+	private int[] ids = new int[1024];
+	private long[] timesMs = new long[1024];
+	private int size = 0;
+
+	/** Slot of the active file, -1 if there is none */
+	private int activeSlot = -1;
+	/** Whether there is anything for {@link #snapshot(long)} to return */
+	private boolean dirty = false;
+
+	/** Make the file active, so that the time is counted to it, or no file when {@code id} is not positive */
+	void activate(int id) {
+		if (id <= 0) {
+			activeSlot = -1;
+		} else if (activeSlot < 0 || ids[activeSlot] != id) {
+			activeSlot = slotOf(id);
+		}
+	}
+
+	/** Count the time to the active file */
+	void add(long ms) {
+		if (activeSlot >= 0 && ms > 0) {
+			timesMs[activeSlot] += ms;
+			dirty = true;
+		}
+	}
+
+	/** @return time counted to the file */
+	long timeMs(int id) {
+		if (id <= 0) {
+			return 0L;
+		}
+		final int mask = ids.length - 1;
+		final int hash = id * 0x9E3779B9;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (true) {
+			final int existing = ids[slot];
+			if (existing == id) {
+				return timesMs[slot];
+			}
+			if (existing == 0) {
+				return 0L;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/** Set the time of all files to zero, the active file stays active */
+	void clear() {
+		Arrays.fill(timesMs, 0L);
+		dirty = true;
+	}
+
+	/** @return copy of the time of each file, which can be added back by {@link #addAll(FileTimes)} */
+	@NotNull
+	FileTimes copy() {
+		final FileTimes copy = new FileTimes();
+		copy.ids = ids.clone();
+		copy.timesMs = timesMs.clone();
+		copy.size = size;
+		return copy;
+	}
+
+	/** Add the time of each file of the other times, used for undoing {@link #clear()} */
+	void addAll(@NotNull FileTimes other) {
+		for (int otherSlot = 0; otherSlot < other.ids.length; otherSlot++) {
+			if (other.ids[otherSlot] != 0 && other.timesMs[otherSlot] > 0) {
+				// Looked up first, the lookup may grow the arrays
+				final int slot = slotOf(other.ids[otherSlot]);
+				timesMs[slot] += other.timesMs[otherSlot];
+				dirty = true;
+			}
+		}
+	}
+
+	/**
+	 * Find the files with the most time.
+	 * @param topIds filled with ids of the files, its length is the amount of files to find
+	 * @param topTimesMs filled with time of the files, same length as {@code topIds}
+	 * @return amount of found files, sorted from the one with most time
+	 */
+	int top(int[] topIds, long[] topTimesMs) {
+		// Insertion into a short sorted array, which is fast for the small amounts this is used for
+		int found = 0;
+		for (int slot = 0; slot < ids.length; slot++) {
+			final long timeMs = timesMs[slot];
+			if (ids[slot] == 0 || timeMs <= 0 || (found == topIds.length && timeMs <= topTimesMs[found - 1])) {
+				continue;
+			}
+			int i = found == topIds.length ? found - 1 : found++;
+			while (i > 0 && topTimesMs[i - 1] < timeMs) {
+				topIds[i] = topIds[i - 1];
+				topTimesMs[i] = topTimesMs[i - 1];
+				i--;
+			}
+			topIds[i] = ids[slot];
+			topTimesMs[i] = timeMs;
+		}
+		return found;
+	}
+
+	private int slotOf(int id) {
+		if ((size + 1) * 2 > ids.length) {
+			grow();
+		}
+		final int mask = ids.length - 1;
+		final int hash = id * 0x9E3779B9;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (true) {
+			final int existing = ids[slot];
+			if (existing == id) {
+				return slot;
+			}
+			if (existing == 0) {
+				ids[slot] = id;
+				size++;
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void grow() {
+		final int activeId = activeSlot >= 0 ? ids[activeSlot] : 0;
+		final int[] oldIds = ids;
+		final long[] oldTimesMs = timesMs;
+		ids = new int[oldIds.length * 2];
+		timesMs = new long[oldIds.length * 2];
+		size = 0;
+		for (int i = 0; i < oldIds.length; i++) {
+			if (oldIds[i] != 0) {
+				timesMs[slotOf(oldIds[i])] = oldTimesMs[i];
+			}
+		}
+		activeSlot = activeId == 0 ? -1 : slotOf(activeId);
+	}
+
+	/** @return content of the file to save to the directory, null when nothing has changed since the last snapshot */
+	@Nullable
+	byte[] snapshot(long vfsTimestamp) {
+		if (!dirty) {
+			return null;
+		}
+		dirty = false;
+		return Util.dataFileBytes(MAGIC, VERSION, out -> {
+			out.writeLong(vfsTimestamp);
+			out.writeInt(size);
+			for (int slot = 0; slot < ids.length; slot++) {
+				if (ids[slot] != 0) {
+					out.writeInt(ids[slot]);
+					out.writeLong(timesMs[slot]);
+				}
+			}
+		});
+	}
+
+	/** Load what was saved to the directory, unless the file ids have changed since */
+	void load(@NotNull Path directory, long vfsTimestamp) {
+		Util.readDataFile(directory.resolve(FILE_NAME), MAGIC, VERSION, in -> {
+			if (in.readLong() != vfsTimestamp) {
+				// File ids are assigned anew when the caches of the IDE are rebuilt
+				LOG.log(Level.INFO, "File ids have changed, time of files is dropped");
+				dirty = true;
+				return;
+			}
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final int id = in.readInt();
+				final long timeMs = in.readLong();
+				if (id > 0) {
+					final int slot = slotOf(id);
+					timesMs[slot] += timeMs;
+				}
+			}
+		}, LOG, "time of files");
+	}
+}
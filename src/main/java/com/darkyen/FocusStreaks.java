@@ -0,0 +1,159 @@
+package com.darkyen;
+
+import com.intellij.openapi.util.registry.Registry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Focus streaks: running time from an input to an input, with no pause between inputs longer than the gap
+ * and no input in another project in between.
+ * <p>
+ * Streaks are detected as the inputs and status changes come, only the start of the current streak and the last input are kept.
+ * A streak which ends is summed into the count, total and longest streak of the local day in which it started.
+ * Thread safe, input which continues the streak does not lock.
+ */
+final class FocusStreaks {
+
+	private static final Logger LOG = Logger.getLogger(FocusStreaks.class.getName());
+
+	static final String FILE_NAME = "streaks.bin";
+
+	/** Registry key with the longest pause between inputs which does not end a streak, in seconds */
+	static final String GAP_REGISTRY_KEY = "darkyenus.time.tracker.streak.gap.seconds";
+	private static final int DEFAULT_GAP_SECONDS = 120;
+	/** Streaks shorter than this are not counted, so that a few inputs in passing do not lower the average */
+	static final long MIN_STREAK_MS = 5L * 60L * 1000L;
+
+	/*
+	File format (all numbers are big endian):
+	 int magic 'DTTE'
+	 int format version
+	 int amount of days
+	 For each day, sorted:
+	  long local epoch day
+	  int amount of streaks
+	  long total ms of streaks
+	  long ms of the longest streak
+	 */
+	private static final int MAGIC = 0x44545445;
+	private static final int VERSION = 1;
+
+	/** Streaks of the project which got the last input, input in any other project ends the streak */
+	private static volatile FocusStreaks lastInput = null;
+
+	/** Start of the current streak, -1 if there is none */
+	private volatile long streakStartMs = -1L;
+	private volatile long lastInputMs = 0L;
+	private volatile long gapMs = DEFAULT_GAP_SECONDS * 1000L;
+
+	/** Amount, total ms and longest ms of the streaks of each local epoch day */
+	private final TreeMap<Long, long[]> days = new TreeMap<>();
+
+	/** A streak has ended since the last snapshot */
+	private boolean dirty = false;
+
+	/** Record input made while the time is running */
+	void input(long nowMs) {
+		if (lastInput == this && streakStartMs >= 0 && nowMs - lastInputMs <= gapMs) {
+			lastInputMs = nowMs;
+			return;
+		}
+		synchronized (this) {
+			if (streakStartMs >= 0) {
+				if (lastInput == this && nowMs - lastInputMs <= gapMs) {
+					lastInputMs = nowMs;
+					return;
+				}
+				// Pause was too long or the user worked in another project
+				end();
+			}
+			lastInput = this;
+			gapMs = Math.max(1, Registry.intValue(GAP_REGISTRY_KEY, DEFAULT_GAP_SECONDS)) * 1000L;
+			lastInputMs = nowMs;
+			streakStartMs = nowMs;
+		}
+	}
+
+	/** The time stopped running, which ends the streak at the last input */
+	synchronized void stopped() {
+		if (streakStartMs >= 0) {
+			end();
+		}
+	}
+
+	private void end() {
+		final long startMs = streakStartMs;
+		final long streakMs = lastInputMs - startMs;
+		streakStartMs = -1L;
+		if (streakMs < MIN_STREAK_MS) {
+			return;
+		}
+		final long day = Instant.ofEpochMilli(startMs).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+		final long[] dayStreaks = days.computeIfAbsent(day, d -> new long[3]);
+		dayStreaks[0]++;
+		dayStreaks[1] += streakMs;
+		dayStreaks[2] = Math.max(dayStreaks[2], streakMs);
+		dirty = true;
+	}
+
+	/**
+	 * @return amount, total ms and longest ms of the streaks of each local day, from the most recent day,
+	 * with the current streak counted as if it ended now
+	 */
+	@NotNull
+	synchronized TreeMap<LocalDate, long[]> report(long nowMs) {
+		final TreeMap<LocalDate, long[]> result = new TreeMap<>((a, b) -> b.compareTo(a));
+		for (Map.Entry<Long, long[]> entry : days.entrySet()) {
+			result.put(LocalDate.ofEpochDay(entry.getKey()), entry.getValue().clone());
+		}
+		final long startMs = streakStartMs;
+		final long streakMs = lastInputMs - startMs;
+		if (startMs >= 0 && lastInput == this && nowMs - lastInputMs <= gapMs && streakMs >= MIN_STREAK_MS) {
+			final long[] dayStreaks = result.computeIfAbsent(Instant.ofEpochMilli(startMs).atZone(ZoneId.systemDefault()).toLocalDate(), d -> new long[3]);
+			dayStreaks[0]++;
+			dayStreaks[1] += streakMs;
+			dayStreaks[2] = Math.max(dayStreaks[2], streakMs);
+		}
+		return result;
+	}
+
+	/** @return the streaks to save to the directory, null unless a streak has ended since the last snapshot */
+	@Nullable
+	synchronized byte[] snapshot() {
+		if (!dirty) {
+			return null;
+		}
+		dirty = false;
+		return Util.dataFileBytes(MAGIC, VERSION, out -> {
+			out.writeInt(days.size());
+			for (Map.Entry<Long, long[]> entry : days.entrySet()) {
+				out.writeLong(entry.getKey());
+				out.writeInt((int) entry.getValue()[0]);
+				out.writeLong(entry.getValue()[1]);
+				out.writeLong(entry.getValue()[2]);
+			}
+		});
+	}
+
+	/** Load what was saved to the directory */
+	synchronized void load(@NotNull Path directory) {
+		Util.readDataFile(directory.resolve(FILE_NAME), MAGIC, VERSION, in -> {
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				// Added to the streaks which ended before the load
+				final long[] dayStreaks = days.computeIfAbsent(in.readLong(), d -> new long[3]);
+				dayStreaks[0] += in.readInt();
+				dayStreaks[1] += in.readLong();
+				dayStreaks[2] = Math.max(dayStreaks[2], in.readLong());
+			}
+		}, LOG, "focus streaks");
+	}
+}
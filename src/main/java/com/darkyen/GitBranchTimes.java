@@ -0,0 +1,169 @@
+package com.darkyen;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Git time of branches which are not checked out, all in a single file of the git directory.
+ * The time of the checked-out branch is in the time file, where the commit hook can find it.
+ * <p>
+ * Branches are identified by a key, which is the branch name, followed by a space and the changelist id,
+ * when the time is counted separately for each changelist (branch names can't contain spaces).
+ * <p>
+ * File format, lines:
+ * <ol>
+ *     <li>Branch key to which the time file belongs</li>
+ *     <li>For each other branch key: counted seconds, tab, branch key (branch names can't contain tabs)</li>
+ * </ol>
+ * Not thread safe.
+ */
+final class GitBranchTimes {
+
+	private static final Logger LOG = Logger.getLogger("com.darkyen.GitBranchTimes");
+
+	static final String STORE_FILE_NAME = ".darkyenus_time_tracker_branch_times";
+	/** Pseudo-branch for commits made with detached HEAD */
+	static final String DETACHED = "HEAD";
+
+	private static final String HEAD_REF_PREFIX = "ref: refs/heads/";
+
+	@NotNull
+	private final Path storeFile;
+
+	/** Loaded lazily */
+	@Nullable
+	private HashMap<String, Long> branchSeconds = null;
+	@Nullable
+	private String timeFileBranch = null;
+
+	GitBranchTimes(@NotNull Path gitDirectory) {
+		this.storeFile = gitDirectory.resolve(STORE_FILE_NAME);
+	}
+
+	/** @return currently checked-out branch, or {@link #DETACHED} */
+	@NotNull
+	static String readCheckedOutBranch(@NotNull Path gitDirectory) {
+		final String head;
+		try (BufferedReader reader = Files.newBufferedReader(gitDirectory.resolve("HEAD"), StandardCharsets.UTF_8)) {
+			head = reader.readLine();
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to read HEAD", e);
+			return DETACHED;
+		}
+		if (head != null && head.startsWith(HEAD_REF_PREFIX)) {
+			return head.substring(HEAD_REF_PREFIX.length()).trim();
+		}
+		return DETACHED;
+	}
+
+	/** @return key of the branch with given changelist */
+	@NotNull
+	static String key(@NotNull String branch, @Nullable String changelist) {
+		return changelist == null ? branch : branch + ' ' + changelist;
+	}
+
+	/** @return changelist part of the key, null if it has none */
+	@Nullable
+	static String changelistOf(@NotNull String key) {
+		final int space = key.indexOf(' ');
+		return space < 0 ? null : key.substring(space + 1);
+	}
+
+	@NotNull
+	private HashMap<String, Long> branchSeconds() {
+		HashMap<String, Long> branchSeconds = this.branchSeconds;
+		if (branchSeconds != null) {
+			return branchSeconds;
+		}
+		this.branchSeconds = branchSeconds = new HashMap<>();
+		try (BufferedReader reader = Files.newBufferedReader(storeFile, StandardCharsets.UTF_8)) {
+			timeFileBranch = reader.readLine();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final int tab = line.indexOf('\t');
+				if (tab <= 0) {
+					continue;
+				}
+				try {
+					branchSeconds.put(line.substring(tab + 1), Long.parseLong(line, 0, tab, 10));
+				} catch (NumberFormatException e) {
+					LOG.log(Level.WARNING, "Invalid line in branch time file: \"" + line + "\"");
+				}
+			}
+		} catch (NoSuchFileException ignored) {
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to read branch time file", e);
+		}
+		return branchSeconds;
+	}
+
+	/** @return branch to which the time file belonged when the store was last saved, null if unknown */
+	@Nullable
+	String timeFileBranch() {
+		branchSeconds();
+		return timeFileBranch;
+	}
+
+	/**
+	 * Store the time of the branch which is being checked out of the time file
+	 * and take the time of the branch which is moving into it.
+	 * @return seconds of the {@code toBranch}
+	 */
+	long switchBranch(@NotNull String fromBranch, long fromBranchSeconds, @NotNull String toBranch) {
+		final HashMap<String, Long> branchSeconds = branchSeconds();
+		if (fromBranchSeconds > 0) {
+			branchSeconds.put(fromBranch, fromBranchSeconds);
+		} else {
+			branchSeconds.remove(fromBranch);
+		}
+		final Long toBranchSeconds = branchSeconds.remove(toBranch);
+		timeFileBranch = toBranch;
+		save();
+		return toBranchSeconds == null ? 0L : toBranchSeconds;
+	}
+
+	/** Remember the branch of the time file, if it is not remembered already */
+	void setTimeFileBranch(@NotNull String branch) {
+		branchSeconds();
+		if (!branch.equals(timeFileBranch)) {
+			timeFileBranch = branch;
+			save();
+		}
+	}
+
+	private void save() {
+		final HashMap<String, Long> branchSeconds = this.branchSeconds;
+		if (branchSeconds == null) {
+			return;
+		}
+		final Path tempFile = storeFile.resolveSibling(STORE_FILE_NAME + ".tmp");
+		try {
+			try (BufferedWriter out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+				out.write(timeFileBranch == null ? DETACHED : timeFileBranch);
+				out.write('\n');
+				for (Map.Entry<String, Long> entry : branchSeconds.entrySet()) {
+					out.write(Long.toString(entry.getValue()));
+					out.write('\t');
+					out.write(entry.getKey());
+					out.write('\n');
+				}
+			}
+			Files.move(tempFile, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to write branch time file", e);
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package com.darkyen;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Imports the time of commits from their messages, where the commit hook has put it, as {@link TimeTrackerStorage#KIND_IMPORTED} records.
+ * <p>
+ * The log of each repository is streamed once and only the imported commits are remembered (8 bytes each),
+ * so that importing the same commits again (from another repository, or when the import is run again) does not add them twice.
+ * Commits are identified by their author time and duration, which survive rebases.
+ * Commits made after the first tracked interval are not imported, their time is already in the history.
+ */
+final class GitHistoryImport {
+
+	private static final Logger LOG = Logger.getLogger("com.darkyen.GitHistoryImport");
+
+	private static final long TIMEOUT_SECONDS = 30;
+	/** Starts each commit in the log output */
+	private static final char COMMIT_SEPARATOR = '\u001e';
+
+	@NotNull
+	private final TimeTrackerStorage storage;
+	@NotNull
+	private final List<TimePattern> patterns;
+
+	/** Keys of all imported commits, see {@link #key(long, long)} */
+	private final LongHashSet imported = new LongHashSet();
+	private long firstTrackedMs = Long.MAX_VALUE;
+
+	/** Amount of commits with time in their message */
+	long commits = 0;
+	/** Amount of newly imported commits */
+	long importedCommits = 0;
+	/** Time of newly imported commits */
+	long importedMs = 0;
+	/** Amount of commits which were imported before */
+	long alreadyImportedCommits = 0;
+	/** Amount of commits made when the time was already tracked */
+	long trackedCommits = 0;
+
+	/**
+	 * Read what was imported before from the storage, which should be flushed.
+	 * @param patterns which may have been used to write the time into the messages, tried in order
+	 */
+	GitHistoryImport(@NotNull TimeTrackerStorage storage, @NotNull List<TimePattern> patterns) throws IOException {
+		this.storage = storage;
+		this.patterns = patterns;
+
+		final TimeTrackerStorage.RecordVisitor visitor = (index, timeMs, valueMs, kind, tag) -> {
+			if (kind == TimeTrackerStorage.KIND_IMPORTED) {
+				imported.add(key(timeMs, valueMs));
+			} else if (kind == TimeTrackerStorage.KIND_INTERVAL) {
+				firstTrackedMs = Math.min(firstTrackedMs, timeMs);
+			}
+		};
+		final long written = storage.writtenRecordCount();
+		storage.readWrittenRecordsConcurrently(0, written, visitor);
+		synchronized (storage) {
+			storage.readRecords(written, storage.recordCount(), visitor);
+		}
+	}
+
+	/** @return key of imported commit, unique for its start and duration, which are whole seconds */
+	private static long key(long startMs, long durationMs) {
+		return (startMs / 1000L) << 32 | ((durationMs / 1000L) & 0xFFFF_FFFFL);
+	}
+
+	/**
+	 * Import the commits of HEAD of the repository, which were authored by the configured user. Blocks until done.
+	 * @return false if the log could not be read
+	 */
+	boolean importRepository(@NotNull Path gitDirectory, @NotNull ProgressIndicator indicator) {
+		final String userEmail = userEmail(gitDirectory);
+
+		final Process process;
+		try {
+			process = new ProcessBuilder("git", "--git-dir=" + gitDirectory, "log", "--no-color", "--format=%x1e%at %ae%n%B", "HEAD")
+					.redirectError(ProcessBuilder.Redirect.DISCARD)
+					.start();
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to start git log", e);
+			return false;
+		}
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			process.getOutputStream().close();
+
+			long authorTimeMs = -1;
+			boolean ownCommit = false;
+			int seconds = -1;
+			long read = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty() && line.charAt(0) == COMMIT_SEPARATOR) {
+					commitRead(authorTimeMs, seconds);
+					if ((++read & 1023) == 0) {
+						if (indicator.isCanceled()) {
+							break;
+						}
+						indicator.setText2(read + " commits read");
+					}
+
+					// Header line: author time and email
+					final int space = line.indexOf(' ');
+					authorTimeMs = -1;
+					seconds = -1;
+					try {
+						authorTimeMs = Long.parseLong(line.substring(1, space < 0 ? line.length() : space)) * 1000L;
+					} catch (NumberFormatException e) {
+						LOG.log(Level.WARNING, "Unexpected git log line: " + line);
+					}
+					ownCommit = userEmail == null || (space >= 0 && userEmail.equalsIgnoreCase(line.substring(space + 1)));
+				} else if (ownCommit && seconds <= 0) {
+					for (TimePattern pattern : patterns) {
+						seconds = pattern.stringToSeconds(line);
+						if (seconds > 0) {
+							break;
+						}
+					}
+				}
+			}
+			commitRead(authorTimeMs, seconds);
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to read git log", e);
+			process.destroyForcibly();
+			return false;
+		}
+
+		try {
+			if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				process.destroyForcibly();
+				LOG.log(Level.WARNING, "git log timed out");
+				return false;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			process.destroyForcibly();
+			return false;
+		}
+		if (indicator.isCanceled()) {
+			process.destroyForcibly();
+			return true;
+		}
+		if (process.exitValue() != 0) {
+			// Also when the repository has no commits yet
+			LOG.log(Level.INFO, "git log of " + gitDirectory + " failed (" + process.exitValue() + ")");
+			return false;
+		}
+		return true;
+	}
+
+	private void commitRead(long authorTimeMs, int seconds) {
+		if (authorTimeMs < 0 || seconds <= 0) {
+			return;
+		}
+		commits++;
+		if (authorTimeMs >= firstTrackedMs) {
+			trackedCommits++;
+			return;
+		}
+
+		final long durationMs = seconds * 1000L;
+		final long startMs = Math.max(0L, authorTimeMs - durationMs);
+		if (!imported.add(key(startMs, durationMs))) {
+			alreadyImportedCommits++;
+			return;
+		}
+		storage.append(TimeTrackerStorage.KIND_IMPORTED, startMs, durationMs);
+		importedCommits++;
+		importedMs += durationMs;
+	}
+
+	/** @return email of the user who commits to the repository, or null if it is not configured */
+	@Nullable
+	private static String userEmail(@NotNull Path gitDirectory) {
+		Path outputFile = null;
+		try {
+			// Output goes to a file, reading a pipe would block past the timeout if git hangs
+			outputFile = Files.createTempFile("darkyen-time-tracker-git", ".out");
+			final Process process = new ProcessBuilder("git", "--git-dir=" + gitDirectory, "config", "user.email")
+					.redirectOutput(outputFile.toFile())
+					.redirectError(ProcessBuilder.Redirect.DISCARD)
+					.start();
+			process.getOutputStream().close();
+			if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				process.destroyForcibly();
+				LOG.log(Level.WARNING, "git config timed out");
+				return null;
+			}
+			final String output = new String(Files.readAllBytes(outputFile), StandardCharsets.UTF_8).trim();
+			return process.exitValue() == 0 && !output.isEmpty() ? output : null;
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to read git user email", e);
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			if (outputFile != null) {
+				try {
+					Files.deleteIfExists(outputFile);
+				} catch (IOException e) {
+					LOG.log(Level.WARNING, "Failed to delete " + outputFile, e);
+				}
+			}
+		}
+	}
+
+	/** Open addressing set of longs, zero can't be stored. */
+	private static final class LongHashSet {
+		private long[] slots = new long[1024];
+		private int size = 0;
+
+		/** @return true if the value was not in the set */
+		boolean add(long value) {
+			if ((size + 1) * 2 > slots.length) {
+				final long[] old = slots;
+				slots = new long[old.length * 2];
+				size = 0;
+				for (long oldValue : old) {
+					if (oldValue != 0) {
+						add(oldValue);
+					}
+				}
+			}
+
+			final int mask = slots.length - 1;
+			int slot = (int) (mix(value) & mask);
+			while (true) {
+				final long existing = slots[slot];
+				if (existing == value) {
+					return false;
+				}
+				if (existing == 0) {
+					slots[slot] = value;
+					size++;
+					return true;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		private static long mix(long value) {
+			value *= 0x9E3779B97F4A7C15L;
+			return value ^ (value >>> 32);
+		}
+	}
+}
@@ -1,11 +1,12 @@
-
 package com.darkyen;
 
-import com.intellij.openapi.application.Application;
-import com.intellij.openapi.application.ApplicationManager;
-import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.util.io.StreamUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -15,8 +16,14 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,9 +42,28 @@ final class GitIntegration {
 	@NotNull
 	private final Path hooksDirectory;
 
+	/** Guarded by writeLock */
+	@NotNull
+	private final GitBranchTimes branchTimes;
+	@NotNull
+	private final CommitLedger commitLedger;
+
 	GitIntegration (@NotNull Path gitDirectory, @NotNull Path hooksDirectory) {
 		this.gitDirectory = gitDirectory;
 		this.hooksDirectory = hooksDirectory;
+		this.branchTimes = new GitBranchTimes(gitDirectory);
+		this.commitLedger = new CommitLedger(gitDirectory);
+	}
+
+	/** @return time counted for commits of this repository */
+	@NotNull
+	CommitLedger commitLedger() {
+		return commitLedger;
+	}
+
+	@NotNull
+	Path gitDirectory() {
+		return gitDirectory;
 	}
 
 	private Path timeFile() {
@@ -50,51 +76,367 @@ final class GitIntegration {
 	 1. Number of counted seconds (for tracking purposes of the plugin)
 	 2. Formatted first number
 	 3. Formatted 0 seconds (line 2 is reset to this when commit is made)
+	 4. "notes" when the time is recorded in git notes instead of the commit message, empty otherwise
+	The seconds which each commit took are appended by the commit hook to a separate file, see CommitLedger.
+	The file always contains the time of the checked-out branch (and of the default changelist, when changelists are known),
+	other branches are in GitBranchTimes.
+	 */
+
+	/** Changes of the time file are merged and written at most this often */
+	private static final long WRITE_INTERVAL_MS = 1000;
+
+	/*
+	Changes which were not written yet, merged together.
+	The new counted seconds are max(pendingFloor, existing + pendingAdd), or pendingFloor if pendingReset.
+	Guarded by this.
+	 */
+	private boolean pending = false;
+	private boolean pendingReset = false;
+	private long pendingFloor = 0;
+	private long pendingAdd = 0;
+	@Nullable
+	private TimePattern pendingPattern = null;
+	private boolean writeScheduled = false;
+	/** Last used pattern, for writes which are not caused by an update */
+	@Nullable
+	private TimePattern lastPattern = null;
+	/** Record time in git notes, see {@link GitNotes}, instead of in the commit message */
+	private volatile boolean timeInNotes = false;
+	/** Id of the default changelist, which has separate time in each branch, null when not known */
+	@Nullable
+	private volatile String changelist = null;
+
+	/** Held while the time file is read and written, so that there is only one writer at a time */
+	private final Object writeLock = new Object();
+
+	/**
+	 * Add seconds to the git time (or reset it, when {@code versionSeconds} is {@link TimeTrackerService#RESET_TIME_TO_ZERO}).
+	 * Does not touch the filesystem, the file is written later in background.
+	 */
+	synchronized void updateVersionTimeFile (long versionSeconds, @NotNull final TimePattern gitTimePattern) {
+		if (versionSeconds == TimeTrackerService.RESET_TIME_TO_ZERO) {
+			pendingReset = true;
+			pendingFloor = 0;
+			pendingAdd = 0;
+		} else {
+			// max(0, max(floor, x + add) + seconds) = max(max(0, floor + seconds), x + add + seconds)
+			pendingFloor = Math.max(0, pendingFloor + versionSeconds);
+			pendingAdd += versionSeconds;
+		}
+		pendingPattern = lastPattern = gitTimePattern;
+		pending = true;
+		scheduleWrite();
+	}
+
+	void setTimeInNotes (boolean timeInNotes) {
+		if (this.timeInNotes != timeInNotes) {
+			this.timeInNotes = timeInNotes;
+			// The hook learns the mode from the time file
+			requestWrite();
+		}
+	}
+
+	/** Count the time of each branch separately for each changelist, from now on the time is counted to the given one */
+	void setChangelist (@Nullable String changelist) {
+		if (!Objects.equals(this.changelist, changelist)) {
+			this.changelist = changelist;
+			// Switched like a branch
+			headChanged = true;
+			requestWrite();
+		}
+	}
+
+	/** Write the time file even if the time did not change, used when branch changes. Does not touch the filesystem. */
+	private synchronized void requestWrite () {
+		if (lastPattern == null) {
+			// Nothing was written yet, the branch will be checked on first write
+			return;
+		}
+		if (pendingPattern == null) {
+			pendingPattern = lastPattern;
+		}
+		pending = true;
+		scheduleWrite();
+	}
+
+	private void scheduleWrite () {
+		if (!writeScheduled) {
+			writeScheduled = true;
+			AppExecutorUtil.getAppScheduledExecutorService().schedule(this::writeVersionTimeFile, WRITE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/** Write pending changes without waiting for the rest of the interval. Does not block. */
+	synchronized void flushVersionTimeFile () {
+		if (pending) {
+			writeScheduled = true;
+			AppExecutorUtil.getAppExecutorService().execute(this::writeVersionTimeFile);
+		}
+	}
+
+	/*
+	In-memory copy of the counted seconds in the time file, guarded by writeLock.
+	The file is read only when it was changed by someone else, which is normally the commit hook resetting it.
+	That is detected by the file watcher, and also by comparing the attributes of the file before each write,
+	because the watcher event may arrive only after the write, and then the seconds of the commit would be counted twice.
 	 */
+	private long countedSeconds = -1;
+	/** Attributes of the time file right after it was last written by us, guarded by writeLock */
+	@Nullable
+	private volatile BasicFileAttributes writtenAttributes = null;
+	/** Set when the file watcher reports a change of the time file, which was not done by us */
+	private volatile boolean timeFileChanged = true;
+	/** Set when the file watcher reports a change of HEAD, which may mean that a different branch was checked out */
+	private volatile boolean headChanged = true;
+	/** Set when the file watcher reports a change of the reflog of HEAD, which may mean a new commit */
+	private volatile boolean reflogChanged = true;
+	/** Branch key (see {@link GitBranchTimes}) to which the time file belongs, null until first write, guarded by writeLock */
+	@Nullable
+	private String timeFileBranch = null;
+	@Nullable
+	private LocalFileSystem.WatchRequest watchRequest = null;
+	@Nullable
+	private LocalFileSystem.WatchRequest reflogWatchRequest = null;
+
+	@NotNull
+	private Path reflogFile() {
+		return gitDirectory.resolve("logs").resolve("HEAD");
+	}
+
+	/** Start watching the git directory for changes of the time file, HEAD and its reflog, see {@link #versionTimeFileEvents(List)}. */
+	synchronized void watchVersionTimeFile () {
+		if (watchRequest == null) {
+			watchRequest = LocalFileSystem.getInstance().addRootToWatch(gitDirectory.toString(), false);
+			reflogWatchRequest = LocalFileSystem.getInstance().addRootToWatch(reflogFile().getParent().toString(), false);
+			// Events are reported only for files known to the virtual file system
+			AppExecutorUtil.getAppExecutorService().execute(() -> {
+				LocalFileSystem.getInstance().refreshAndFindFileByNioFile(timeFile());
+				LocalFileSystem.getInstance().refreshAndFindFileByNioFile(gitDirectory.resolve("HEAD"));
+				LocalFileSystem.getInstance().refreshAndFindFileByNioFile(reflogFile());
+			});
+		}
+	}
+
+	synchronized void stopWatchingVersionTimeFile () {
+		final LocalFileSystem.WatchRequest watchRequest = this.watchRequest;
+		if (watchRequest != null) {
+			LocalFileSystem.getInstance().removeWatchedRoot(watchRequest);
+			this.watchRequest = null;
+		}
+		final LocalFileSystem.WatchRequest reflogWatchRequest = this.reflogWatchRequest;
+		if (reflogWatchRequest != null) {
+			LocalFileSystem.getInstance().removeWatchedRoot(reflogWatchRequest);
+			this.reflogWatchRequest = null;
+		}
+	}
 
-	void updateVersionTimeFile (long versionSeconds, @NotNull final TimePattern gitTimePattern) {
-		final Application application = ApplicationManager.getApplication();
-		application.invokeLater( () -> {
-			if (!Files.isDirectory(gitDirectory)) {
+	/** Notify about changed files. Does not touch the filesystem. */
+	void versionTimeFileEvents (@NotNull List<? extends VFileEvent> events) {
+		final String timeFilePath = timeFile().toString().replace('\\', '/');
+		final String headPath = gitDirectory.resolve("HEAD").toString().replace('\\', '/');
+		final String reflogPath = reflogFile().toString().replace('\\', '/');
+		for (VFileEvent event : events) {
+			if (headPath.equals(event.getPath())) {
+				headChanged = true;
+				requestWrite();
+				continue;
+			}
+			if (reflogPath.equals(event.getPath())) {
+				reflogChanged = true;
+				requestWrite();
+				continue;
+			}
+			if (!timeFilePath.equals(event.getPath())) {
+				continue;
+			}
+			if (event instanceof VFileContentChangeEvent) {
+				final BasicFileAttributes writtenAttributes = this.writtenAttributes;
+				final VFileContentChangeEvent change = (VFileContentChangeEvent) event;
+				if (writtenAttributes != null
+						&& change.getNewTimestamp() == writtenAttributes.lastModifiedTime().toMillis()
+						&& change.getNewLength() == writtenAttributes.size()) {
+					// This is the file we have written
+					continue;
+				}
+			}
+			timeFileChanged = true;
+			// Read it soon, it may contain seconds of a commit for the commit ledger
+			requestWrite();
+		}
+	}
+
+	/** @return true if the time file is possibly not the file we have written last */
+	private boolean timeFileChangedExternally (@NotNull Path timeFile) {
+		final BasicFileAttributes writtenAttributes = this.writtenAttributes;
+		if (writtenAttributes == null) {
+			return true;
+		}
+		final BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(timeFile, BasicFileAttributes.class);
+		} catch (IOException e) {
+			return true;
+		}
+		// Where there is a file key, it changes when the file is replaced by renaming
+		return !Objects.equals(attributes.fileKey(), writtenAttributes.fileKey())
+				|| !attributes.lastModifiedTime().equals(writtenAttributes.lastModifiedTime())
+				|| attributes.size() != writtenAttributes.size();
+	}
+
+	/** Attempts to read the time file when it is empty, which means that someone is writing it */
+	private static final int READ_ATTEMPTS = 5;
+	private static final long READ_RETRY_DELAY_MS = 20;
+
+	/**
+	 * Read the counted seconds from the time file.
+	 * @return counted seconds, 0 if there is no time file, -1 if the file stayed empty, because it is being written
+	 */
+	private long readCountedSeconds (@NotNull Path timeFile) {
+		String countedSecondsLine = null;
+		for (int attempt = 0; attempt < READ_ATTEMPTS && Files.exists(timeFile); attempt++) {
+			if (attempt > 0) {
+				try {
+					Thread.sleep(READ_RETRY_DELAY_MS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			try (final BufferedReader reader = new BufferedReader(Files
+					.newBufferedReader(timeFile, StandardCharsets.UTF_8))) {
+				countedSecondsLine = reader.readLine();
+				if (countedSecondsLine == null || countedSecondsLine.isEmpty()) {
+					// Hooks of older versions rewrite the file in place, try again once they are done
+					countedSecondsLine = "";
+					continue;
+				}
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Failed to read git time file", e);
+			}
+			break;
+		}
+
+		try {
+			if (countedSecondsLine != null) {
+				if (countedSecondsLine.isEmpty()) {
+					return -1;
+				}
+				return Long.parseLong(countedSecondsLine);
+			}
+		} catch (NumberFormatException ignored) {
+			LOG.log(Level.WARNING, "Git time file did not contain only numbers: \"" + countedSecondsLine + "\"");
+		}
+		return 0;
+	}
+
+	private void writeVersionTimeFile () {
+		synchronized (writeLock) {
+			final boolean reset;
+			final long floor;
+			final long add;
+			final TimePattern gitTimePattern;
+			synchronized (this) {
+				writeScheduled = false;
+				if (!pending) {
+					return;
+				}
+				reset = pendingReset;
+				floor = pendingFloor;
+				add = pendingAdd;
+				gitTimePattern = pendingPattern;
+				pending = false;
+				pendingReset = false;
+				pendingFloor = 0;
+				pendingAdd = 0;
+				pendingPattern = null;
+			}
+
+			if (gitTimePattern == null || !Files.isDirectory(gitDirectory)) {
 				return;
 			}
 
 			final Path timeFile = timeFile();
 
-			long existingSeconds = 0;
-			{
-				String countedSecondsLine = null;
-				if (Files.exists(timeFile)) {
-					try (final BufferedReader reader = new BufferedReader(Files
-							.newBufferedReader(timeFile, StandardCharsets.UTF_8))) {
-						countedSecondsLine = reader.readLine();
-					} catch (IOException e) {
-						LOG.log(Level.WARNING, "Failed to read git time file", e);
-					}
+			final boolean changed = timeFileChanged;
+			timeFileChanged = false;
+			if (countedSeconds < 0 || changed || timeFileChangedExternally(timeFile)) {
+				final long readSeconds = readCountedSeconds(timeFile);
+				if (readSeconds >= 0) {
+					countedSeconds = readSeconds;
+				} else {
+					// Keep what we knew and read it again next time
+					LOG.log(Level.WARNING, "Git time file stayed empty, it will be read again");
+					countedSeconds = Math.max(countedSeconds, 0);
+					timeFileChanged = true;
 				}
+			}
 
-				try {
-					if (countedSecondsLine != null) {
-						existingSeconds = Long.parseLong(countedSecondsLine);
-					}
-				} catch (NumberFormatException ignored) {
-					LOG.log(Level.WARNING, "Git time file did not contain only numbers: \"" + countedSecondsLine + "\"");
+			long newSeconds = reset ? floor : Math.max(floor, countedSeconds + add);
+
+			if (headChanged) {
+				headChanged = false;
+				final String branch = GitBranchTimes.readCheckedOutBranch(gitDirectory);
+				String timeFileBranch = this.timeFileBranch;
+				if (timeFileBranch == null) {
+					// Branch could have been switched while the project was closed
+					timeFileBranch = branchTimes.timeFileBranch();
+				}
+				String changelist = this.changelist;
+				if (changelist == null && timeFileBranch != null) {
+					// Changelist is not known yet, it is most likely the same one as before
+					changelist = GitBranchTimes.changelistOf(timeFileBranch);
 				}
+				final String key = GitBranchTimes.key(branch, changelist);
+				if (timeFileBranch == null) {
+					branchTimes.setTimeFileBranch(key);
+				} else if (timeFileBranch.equals(branch)) {
+					// Time file was written before the changelist was known, so the time still belongs to it
+					branchTimes.setTimeFileBranch(key);
+				} else if (!timeFileBranch.equals(key)) {
+					// Pending time was most likely spent before the switch, so it belongs to the previous branch
+					newSeconds = branchTimes.switchBranch(timeFileBranch, newSeconds, key);
+				}
+				this.timeFileBranch = key;
 			}
 
-			final long newSeconds = versionSeconds == TimeTrackerService.RESET_TIME_TO_ZERO ? 0 : Math.max(0, existingSeconds + versionSeconds);
-
-			try (final BufferedWriter out = Files.newBufferedWriter(timeFile, StandardCharsets.UTF_8)) {
-				out.write(Long.toString(newSeconds));
-				out.write('\n');
-				out.write(gitTimePattern.secondsToString((int)newSeconds));
-				out.write('\n');
-				out.write(gitTimePattern.secondsToString(0));
-				out.write('\n');
+			// Written through a temporary file, so that the commit hook never sees a partially written file
+			final Path tempFile = timeFile.resolveSibling(DTT_TIME_FILE_NAME + ".tmp");
+			try {
+				try (final BufferedWriter out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+					out.write(Long.toString(newSeconds));
+					out.write('\n');
+					out.write(gitTimePattern.secondsToString((int)newSeconds));
+					out.write('\n');
+					out.write(gitTimePattern.secondsToString(0));
+					out.write('\n');
+					out.write(timeInNotes ? "notes" : "");
+					out.write('\n');
+				}
+				Files.move(tempFile, timeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				countedSeconds = newSeconds;
+				writtenAttributes = Files.readAttributes(timeFile, BasicFileAttributes.class);
 			} catch (IOException e) {
+				countedSeconds = -1;
+				writtenAttributes = null;
 				LOG.log(Level.SEVERE, "Error while writing git time file", e);
 			}
-		}, ModalityState.NON_MODAL);
+
+			if (reflogChanged) {
+				reflogChanged = false;
+				if (timeInNotes) {
+					// All commits found in this read are noted at once
+					final ArrayList<GitNotes.Note> notes = new ArrayList<>();
+					commitLedger.readReflog((hash, seconds) -> {
+						if (seconds > 0) {
+							notes.add(new GitNotes.Note(hash, gitTimePattern.secondsToString(seconds)));
+						}
+					});
+					GitNotes.addNotes(gitDirectory, notes);
+				} else {
+					commitLedger.readReflog(null);
+				}
+			}
+		}
 	}
 
 	private static String prepareCommitMessageHookContent_cache = null;
@@ -117,7 +459,7 @@ final class GitIntegration {
 
 	private static final String PREPARE_COMMIT_MESSAGE_HOOK_NAME = "prepare-commit-msg";
 	private static final String TIME_TRACKER_HOOK_IDENTIFIER = "#DarkyenusTimeTrackerHookScript";
-	private static final String TIME_TRACKER_HOOK_IDENTIFIER_VERSIONED = TIME_TRACKER_HOOK_IDENTIFIER + "00008";
+	private static final String TIME_TRACKER_HOOK_IDENTIFIER_VERSIONED = TIME_TRACKER_HOOK_IDENTIFIER + "00015";
 
 	private static void fillWithHookContent (Path timeTrackerFile, Path hook) throws IOException {
 		try (BufferedWriter writer = Files.newBufferedWriter(hook, StandardCharsets.UTF_8)) {
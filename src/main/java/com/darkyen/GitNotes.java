@@ -0,0 +1,155 @@
+package com.darkyen;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes commit durations as git notes in {@link #NOTES_REF}, instead of into commit messages.
+ * <p>
+ * All notes of a batch are written by a single {@code git fast-import} process, as a single notes commit,
+ * so a series of commits costs the same as one.
+ */
+final class GitNotes {
+
+	private static final Logger LOG = Logger.getLogger("com.darkyen.GitNotes");
+
+	static final String NOTES_REF = "refs/notes/time";
+
+	private static final long TIMEOUT_SECONDS = 30;
+
+	private GitNotes() {}
+
+	/** A note to be added */
+	static final class Note {
+		@NotNull
+		final String commitHash;
+		@NotNull
+		final String text;
+
+		Note(@NotNull String commitHash, @NotNull String text) {
+			this.commitHash = commitHash;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Add the notes to the repository, replacing existing notes of the same commits. Blocks until done.
+	 * @param gitDirectory git directory of the repository (or of a linked worktree)
+	 * @return true on success
+	 */
+	static boolean addNotes(@NotNull Path gitDirectory, @NotNull List<Note> notes) {
+		if (notes.isEmpty()) {
+			return true;
+		}
+
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		final long nowSeconds = System.currentTimeMillis() / 1000L;
+		writeLine(stream, "commit " + NOTES_REF);
+		writeLine(stream, "committer Darkyen's Time Tracker <time-tracker@localhost> " + nowSeconds + " +0000");
+		writeData(stream, "Add time of " + notes.size() + (notes.size() == 1 ? " commit" : " commits"));
+		if (refExists(gitDirectory)) {
+			writeLine(stream, "from " + NOTES_REF + "^0");
+		}
+		for (Note note : notes) {
+			writeLine(stream, "N inline " + note.commitHash);
+			writeData(stream, note.text + "\n");
+		}
+		writeLine(stream, "done");
+
+		// Input and output go through files, writing and reading pipes would block past the timeout if git hangs
+		Path inputFile = null;
+		Path outputFile = null;
+		Process process = null;
+		try {
+			inputFile = Files.createTempFile("darkyen-time-tracker-notes", ".in");
+			outputFile = Files.createTempFile("darkyen-time-tracker-notes", ".out");
+			try (OutputStream in = Files.newOutputStream(inputFile)) {
+				stream.writeTo(in);
+			}
+			process = new ProcessBuilder("git", "--git-dir=" + gitDirectory, "fast-import", "--quiet", "--done")
+					.redirectInput(inputFile.toFile())
+					.redirectOutput(outputFile.toFile())
+					.redirectErrorStream(true)
+					.start();
+			if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				process.destroyForcibly();
+				LOG.log(Level.WARNING, "git fast-import timed out");
+				return false;
+			}
+			if (process.exitValue() != 0) {
+				LOG.log(Level.WARNING, "git fast-import failed (" + process.exitValue() + "): " + new String(Files.readAllBytes(outputFile), StandardCharsets.UTF_8));
+				return false;
+			}
+			return true;
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to write git notes", e);
+			if (process != null) {
+				process.destroyForcibly();
+			}
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			process.destroyForcibly();
+			return false;
+		} finally {
+			deleteTempFile(inputFile);
+			deleteTempFile(outputFile);
+		}
+	}
+
+	private static void deleteTempFile(@Nullable Path file) {
+		if (file == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to delete " + file, e);
+		}
+	}
+
+	/** @return true if the notes ref exists, checked without running git */
+	private static boolean refExists(@NotNull Path gitDirectory) {
+		final Path commonDirectory = GitRepositories.commonDirectoryOf(gitDirectory);
+		if (Files.exists(gitDirectory.resolve(NOTES_REF)) || Files.exists(commonDirectory.resolve(NOTES_REF))) {
+			return true;
+		}
+		final Path packedRefs = commonDirectory.resolve("packed-refs");
+		try {
+			if (Files.exists(packedRefs)) {
+				for (String line : Files.readAllLines(packedRefs, StandardCharsets.UTF_8)) {
+					if (line.endsWith(" " + NOTES_REF)) {
+						return true;
+					}
+				}
+			}
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to read packed refs", e);
+		}
+		return false;
+	}
+
+	private static void writeLine(@NotNull ByteArrayOutputStream stream, @NotNull String line) {
+		stream.writeBytes(line.getBytes(StandardCharsets.UTF_8));
+		stream.write('\n');
+	}
+
+	/** Data command with exact byte count */
+	private static void writeData(@NotNull ByteArrayOutputStream stream, @NotNull String data) {
+		final byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+		writeLine(stream, "data " + bytes.length);
+		stream.writeBytes(bytes);
+		stream.write('\n');
+	}
+}
@@ -0,0 +1,167 @@
+package com.darkyen;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * All git repositories of a project, including nested repositories, submodules and linked worktrees,
+ * each with its own {@link GitIntegration}. Immutable.
+ */
+final class GitRepositories {
+
+	private static final Logger LOG = Logger.getLogger("com.darkyen.GitRepositories");
+
+	/** Repositories nested deeper in the project are not discovered */
+	private static final int MAX_DEPTH = 12;
+	/** Directories which are never searched for repositories */
+	private static final Set<String> SKIPPED_DIRECTORIES = Set.of("node_modules", "build", "out", "target");
+
+	@NotNull
+	private final List<GitIntegration> all;
+	@NotNull
+	private final PathTrie<GitIntegration> byWorkTree;
+
+	private GitRepositories(@NotNull List<GitIntegration> all, @NotNull PathTrie<GitIntegration> byWorkTree) {
+		this.all = all;
+		this.byWorkTree = byWorkTree;
+	}
+
+	/** @return all repositories, including the primary one */
+	@NotNull
+	List<GitIntegration> all() {
+		return all;
+	}
+
+	/** @return repository which contains the file, or null if it is not in any */
+	@Nullable
+	GitIntegration forFile(@NotNull Path file) {
+		return byWorkTree.find(file.toAbsolutePath().normalize());
+	}
+
+	/**
+	 * Find all repositories in the project directory. Walks the directory tree, so it should not be called on the EDT.
+	 * @param primary repository configured by the user, which is used instead of discovered repository in the same work tree
+	 */
+	@NotNull
+	static GitRepositories discover(@NotNull Path projectBase, @NotNull GitIntegration primary) {
+		final Path primaryWorkTree = workTreeOf(projectBase, primary.gitDirectory());
+		final ArrayList<Path> workTrees = new ArrayList<>();
+		try {
+			Files.walkFileTree(projectBase, EnumSet.noneOf(FileVisitOption.class), MAX_DEPTH, new SimpleFileVisitor<>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					final String name = dir.getFileName() == null ? "" : dir.getFileName().toString();
+					if (name.equals(".git")) {
+						workTrees.add(dir.getParent());
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					if (!dir.equals(projectBase) && (name.startsWith(".") || SKIPPED_DIRECTORIES.contains(name))) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					// Linked worktrees and submodules have a .git file which points to the git directory
+					if (attrs.isRegularFile() && file.getFileName().toString().equals(".git")) {
+						workTrees.add(file.getParent());
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException exc) {
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to search for git repositories", e);
+		}
+
+		final ArrayList<GitIntegration> all = new ArrayList<>();
+		final PathTrie<GitIntegration> byWorkTree = new PathTrie<>();
+		all.add(primary);
+		byWorkTree.put(primaryWorkTree, primary);
+		for (Path workTree : workTrees) {
+			final Path normalizedWorkTree = workTree.toAbsolutePath().normalize();
+			if (normalizedWorkTree.equals(primaryWorkTree)) {
+				continue;
+			}
+			final GitIntegration repository = forWorkTree(normalizedWorkTree);
+			if (repository != null) {
+				all.add(repository);
+				byWorkTree.put(normalizedWorkTree, repository);
+			}
+		}
+		return new GitRepositories(Collections.unmodifiableList(all), byWorkTree);
+	}
+
+	@NotNull
+	private static Path workTreeOf(@NotNull Path projectBase, @NotNull Path gitDirectory) {
+		final Path fileName = gitDirectory.getFileName();
+		if (fileName != null && fileName.toString().equals(".git") && gitDirectory.getParent() != null) {
+			return gitDirectory.toAbsolutePath().normalize().getParent();
+		}
+		return projectBase.toAbsolutePath().normalize();
+	}
+
+	/** @return integration for the repository with given work tree, null if it is not a valid repository */
+	@Nullable
+	static GitIntegration forWorkTree(@NotNull Path workTree) {
+		final Path dotGit = workTree.resolve(".git");
+		if (Files.isDirectory(dotGit)) {
+			return new GitIntegration(dotGit, dotGit.resolve("hooks"));
+		}
+
+		// "gitdir: <path>", relative to the work tree
+		final String gitDirLine = readFirstLine(dotGit);
+		if (gitDirLine == null || !gitDirLine.startsWith("gitdir:")) {
+			return null;
+		}
+		final Path gitDirectory = workTree.resolve(gitDirLine.substring("gitdir:".length()).trim()).normalize();
+		if (!Files.isDirectory(gitDirectory)) {
+			return null;
+		}
+
+		// Linked worktrees share hooks with the main repository
+		return new GitIntegration(gitDirectory, commonDirectoryOf(gitDirectory).resolve("hooks"));
+	}
+
+	/** @return git directory of the main repository, which differs from the given one for linked worktrees */
+	@NotNull
+	static Path commonDirectoryOf(@NotNull Path gitDirectory) {
+		final String commonDirLine = readFirstLine(gitDirectory.resolve("commondir"));
+		return commonDirLine == null ? gitDirectory : gitDirectory.resolve(commonDirLine.trim()).normalize();
+	}
+
+	@Nullable
+	private static String readFirstLine(@NotNull Path file) {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			return reader.readLine();
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to read " + file, e);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,457 @@
+package com.darkyen;
+
+import com.intellij.openapi.util.registry.Registry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Splits the history of {@link TimeTrackerStorage} into segments, one per (UTC) month.
+ * <p>
+ * Keeps an index of which records belong to which segment (persisted next to the history file)
+ * and a LRU cache of decoded segments, bounded by a memory budget,
+ * so that reading a part of a long history does not need to read all of it.
+ * Newly appended records are added to both, so the cached data is always current.
+ * <p>
+ * All methods lock the owning storage.
+ */
+final class HistorySegments {
+
+	private static final Logger LOG = Logger.getLogger(HistorySegments.class.getName());
+
+	private static final String INDEX_FILE_NAME = "segments.idx";
+	/** Registry key with the memory budget of the segment cache */
+	static final String CACHE_BUDGET_REGISTRY_KEY = "darkyenus.time.tracker.segment.cache.kb";
+	private static final int DEFAULT_CACHE_BUDGET_KB = 4096;
+
+	/*
+	Index file format (all numbers are big endian):
+	 int magic 'DTTS'
+	 int format version
+	 long amount of history records covered by this index
+	 int amount of segments
+	 For each segment:
+	  int segment key
+	  long amount of records
+	  long latest end of the records which cover a range (see TimeTrackerStorage.isRange), Long.MIN_VALUE if there are none
+	  int amount of runs
+	  For each run of records with consecutive indices:
+	   long index of first record
+	   long amount of records
+	 int CRC32 of everything before
+	 */
+	private static final int MAGIC = 0x44545453;
+	private static final int VERSION = 4;
+
+	@NotNull
+	private final TimeTrackerStorage storage;
+	@NotNull
+	private final Path indexFile;
+
+	private final TreeMap<Integer, SegmentIndex> index = new TreeMap<>();
+	private long indexedRecords = 0;
+	private boolean indexDirty = false;
+
+	private final LinkedHashMap<Integer, Segment> cache = new LinkedHashMap<>(16, 0.75f, true);
+	/** Read once, the cache is evicted on every append */
+	private final long cacheBudgetBytes = Registry.intValue(CACHE_BUDGET_REGISTRY_KEY, DEFAULT_CACHE_BUDGET_KB) * 1024L;
+	private long cachedBytes = 0;
+	private long cacheHits = 0;
+	private long cacheMisses = 0;
+
+	HistorySegments(@NotNull TimeTrackerStorage storage, @NotNull Path directory) {
+		this.storage = storage;
+		this.indexFile = directory.resolve(INDEX_FILE_NAME);
+
+		synchronized (storage) {
+			loadIndex();
+			final long recordCount = storage.recordCount();
+			if (indexedRecords > recordCount) {
+				LOG.log(Level.WARNING, "Segment index covers more records than there are, rebuilding");
+				index.clear();
+				indexedRecords = 0;
+			}
+			if (indexedRecords < recordCount) {
+				// Records appended while the index was not loaded
+				storage.readRecords(indexedRecords, recordCount, this::recordAppended);
+				indexedRecords = recordCount;
+			}
+		}
+	}
+
+	/** @return key of the segment, into which records at given time belong */
+	static int segmentOf(long timeMs) {
+		final LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(timeMs), ZoneOffset.UTC);
+		return time.getYear() * 12 + time.getMonthValue() - 1;
+	}
+
+	/** @return time at which the segment starts, inclusive */
+	static long segmentStartMs(int segment) {
+		return LocalDateTime.of(Math.floorDiv(segment, 12), Math.floorMod(segment, 12) + 1, 1, 0, 0).toInstant(ZoneOffset.UTC).toEpochMilli();
+	}
+
+	/** Called by the storage with its lock held. Records must come in the order of their indices. */
+	void recordAppended(long index, long timeMs, long valueMs, byte kind, byte tag) {
+		final int key = segmentOf(timeMs);
+		SegmentIndex segmentIndex = this.index.get(key);
+		if (segmentIndex == null) {
+			this.index.put(key, segmentIndex = new SegmentIndex());
+		}
+		segmentIndex.add(index, timeMs, valueMs, kind);
+		indexedRecords = index + 1;
+		indexDirty = true;
+
+		final Segment segment = cache.get(key);
+		if (segment != null) {
+			segment.add(index, timeMs, valueMs, kind);
+			cachedBytes += Segment.BYTES_PER_RECORD;
+			evict();
+		}
+	}
+
+	void recordAppended(long index, long timeMs, long valueMs, byte kind) {
+		recordAppended(index, timeMs, valueMs, kind, (byte) 0);
+	}
+
+	/** @return records of the segment, possibly from cache, or null if the segment has no records */
+	@Nullable
+	Segment segment(int segmentKey) {
+		synchronized (storage) {
+			final SegmentIndex segmentIndex = index.get(segmentKey);
+			if (segmentIndex == null) {
+				return null;
+			}
+
+			final Segment cached = cache.get(segmentKey);
+			if (cached != null) {
+				cacheHits++;
+				return cached.view();
+			}
+			cacheMisses++;
+
+			final Segment segment = new Segment((int) Math.min(segmentIndex.recordCount, Integer.MAX_VALUE - 8));
+			final long[] runs = segmentIndex.runs;
+			for (int i = 0; i < segmentIndex.runCount; i++) {
+				final long first = runs[i * 2];
+				storage.readRecords(first, first + runs[i * 2 + 1], (index, timeMs, valueMs, kind, tag) -> segment.add(index, timeMs, valueMs, kind));
+			}
+
+			cache.put(segmentKey, segment);
+			cachedBytes += segment.bytes();
+			evict();
+			return segment.view();
+		}
+	}
+
+	interface SegmentRecordVisitor {
+		/** @param index of the record in the history, records are visited segment by segment, not in the order of their indices */
+		void record(long index, long timeMs, long valueMs, byte kind);
+	}
+
+	/**
+	 * Visit all records whose time is in given range, and the records which cover a range overlapping it
+	 * (see {@link TimeTrackerStorage#isRange(byte)}), even when they start in an earlier segment.
+	 */
+	void forEachRecord(long fromMs, long toMs, @NotNull SegmentRecordVisitor visitor) {
+		if (fromMs >= toMs) {
+			return;
+		}
+		final int fromKey = segmentOf(fromMs);
+		final ArrayList<Integer> keys = new ArrayList<>();
+		synchronized (storage) {
+			for (Map.Entry<Integer, SegmentIndex> entry : index.headMap(segmentOf(toMs - 1), true).entrySet()) {
+				if (entry.getKey() >= fromKey || entry.getValue().rangesEndMs > fromMs) {
+					keys.add(entry.getKey());
+				}
+			}
+		}
+		for (int key : keys) {
+			final Segment segment = segment(key);
+			if (segment == null) {
+				continue;
+			}
+			for (int i = 0; i < segment.size(); i++) {
+				final long timeMs = segment.timeMs(i);
+				final byte kind = segment.kind(i);
+				if (timeMs < toMs && (timeMs >= fromMs || (TimeTrackerStorage.isRange(kind) && timeMs + segment.valueMs(i) > fromMs))) {
+					visitor.record(segment.record(i), timeMs, segment.valueMs(i), kind);
+				}
+			}
+		}
+	}
+
+	long getCacheHits() {
+		synchronized (storage) {
+			return cacheHits;
+		}
+	}
+
+	long getCacheMisses() {
+		synchronized (storage) {
+			return cacheMisses;
+		}
+	}
+
+	private void evict() {
+		final Iterator<Map.Entry<Integer, Segment>> iterator = cache.entrySet().iterator();
+		// Always keep the most recently used one
+		while (cachedBytes > cacheBudgetBytes && cache.size() > 1) {
+			final Segment eldest = iterator.next().getValue();
+			iterator.remove();
+			cachedBytes -= eldest.bytes();
+		}
+	}
+
+	/** Write the index, if it changed. Called by the storage with its lock held, after it has flushed. */
+	void saveIndex() {
+		if (!indexDirty) {
+			return;
+		}
+
+		int size = 4 + 4 + 8 + 4 + 4;
+		for (SegmentIndex segmentIndex : index.values()) {
+			size += 4 + 8 + 8 + 4 + segmentIndex.runCount * 16;
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(indexedRecords);
+		buffer.putInt(index.size());
+		for (Map.Entry<Integer, SegmentIndex> entry : index.entrySet()) {
+			final SegmentIndex segmentIndex = entry.getValue();
+			buffer.putInt(entry.getKey());
+			buffer.putLong(segmentIndex.recordCount);
+			buffer.putLong(segmentIndex.rangesEndMs);
+			buffer.putInt(segmentIndex.runCount);
+			for (int i = 0; i < segmentIndex.runCount * 2; i++) {
+				buffer.putLong(segmentIndex.runs[i]);
+			}
+		}
+		final CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int) crc.getValue());
+
+		if (Util.writeFileAtomically(indexFile, buffer.array(), LOG, "segment index")) {
+			indexDirty = false;
+		}
+	}
+
+	private void loadIndex() {
+		final byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(indexFile);
+		} catch (NoSuchFileException e) {
+			return;
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to read segment index, rebuilding", e);
+			return;
+		}
+
+		if (bytes.length < 4 + 4 + 8 + 4 + 4) {
+			LOG.log(Level.WARNING, "Segment index is truncated, rebuilding");
+			return;
+		}
+
+		try {
+			final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			final CRC32 crc = new CRC32();
+			crc.update(bytes, 0, bytes.length - 4);
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt(bytes.length - 4) != (int) crc.getValue()) {
+				LOG.log(Level.WARNING, "Segment index is corrupted or of unknown version, rebuilding");
+				return;
+			}
+
+			final long indexedRecords = buffer.getLong();
+			final int segmentCount = buffer.getInt();
+			for (int s = 0; s < segmentCount; s++) {
+				final int key = buffer.getInt();
+				final SegmentIndex segmentIndex = new SegmentIndex();
+				segmentIndex.recordCount = buffer.getLong();
+				segmentIndex.rangesEndMs = buffer.getLong();
+				final int runCount = buffer.getInt();
+				segmentIndex.runs = new long[Math.max(runCount * 2, 4)];
+				segmentIndex.runCount = runCount;
+				for (int i = 0; i < runCount * 2; i++) {
+					segmentIndex.runs[i] = buffer.getLong();
+				}
+				index.put(key, segmentIndex);
+			}
+			this.indexedRecords = indexedRecords;
+		} catch (RuntimeException e) {
+			LOG.log(Level.WARNING, "Segment index is malformed, rebuilding", e);
+			index.clear();
+		}
+	}
+
+	/**
+	 * Compare the index with one built independently from the history records and replace it, if it differs.
+	 * @param rebuilt index of records up to {@code rebuiltRecords}, newer records are added to it
+	 * @return true if the index was wrong and was replaced
+	 */
+	boolean replaceIndexIfDifferent(@NotNull TreeMap<Integer, SegmentIndex> rebuilt, long rebuiltRecords) {
+		synchronized (storage) {
+			storage.readRecords(rebuiltRecords, storage.recordCount(), (index, timeMs, valueMs, kind, tag) -> {
+				rebuilt.computeIfAbsent(segmentOf(timeMs), k -> new SegmentIndex()).add(index, timeMs, valueMs, kind);
+			});
+
+			if (rebuilt.equals(index) && indexedRecords == storage.recordCount()) {
+				return false;
+			}
+
+			index.clear();
+			index.putAll(rebuilt);
+			indexedRecords = storage.recordCount();
+			indexDirty = true;
+			cache.clear();
+			cachedBytes = 0;
+			saveIndex();
+			return true;
+		}
+	}
+
+	/** Which records belong to a segment. */
+	static final class SegmentIndex {
+		private long recordCount = 0;
+		/** Latest end of the records which cover a range, so that a range which started in an earlier segment can be found */
+		private long rangesEndMs = Long.MIN_VALUE;
+		/** Pairs of (first record index, amount of records) */
+		private long[] runs = new long[4];
+		private int runCount = 0;
+
+		void add(long record, long timeMs, long valueMs, byte kind) {
+			recordCount++;
+			if (TimeTrackerStorage.isRange(kind)) {
+				rangesEndMs = Math.max(rangesEndMs, timeMs + valueMs);
+			}
+			addRun(record, 1);
+		}
+
+		private void addRun(long first, long count) {
+			if (runCount > 0 && runs[runCount * 2 - 2] + runs[runCount * 2 - 1] == first) {
+				runs[runCount * 2 - 1] += count;
+				return;
+			}
+			if (runCount * 2 == runs.length) {
+				runs = Arrays.copyOf(runs, runs.length * 2);
+			}
+			runs[runCount * 2] = first;
+			runs[runCount * 2 + 1] = count;
+			runCount++;
+		}
+
+		/** Append records of other index, which must all come after records of this one. */
+		void addAll(@NotNull SegmentIndex other) {
+			recordCount += other.recordCount;
+			rangesEndMs = Math.max(rangesEndMs, other.rangesEndMs);
+			for (int i = 0; i < other.runCount; i++) {
+				addRun(other.runs[i * 2], other.runs[i * 2 + 1]);
+			}
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof SegmentIndex)) return false;
+			final SegmentIndex that = (SegmentIndex) o;
+			return recordCount == that.recordCount && rangesEndMs == that.rangesEndMs && runCount == that.runCount
+					&& Arrays.equals(runs, 0, runCount * 2, that.runs, 0, runCount * 2);
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(recordCount) * 31 + Long.hashCode(rangesEndMs);
+		}
+	}
+
+	/**
+	 * Decoded records of one segment, in the order in which they were recorded.
+	 * Only appended to, so views with fixed size can be safely read without locking.
+	 */
+	static final class Segment {
+		static final int BYTES_PER_RECORD = 8 + 8 + 8 + 1;
+
+		private int size = 0;
+		private long[] record;
+		private long[] timeMs;
+		private long[] valueMs;
+		private byte[] kind;
+
+		Segment(int capacity) {
+			capacity = Math.max(capacity, 16);
+			record = new long[capacity];
+			timeMs = new long[capacity];
+			valueMs = new long[capacity];
+			kind = new byte[capacity];
+		}
+
+		private Segment(@NotNull Segment of) {
+			this.size = of.size;
+			this.record = of.record;
+			this.timeMs = of.timeMs;
+			this.valueMs = of.valueMs;
+			this.kind = of.kind;
+		}
+
+		void add(long record, long timeMs, long valueMs, byte kind) {
+			if (size == this.timeMs.length) {
+				final int newCapacity = size + (size >> 1);
+				this.record = Arrays.copyOf(this.record, newCapacity);
+				this.timeMs = Arrays.copyOf(this.timeMs, newCapacity);
+				this.valueMs = Arrays.copyOf(this.valueMs, newCapacity);
+				this.kind = Arrays.copyOf(this.kind, newCapacity);
+			}
+			this.record[size] = record;
+			this.timeMs[size] = timeMs;
+			this.valueMs[size] = valueMs;
+			this.kind[size] = kind;
+			size++;
+		}
+
+		@NotNull
+		Segment view() {
+			return new Segment(this);
+		}
+
+		long bytes() {
+			return (long) size * BYTES_PER_RECORD;
+		}
+
+		int size() {
+			return size;
+		}
+
+		/** @return index of the record in the history */
+		long record(int index) {
+			return record[index];
+		}
+
+		long timeMs(int index) {
+			return timeMs[index];
+		}
+
+		long valueMs(int index) {
+			return valueMs[index];
+		}
+
+		byte kind(int index) {
+			return kind[index];
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package com.darkyen;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Replays the history of {@link TimeTrackerStorage} in parallel and checks it for consistency.
+ * <p>
+ * The written records are split into ranges, each range is summarized independently
+ * and the summaries are then merged in order. This works because everything that is checked can be merged:
+ * the total time, because applying records is a composition of functions {@code x -> max(floor, x + add)},
+ * overlaps, because the intervals of each range are sorted and joined, and joined intervals of two ranges can be merged,
+ * and the segment index, because indices of consecutive ranges can be concatenated.
+ * Intervals are not required to be in order, idle time which is counted in later is written after the intervals which followed it.
+ */
+final class HistoryVerifier {
+
+	/** Ranges smaller than this are not split further */
+	private static final long RECORDS_PER_TASK = 16 * 1024;
+	/** Record times are stored in whole seconds, so intervals may seem to overlap by this much */
+	private static final long OVERLAP_TOLERANCE_MS = 1000;
+
+	/** Marks {@link Summary#add} which resets the total to zero */
+	private static final long RESET = Long.MIN_VALUE;
+
+	private HistoryVerifier() {}
+
+	/**
+	 * Verify all records written so far. Does not lock the storage while reading.
+	 * @return summary of the whole history
+	 */
+	@NotNull
+	static Summary verify(@NotNull TimeTrackerStorage storage, @Nullable ProgressIndicator indicator) throws IOException {
+		final long records = storage.writtenRecordCount();
+		try {
+			return ForkJoinPool.commonPool().invoke(new VerifyTask(storage, 0, records, indicator));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/** Everything that is known about a range of records. */
+	static final class Summary {
+		long fromRecord;
+		long toRecord;
+		long corrupted = 0;
+
+		/* Total time after this range is max(floor, totalBefore + add), or just floor if add is RESET */
+		long floor = 0;
+		long add = 0;
+
+		/** Amount of intervals which overlap an earlier starting interval */
+		long overlaps = 0;
+		/** How much time was counted twice because of overlaps */
+		long overlapMs = 0;
+
+		/** Intervals of the range, in the order of the records until {@link #finish()}, then sorted by start and joined */
+		private long[] startsMs = new long[16];
+		private long[] endsMs = new long[16];
+		private int intervals = 0;
+
+		final TreeMap<Integer, HistorySegments.SegmentIndex> segments = new TreeMap<>();
+
+		Summary(long fromRecord, long toRecord) {
+			this.fromRecord = fromRecord;
+			this.toRecord = toRecord;
+		}
+
+		/** @return total time, if it was {@code totalBeforeMs} before the first record of this range */
+		long totalAfter(long totalBeforeMs) {
+			if (add == RESET) {
+				return floor;
+			}
+			return Math.max(floor, totalBeforeMs + add);
+		}
+
+		void record(long index, long timeMs, long valueMs, byte kind) {
+			segments.computeIfAbsent(HistorySegments.segmentOf(timeMs), k -> new HistorySegments.SegmentIndex()).add(index, timeMs, valueMs, kind);
+
+			if (kind == TimeTrackerStorage.KIND_RESET) {
+				floor = 0;
+				add = RESET;
+			} else if (TimeTrackerStorage.addsToTotal(kind)) {
+				// max(0, max(floor, x + add) + value) = max(max(0, floor + value), x + add + value)
+				floor = Math.max(0L, floor + valueMs);
+				if (add != RESET) {
+					add += valueMs;
+				}
+			}
+
+			if (kind == TimeTrackerStorage.KIND_INTERVAL) {
+				addInterval(timeMs, timeMs + valueMs);
+			}
+		}
+
+		private void addInterval(long startMs, long endMs) {
+			if (intervals == startsMs.length) {
+				startsMs = Arrays.copyOf(startsMs, intervals * 2);
+				endsMs = Arrays.copyOf(endsMs, intervals * 2);
+			}
+			startsMs[intervals] = startMs;
+			endsMs[intervals] = endMs;
+			intervals++;
+		}
+
+		/** Join the interval with the last joined interval, counting the overlap, or add it after it. Intervals must come sorted by start. */
+		private void joinInterval(long startMs, long endMs) {
+			final int last = intervals - 1;
+			if (last >= 0 && startMs <= endsMs[last]) {
+				if (startMs + OVERLAP_TOLERANCE_MS < endsMs[last]) {
+					overlaps++;
+					overlapMs += Math.min(endsMs[last], endMs) - startMs;
+				}
+				endsMs[last] = Math.max(endsMs[last], endMs);
+			} else {
+				addInterval(startMs, endMs);
+			}
+		}
+
+		/** Sort and join the intervals of the range, counting overlaps among them. Called once all records of the range were recorded. */
+		void finish() {
+			final long[][] sorted = new long[intervals][];
+			for (int i = 0; i < intervals; i++) {
+				sorted[i] = new long[]{startsMs[i], endsMs[i]};
+			}
+			Arrays.sort(sorted, Comparator.comparingLong(interval -> interval[0]));
+			intervals = 0;
+			for (long[] interval : sorted) {
+				joinInterval(interval[0], interval[1]);
+			}
+		}
+
+		/** Merge finished summary of the range directly after this one into this finished one. */
+		void merge(@NotNull Summary next) {
+			toRecord = next.toRecord;
+			corrupted += next.corrupted;
+			overlaps += next.overlaps;
+			overlapMs += next.overlapMs;
+
+			if (next.add == RESET) {
+				floor = next.floor;
+				add = RESET;
+			} else {
+				floor = Math.max(next.floor, floor + next.add);
+				if (add != RESET) {
+					add += next.add;
+				}
+			}
+
+			// Both are joined already, so only overlaps between the two are counted
+			final long[] startsMs = this.startsMs;
+			final long[] endsMs = this.endsMs;
+			final int intervals = this.intervals;
+			this.startsMs = new long[Math.max(16, intervals + next.intervals)];
+			this.endsMs = new long[this.startsMs.length];
+			this.intervals = 0;
+			for (int i = 0, n = 0; i < intervals || n < next.intervals; ) {
+				if (n == next.intervals || (i < intervals && startsMs[i] <= next.startsMs[n])) {
+					joinInterval(startsMs[i], endsMs[i]);
+					i++;
+				} else {
+					joinInterval(next.startsMs[n], next.endsMs[n]);
+					n++;
+				}
+			}
+
+			for (Map.Entry<Integer, HistorySegments.SegmentIndex> entry : next.segments.entrySet()) {
+				final HistorySegments.SegmentIndex existing = segments.get(entry.getKey());
+				if (existing == null) {
+					segments.put(entry.getKey(), entry.getValue());
+				} else {
+					existing.addAll(entry.getValue());
+				}
+			}
+		}
+	}
+
+	private static final class VerifyTask extends RecursiveTask<Summary> {
+
+		private final TimeTrackerStorage storage;
+		private final long fromRecord;
+		private final long toRecord;
+		@Nullable
+		private final ProgressIndicator indicator;
+
+		VerifyTask(@NotNull TimeTrackerStorage storage, long fromRecord, long toRecord, @Nullable ProgressIndicator indicator) {
+			this.storage = storage;
+			this.fromRecord = fromRecord;
+			this.toRecord = toRecord;
+			this.indicator = indicator;
+		}
+
+		@Override
+		protected Summary compute() {
+			if (indicator != null) {
+				indicator.checkCanceled();
+			}
+
+			if (toRecord - fromRecord > RECORDS_PER_TASK) {
+				final long middle = (fromRecord + toRecord) >>> 1;
+				final VerifyTask second = new VerifyTask(storage, middle, toRecord, indicator);
+				second.fork();
+				final Summary summary = new VerifyTask(storage, fromRecord, middle, indicator).compute();
+				summary.merge(second.join());
+				return summary;
+			}
+
+			final Summary summary = new Summary(fromRecord, toRecord);
+			try {
+				summary.corrupted = storage.readWrittenRecordsConcurrently(fromRecord, toRecord,
+						(index, timeMs, valueMs, kind, tag) -> summary.record(index, timeMs, valueMs, kind));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			summary.finish();
+			return summary;
+		}
+	}
+}
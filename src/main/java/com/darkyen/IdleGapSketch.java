@@ -0,0 +1,120 @@
+package com.darkyen;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Streaming sketch of the distribution of pauses between user inputs, for quantiles with bounded relative error.
+ * <p>
+ * Pauses fall into buckets growing exponentially by {@link #GAMMA} (as in DDSketch), so the memory is constant
+ * and a quantile is within a few percent of the true value. Older pauses weigh less, halving each {@link #HALF_LIFE_MS},
+ * which is done by growing the weight of new pauses and rescaling all buckets once the weights get large.
+ * Not thread safe.
+ */
+final class IdleGapSketch {
+
+	/** Pauses shorter than this are continuous activity and are not recorded */
+	static final long MIN_GAP_MS = 1000L;
+	/** Pauses longer than this are not recorded, the user was away */
+	static final long MAX_GAP_MS = 60L * 60L * 1000L;
+	private static final double GAMMA = 1.08;
+	private static final int BUCKETS = (int) Math.ceil(Math.log((double) MAX_GAP_MS / MIN_GAP_MS) / Math.log(GAMMA)) + 1;
+	static final long HALF_LIFE_MS = 14L * 24L * 60L * 60L * 1000L;
+	/** Weights are rescaled when the weight of new pauses gets over this */
+	private static final double RESCALE_WEIGHT = 1L << 32;
+
+	private final double[] buckets = new double[BUCKETS];
+	private double totalWeight = 0;
+	/** Time at which the weight of a pause is 1 */
+	private long epochMs = Long.MIN_VALUE;
+
+	/** Record a pause, if it is not too short or too long */
+	void add(long gapMs, long nowMs) {
+		if (gapMs < MIN_GAP_MS || gapMs > MAX_GAP_MS) {
+			return;
+		}
+		if (epochMs == Long.MIN_VALUE) {
+			epochMs = nowMs;
+		}
+		double weight = weight(nowMs);
+		if (weight > RESCALE_WEIGHT || weight < 1.0 / RESCALE_WEIGHT) {
+			rescale(nowMs);
+			weight = 1.0;
+		}
+		buckets[bucket(gapMs)] += weight;
+		totalWeight += weight;
+	}
+
+	private double weight(long nowMs) {
+		return Math.pow(2.0, (double) (nowMs - epochMs) / HALF_LIFE_MS);
+	}
+
+	/** Move the epoch to now, so that the weights stay in range */
+	private void rescale(long nowMs) {
+		final double factor = 1.0 / weight(nowMs);
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] *= factor;
+		}
+		totalWeight *= factor;
+		epochMs = nowMs;
+	}
+
+	private static int bucket(long gapMs) {
+		final int bucket = (int) (Math.log((double) gapMs / MIN_GAP_MS) / Math.log(GAMMA));
+		return Math.min(Math.max(bucket, 0), BUCKETS - 1);
+	}
+
+	/** @return amount of recorded pauses, older ones count less, relative to the time of the last one */
+	double weightedCount(long nowMs) {
+		return epochMs == Long.MIN_VALUE ? 0 : totalWeight / weight(nowMs);
+	}
+
+	/** @return pause at the quantile (0 to 1), -1 if nothing was recorded */
+	long quantileMs(double quantile) {
+		if (totalWeight <= 0) {
+			return -1;
+		}
+		final double rank = quantile * totalWeight;
+		double seen = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			seen += buckets[i];
+			if (seen >= rank && buckets[i] > 0) {
+				// Middle of the bucket, the relative error is then at most half of the bucket width
+				return (long) (MIN_GAP_MS * Math.pow(GAMMA, i + 0.5));
+			}
+		}
+		return MAX_GAP_MS;
+	}
+
+	/** @return the sketch as text, for persisting */
+	@NotNull
+	String save() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(epochMs);
+		for (double bucket : buckets) {
+			sb.append(' ').append((float) bucket);
+		}
+		return sb.toString();
+	}
+
+	/** Replace the sketch with what {@link #save()} returned, ignores invalid text */
+	void load(@NotNull String saved) {
+		final String[] parts = saved.trim().split(" ");
+		if (parts.length != BUCKETS + 1) {
+			return;
+		}
+		final double[] loaded = new double[BUCKETS];
+		try {
+			final long loadedEpochMs = Long.parseLong(parts[0]);
+			for (int i = 0; i < BUCKETS; i++) {
+				loaded[i] = Math.max(0.0, Double.parseDouble(parts[i + 1]));
+			}
+			System.arraycopy(loaded, 0, buckets, 0, BUCKETS);
+			totalWeight = 0;
+			for (double bucket : loaded) {
+				totalWeight += bucket;
+			}
+			epochMs = loadedEpochMs;
+		} catch (NumberFormatException ignored) {
+		}
+	}
+}
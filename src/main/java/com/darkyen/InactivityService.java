@@ -2,6 +2,9 @@ package com.darkyen;
 
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.wm.WindowManager;
 import com.intellij.util.ui.UIUtil;
@@ -20,8 +23,10 @@ import java.util.logging.Logger;
  * Service listening for user activity to implement pause on inactivity.
  * <p>
  * Optimized to be O(1) with respect to the amount of opened projects.
+ * Also learns how long the user pauses while working in the IDE, for the adaptive idle threshold.
  */
-public final class InactivityService implements Disposable, AWTEventListener, PropertyChangeListener {
+@State(name="DarkyenusTimeTrackerIdleGaps", storages = {@Storage("darkyenus-time-tracker-idle.xml")})
+public final class InactivityService implements Disposable, AWTEventListener, PropertyChangeListener, PersistentStateComponent<InactivityService.IdleGapsState> {
 
 	private static final Logger LOG = Logger.getLogger(InactivityService.class.getName());
 
@@ -31,10 +36,29 @@ public final class InactivityService implements Disposable, AWTEventListener, Pr
 	}
 
 	private static final String AWT_ACTIVE_WINDOW = "activeWindow";
+	private static final String AWT_PERMANENT_FOCUS_OWNER = "permanentFocusOwner";
 
 	private Object currentFocusedWindow;
 	private final Map<Object, TimeTrackerService> projectWindowToTimeTrackerService = new ConcurrentHashMap<>();
 
+	/** Amount of pauses needed before the adaptive idle threshold is used */
+	private static final double MIN_ADAPTIVE_PAUSES = 200;
+	/** Pauses up to this quantile are not idle */
+	private static final double IDLE_QUANTILE = 0.95;
+	/** Pauses up to this quantile are counted in when the user returns */
+	private static final double AUTO_COUNT_QUANTILE = 0.99;
+	private static final long MIN_ADAPTIVE_IDLE_THRESHOLD_MS = 30_000L;
+	private static final long MAX_ADAPTIVE_IDLE_THRESHOLD_MS = 15L * 60_000L;
+	private static final long MAX_ADAPTIVE_AUTO_COUNT_MS = 10L * 60_000L;
+
+	/** Time of the last input in a focused IDE window, 0 after the focus left the IDE */
+	private long lastEventMs = 0;
+	/** Pauses between inputs, guarded by itself */
+	private final IdleGapSketch gaps = new IdleGapSketch();
+	/** Derived from {@link #gaps}, -1 when there are not enough pauses yet */
+	private volatile long adaptiveIdleThresholdMs = -1;
+	private volatile long adaptiveAutoCountMs = -1;
+
 	{
 		// Init
 		Toolkit.getDefaultToolkit().addAWTEventListener(this,
@@ -45,6 +69,7 @@ public final class InactivityService implements Disposable, AWTEventListener, Pr
 
 		final KeyboardFocusManager keyboardFocusManager = KeyboardFocusManager.getCurrentKeyboardFocusManager();
 		keyboardFocusManager.addPropertyChangeListener(AWT_ACTIVE_WINDOW, this);
+		keyboardFocusManager.addPropertyChangeListener(AWT_PERMANENT_FOCUS_OWNER, this);
 		currentFocusedWindow = keyboardFocusManager.getActiveWindow();
 	}
 
@@ -71,6 +96,7 @@ public final class InactivityService implements Disposable, AWTEventListener, Pr
 	public void dispose() {
 		Toolkit.getDefaultToolkit().removeAWTEventListener(this);
 		KeyboardFocusManager.getCurrentKeyboardFocusManager().removePropertyChangeListener(AWT_ACTIVE_WINDOW, this);
+		KeyboardFocusManager.getCurrentKeyboardFocusManager().removePropertyChangeListener(AWT_PERMANENT_FOCUS_OWNER, this);
 	}
 
 	@Override
@@ -80,14 +106,105 @@ public final class InactivityService implements Disposable, AWTEventListener, Pr
 			return;
 		}
 
+		final long now = System.currentTimeMillis();
+		final long lastEventMs = this.lastEventMs;
+		this.lastEventMs = now;
+		if (lastEventMs != 0 && now - lastEventMs >= IdleGapSketch.MIN_GAP_MS) {
+			pauseEnded(now - lastEventMs, now);
+		}
+
 		final TimeTrackerService service = projectWindowToTimeTrackerService.get(currentFocusedWindow);
 		if (service != null) {
-			service.notifyUserNotIdle();
+			service.notifyUserNotIdle(InputKind.of(event), InputKind.isCounted(event));
 		}
 	}
 
 	@Override
 	public void propertyChange(PropertyChangeEvent evt) {
+		if (AWT_PERMANENT_FOCUS_OWNER.equals(evt.getPropertyName())) {
+			final Object focusOwner = evt.getNewValue();
+			if (focusOwner instanceof Component) {
+				TimeTrackerService service = projectWindowToTimeTrackerService.get(UIUtil.findUltimateParent((Component) focusOwner));
+				if (service == null) {
+					service = findToolWindowService((Component) focusOwner);
+				}
+				if (service != null) {
+					service.focusChanged((Component) focusOwner);
+				}
+			}
+			return;
+		}
 		currentFocusedWindow = evt.getNewValue();
+		// Time outside of the IDE is not a pause in the work in it
+		lastEventMs = 0;
+	}
+
+	/** @return service of the project with a floating or windowed tool window which contains the component, those are not in the frame of the project */
+	@Nullable
+	private TimeTrackerService findToolWindowService(@NotNull Component component) {
+		for (TimeTrackerService service : projectWindowToTimeTrackerService.values()) {
+			if (!ToolWindowTimes.EDITOR.equals(service.toolWindowOf(component))) {
+				return service;
+			}
+		}
+		return null;
+	}
+
+	private void pauseEnded(long gapMs, long now) {
+		synchronized (gaps) {
+			gaps.add(gapMs, now);
+			updateAdaptiveValues(now);
+		}
+	}
+
+	private void updateAdaptiveValues(long now) {
+		if (gaps.weightedCount(now) < MIN_ADAPTIVE_PAUSES) {
+			adaptiveIdleThresholdMs = -1;
+			adaptiveAutoCountMs = -1;
+			return;
+		}
+		final long idleThresholdMs = Math.min(Math.max(gaps.quantileMs(IDLE_QUANTILE), MIN_ADAPTIVE_IDLE_THRESHOLD_MS), MAX_ADAPTIVE_IDLE_THRESHOLD_MS);
+		// Idle time starts after the threshold, so only the rest of the pause is counted in
+		final long autoCountMs = Math.min(Math.max(gaps.quantileMs(AUTO_COUNT_QUANTILE) - idleThresholdMs, 0L), MAX_ADAPTIVE_AUTO_COUNT_MS);
+		adaptiveIdleThresholdMs = idleThresholdMs;
+		adaptiveAutoCountMs = autoCountMs;
+	}
+
+	/** @return idle threshold learned from the pauses of the user, or the fallback if there are not enough pauses yet */
+	public long adaptiveIdleThresholdMs(long fallbackMs) {
+		final long thresholdMs = adaptiveIdleThresholdMs;
+		return thresholdMs < 0 ? fallbackMs : thresholdMs;
+	}
+
+	/** @return how long idle time is counted in, learned from the pauses of the user, or the fallback if there are not enough pauses yet */
+	public int adaptiveAutoCountIdleSeconds(int fallbackSeconds) {
+		final long autoCountMs = adaptiveAutoCountMs;
+		return autoCountMs < 0 ? fallbackSeconds : (int) (autoCountMs / 1000L);
+	}
+
+	@NotNull
+	@Override
+	public IdleGapsState getState() {
+		final IdleGapsState state = new IdleGapsState();
+		synchronized (gaps) {
+			state.gaps = gaps.save();
+		}
+		return state;
+	}
+
+	@Override
+	public void loadState(@NotNull IdleGapsState state) {
+		if (state.gaps == null) {
+			return;
+		}
+		synchronized (gaps) {
+			gaps.load(state.gaps);
+			updateAdaptiveValues(System.currentTimeMillis());
+		}
+	}
+
+	/** Persisted pauses of the user, see {@link IdleGapSketch#save()} */
+	public static final class IdleGapsState {
+		public String gaps = "";
 	}
 }
@@ -0,0 +1,112 @@
+package com.darkyen;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Amount of inputs of each {@link InputKind}.
+ * Counted in {@link LongAdder}s, which spread contended additions over cells, so the input events never wait on a lock.
+ */
+final class InputCounters {
+
+	private static final Logger LOG = Logger.getLogger(InputCounters.class.getName());
+
+	static final String FILE_NAME = "inputs.bin";
+
+	/*
+	File format (all numbers are big endian):
+	 int magic 'DTTI'
+	 int format version
+	 int amount of kinds
+	 For each kind:
+	  UTF name of the kind
+	  long count
+	 */
+	private static final int MAGIC = 0x44545449;
+	private static final int VERSION = 1;
+
+	private final LongAdder[] counters = new LongAdder[InputKind.VALUES.length];
+	/** Counts when they were last taken to be saved, or loaded, the counters are saved only when they differ */
+	private final long[] savedCounts = new long[InputKind.VALUES.length];
+
+	InputCounters() {
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] = new LongAdder();
+		}
+	}
+
+	void increment(@NotNull InputKind kind) {
+		counters[kind.ordinal()].increment();
+	}
+
+	long count(@NotNull InputKind kind) {
+		return counters[kind.ordinal()].sum();
+	}
+
+	@NotNull
+	Map<String, Long> toMap() {
+		final HashMap<String, Long> result = new HashMap<>();
+		for (InputKind kind : InputKind.VALUES) {
+			result.put(kind.name(), count(kind));
+		}
+		return result;
+	}
+
+	/** Add the counts to the counted inputs, used for counts kept in the workspace file */
+	void merge(@NotNull Map<String, Long> counts) {
+		for (InputKind kind : InputKind.VALUES) {
+			final Long count = counts.get(kind.name());
+			if (count != null && count > 0) {
+				counters[kind.ordinal()].add(count);
+			}
+		}
+	}
+
+	/** @return the counts to save to the directory, null when none has changed since the last snapshot */
+	@Nullable
+	byte[] snapshot() {
+		final long[] counts = new long[counters.length];
+		boolean changed = false;
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = counters[i].sum();
+			changed |= counts[i] != savedCounts[i];
+		}
+		if (!changed) {
+			return null;
+		}
+		System.arraycopy(counts, 0, savedCounts, 0, counts.length);
+		return Util.dataFileBytes(MAGIC, VERSION, out -> {
+			out.writeInt(InputKind.VALUES.length);
+			for (InputKind kind : InputKind.VALUES) {
+				out.writeUTF(kind.name());
+				out.writeLong(counts[kind.ordinal()]);
+			}
+		});
+	}
+
+	/**
+	 * Load what was saved to the directory, kinds which are no longer known are dropped.
+	 * @return whether the file existed, false if the counts were never saved there
+	 */
+	boolean load(@NotNull Path directory) {
+		return Util.readDataFile(directory.resolve(FILE_NAME), MAGIC, VERSION, in -> {
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final String name = in.readUTF();
+				final long kindCount = in.readLong();
+				for (InputKind kind : InputKind.VALUES) {
+					if (kind.name().equals(name)) {
+						counters[kind.ordinal()].add(kindCount);
+						savedCounts[kind.ordinal()] += kindCount;
+					}
+				}
+			}
+		}, LOG, "input counts");
+	}
+}
@@ -0,0 +1,62 @@
+package com.darkyen;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+
+/**
+ * Kinds of user input, which are counted separately and can keep the user active for different time.
+ */
+public enum InputKind {
+	TYPING("Typing"),
+	CLICKING("Clicking"),
+	SCROLLING("Scrolling"),
+	NAVIGATION("Navigation");
+
+	static final InputKind[] VALUES = values();
+
+	@NotNull
+	public final String label;
+
+	InputKind(@NotNull String label) {
+		this.label = label;
+	}
+
+	/** @return kind of the input event */
+	@NotNull
+	static InputKind of(@NotNull AWTEvent event) {
+		if (event instanceof MouseWheelEvent) {
+			return SCROLLING;
+		}
+		if (event instanceof KeyEvent) {
+			switch (((KeyEvent) event).getKeyCode()) {
+				case KeyEvent.VK_UP:
+				case KeyEvent.VK_DOWN:
+				case KeyEvent.VK_LEFT:
+				case KeyEvent.VK_RIGHT:
+				case KeyEvent.VK_PAGE_UP:
+				case KeyEvent.VK_PAGE_DOWN:
+				case KeyEvent.VK_HOME:
+				case KeyEvent.VK_END:
+					return NAVIGATION;
+				default:
+					return TYPING;
+			}
+		}
+		return CLICKING;
+	}
+
+	/** @return true if the event starts an input which should be counted, so that a key press with its release counts once */
+	static boolean isCounted(@NotNull AWTEvent event) {
+		final int id = event.getID();
+		return id == KeyEvent.KEY_PRESSED || id == MouseEvent.MOUSE_PRESSED || id == MouseEvent.MOUSE_WHEEL;
+	}
+
+	@Override
+	public String toString() {
+		return label;
+	}
+}
@@ -0,0 +1,145 @@
+package com.darkyen;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Index of tracked time intervals.
+ * <p>
+ * Intervals are kept disjoint: inserted interval is merged with all intervals it overlaps or touches,
+ * so time that was recorded twice is counted once. Thanks to that, a tree ordered by interval start
+ * is enough to answer overlap queries, and all operations take O(log n + k),
+ * where k is the amount of intervals that overlap the queried range.
+ * <p>
+ * Not thread safe.
+ */
+final class IntervalTree {
+
+	/** Start (inclusive) to end (exclusive) */
+	private final TreeMap<Long, Long> intervals = new TreeMap<>();
+
+	/**
+	 * Build the tree from the history records that overlap given range.
+	 * Corrections are applied after all intervals, in the order in which they were made,
+	 * because they may be stored in an earlier segment than the intervals they correct.
+	 */
+	@NotNull
+	static IntervalTree load(@NotNull HistorySegments segments, long fromMs, long toMs) {
+		final IntervalTree tree = new IntervalTree();
+		// Record index to start, length and kind
+		final TreeMap<Long, long[]> corrections = new TreeMap<>();
+		segments.forEachRecord(fromMs, toMs, (index, timeMs, valueMs, kind) -> {
+			switch (kind) {
+				case TimeTrackerStorage.KIND_INTERVAL:
+				case TimeTrackerStorage.KIND_IMPORTED:
+					tree.add(timeMs, timeMs + valueMs);
+					break;
+				case TimeTrackerStorage.KIND_CORRECTION_ADD:
+				case TimeTrackerStorage.KIND_CORRECTION_REMOVE:
+					corrections.put(index, new long[]{timeMs, valueMs, kind});
+					break;
+			}
+		});
+		for (long[] correction : corrections.values()) {
+			if (correction[2] == TimeTrackerStorage.KIND_CORRECTION_ADD) {
+				tree.add(correction[0], correction[0] + correction[1]);
+			} else {
+				tree.remove(correction[0], correction[0] + correction[1]);
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * Insert the interval, merging it with overlapping intervals.
+	 * @return how much of the interval was not covered before
+	 */
+	long add(long startMs, long endMs) {
+		if (endMs <= startMs) {
+			return 0L;
+		}
+		final long newlyCoveredMs = (endMs - startMs) - covered(startMs, endMs);
+
+		long mergedStartMs = startMs;
+		long mergedEndMs = endMs;
+		final Map.Entry<Long, Long> before = intervals.floorEntry(startMs);
+		if (before != null && before.getValue() >= startMs) {
+			mergedStartMs = before.getKey();
+			mergedEndMs = Math.max(mergedEndMs, before.getValue());
+			intervals.remove(before.getKey());
+		}
+		final Iterator<Map.Entry<Long, Long>> overlapping = intervals.subMap(startMs, true, endMs, true).entrySet().iterator();
+		while (overlapping.hasNext()) {
+			mergedEndMs = Math.max(mergedEndMs, overlapping.next().getValue());
+			overlapping.remove();
+		}
+		intervals.put(mergedStartMs, mergedEndMs);
+		return newlyCoveredMs;
+	}
+
+	/**
+	 * Remove the range from all intervals, clipping those which overlap it only partially.
+	 * @return how much of the range was covered before
+	 */
+	long remove(long startMs, long endMs) {
+		if (endMs <= startMs) {
+			return 0L;
+		}
+		final long removedMs = covered(startMs, endMs);
+
+		final Map.Entry<Long, Long> before = intervals.lowerEntry(startMs);
+		if (before != null && before.getValue() > startMs) {
+			intervals.put(before.getKey(), startMs);
+			if (before.getValue() > endMs) {
+				// Range is inside of this interval
+				intervals.put(endMs, before.getValue());
+				return removedMs;
+			}
+		}
+		final Iterator<Map.Entry<Long, Long>> overlapping = intervals.subMap(startMs, true, endMs, false).entrySet().iterator();
+		long lastEndMs = Long.MIN_VALUE;
+		while (overlapping.hasNext()) {
+			lastEndMs = overlapping.next().getValue();
+			overlapping.remove();
+		}
+		if (lastEndMs > endMs) {
+			intervals.put(endMs, lastEndMs);
+		}
+		return removedMs;
+	}
+
+	/** @return how much of the range is covered by intervals */
+	long covered(long startMs, long endMs) {
+		long coveredMs = 0;
+		for (long[] interval : overlapping(startMs, endMs)) {
+			coveredMs += interval[1] - interval[0];
+		}
+		return coveredMs;
+	}
+
+	/** @return intervals that overlap the range, clipped to it, ordered by start, as pairs of start and end */
+	@NotNull
+	List<long[]> overlapping(long startMs, long endMs) {
+		final ArrayList<long[]> result = new ArrayList<>();
+		if (endMs <= startMs) {
+			return result;
+		}
+		final Map.Entry<Long, Long> before = intervals.lowerEntry(startMs);
+		if (before != null && before.getValue() > startMs) {
+			result.add(new long[]{startMs, Math.min(before.getValue(), endMs)});
+		}
+		for (Map.Entry<Long, Long> entry : intervals.subMap(startMs, true, endMs, false).entrySet()) {
+			result.add(new long[]{entry.getKey(), Math.min(entry.getValue(), endMs)});
+		}
+		return result;
+	}
+
+	int size() {
+		return intervals.size();
+	}
+}
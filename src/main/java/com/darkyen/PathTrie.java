@@ -0,0 +1,74 @@
+package com.darkyen;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * Maps directories to values and finds the value of the closest directory that contains given path.
+ * Lookups take time proportional to the amount of path elements, no matter how many directories there are.
+ * <p>
+ * Paths should be absolute and normalized. Not thread safe for writing.
+ */
+final class PathTrie<T> {
+
+	private final Node<T> root = new Node<>();
+
+	/** Set the value of the directory. */
+	void put(@NotNull Path directory, @NotNull T value) {
+		Node<T> node = root;
+		final Path rootElement = directory.getRoot();
+		if (rootElement != null) {
+			node = node.child(rootElement.toString());
+		}
+		for (Path element : directory) {
+			node = node.child(element.toString());
+		}
+		node.value = value;
+	}
+
+	/** @return value of the deepest directory which contains the path (or is the path), null if there is none */
+	@Nullable
+	T find(@NotNull Path path) {
+		Node<T> node = root;
+		T result = node.value;
+		final Path rootElement = path.getRoot();
+		if (rootElement != null) {
+			node = node.children == null ? null : node.children.get(rootElement.toString());
+			if (node == null) {
+				return result;
+			}
+			if (node.value != null) {
+				result = node.value;
+			}
+		}
+		for (Path element : path) {
+			node = node.children == null ? null : node.children.get(element.toString());
+			if (node == null) {
+				break;
+			}
+			if (node.value != null) {
+				result = node.value;
+			}
+		}
+		return result;
+	}
+
+	private static final class Node<T> {
+		@Nullable
+		HashMap<String, Node<T>> children;
+		@Nullable
+		T value;
+
+		@NotNull
+		Node<T> child(@NotNull String name) {
+			HashMap<String, Node<T>> children = this.children;
+			if (children == null) {
+				this.children = children = new HashMap<>();
+			}
+			return children.computeIfAbsent(name, n -> new Node<>());
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.darkyen;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAdjusters;
+import java.time.temporal.WeekFields;
+import java.util.Locale;
+
+/**
+ * Time tracked today and this week, in the local time zone.
+ * <p>
+ * Boundaries of the periods are computed only when a period rolls over, which is detected by comparing
+ * the time with the end of the day (the week always ends with a day), so counting stays a few comparisons and additions.
+ * Days are computed from local dates, so they are correct even when a day is longer or shorter because of DST.
+ * Not thread safe.
+ */
+final class PeriodCounters {
+
+	private long dayStartMs;
+	private long dayEndMs;
+	private long weekStartMs;
+
+	private long dayMs = 0;
+	private long weekMs = 0;
+
+	PeriodCounters(long nowMs) {
+		computeBoundaries(nowMs);
+	}
+
+	private void computeBoundaries(long nowMs) {
+		// Zone is taken every time, so that the periods follow when the user travels
+		final ZoneId zone = ZoneId.systemDefault();
+		final LocalDate today = Instant.ofEpochMilli(nowMs).atZone(zone).toLocalDate();
+		final DayOfWeek firstDayOfWeek = WeekFields.of(Locale.getDefault()).getFirstDayOfWeek();
+		final LocalDate weekStart = today.with(TemporalAdjusters.previousOrSame(firstDayOfWeek));
+		dayStartMs = today.atStartOfDay(zone).toInstant().toEpochMilli();
+		dayEndMs = today.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+		weekStartMs = weekStart.atStartOfDay(zone).toInstant().toEpochMilli();
+	}
+
+	/**
+	 * Start new periods, if the time is past the current ones (or before them, when the clock was moved back).
+	 * @return true if the counters have changed
+	 */
+	boolean rollOver(long nowMs) {
+		if (nowMs >= dayStartMs && nowMs < dayEndMs) {
+			return false;
+		}
+		final long previousWeekStartMs = weekStartMs;
+		computeBoundaries(nowMs);
+		dayMs = 0;
+		if (weekStartMs != previousWeekStartMs) {
+			weekMs = 0;
+		}
+		return true;
+	}
+
+	/**
+	 * Count the interval of tracked time, only its part which is in the current periods.
+	 * Intervals which end in the past (counted in later) never move the periods back.
+	 */
+	void addInterval(long startMs, long endMs) {
+		if (endMs >= dayEndMs) {
+			rollOver(endMs);
+		}
+		final long clippedEndMs = Math.min(endMs, dayEndMs);
+		dayMs += Math.max(0L, clippedEndMs - Math.max(startMs, dayStartMs));
+		weekMs += Math.max(0L, clippedEndMs - Math.max(startMs, weekStartMs));
+	}
+
+	/** Replace the counters with values computed from the history */
+	void set(long dayMs, long weekMs) {
+		this.dayMs = dayMs;
+		this.weekMs = weekMs;
+	}
+
+	/** @return when the current day ends and the counters roll over */
+	long deadlineMs() {
+		return dayEndMs;
+	}
+
+	long startMs(@NotNull TimePeriod period) {
+		switch (period) {
+			case TODAY:
+				return dayStartMs;
+			case WEEK:
+				return weekStartMs;
+			case TOTAL:
+			default:
+				return Long.MIN_VALUE;
+		}
+	}
+
+	/** @return time counted in the period, not defined for {@link TimePeriod#TOTAL} */
+	long timeMs(@NotNull TimePeriod period) {
+		return period == TimePeriod.TODAY ? dayMs : weekMs;
+	}
+}
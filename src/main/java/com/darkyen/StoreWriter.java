@@ -0,0 +1,60 @@
+package com.darkyen;
+
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Writes snapshots of the counters kept next to the history in background.
+ * A snapshot which was not written yet is replaced by a newer snapshot of the same file, so that only the newest one is written.
+ */
+final class StoreWriter {
+
+	private static final Logger LOG = Logger.getLogger(StoreWriter.class.getName());
+
+	/** Held while the files are written, so that an older snapshot is never written after a newer one */
+	private final Object writeLock = new Object();
+
+	/** Snapshots which were not written yet, guarded by this */
+	private final Map<Path, byte[]> pending = new LinkedHashMap<>();
+	private boolean writeScheduled = false;
+
+	/** Write the snapshot to the file in background, null snapshot is ignored. Does not touch the filesystem. */
+	synchronized void write(@NotNull Path file, @Nullable byte[] snapshot) {
+		if (snapshot == null) {
+			return;
+		}
+		pending.put(file, snapshot);
+		if (!writeScheduled) {
+			writeScheduled = true;
+			AppExecutorUtil.getAppExecutorService().execute(this::writePending);
+		}
+	}
+
+	/** Write the pending snapshots on this thread, returns when they are written */
+	void flush() {
+		writePending();
+	}
+
+	private void writePending() {
+		synchronized (writeLock) {
+			final Map<Path, byte[]> files;
+			synchronized (this) {
+				writeScheduled = false;
+				if (pending.isEmpty()) {
+					return;
+				}
+				files = new LinkedHashMap<>(pending);
+				pending.clear();
+			}
+			for (Map.Entry<Path, byte[]> entry : files.entrySet()) {
+				Util.writeFileAtomically(entry.getKey(), entry.getValue(), LOG, entry.getKey().getFileName().toString());
+			}
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package com.darkyen;
+
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.ui.components.JBList;
+import com.intellij.ui.components.JBScrollPane;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Dialog for switching between the task timers of the project, with the time of the selected task by day.
+ * Double click switches to the task.
+ */
+public final class TaskDialog extends DialogWrapper {
+
+	static final String NO_TASK = "(No task)";
+
+	@NotNull
+	private final TimeTrackerService service;
+
+	private final DefaultListModel<String> tasksModel = new DefaultListModel<>();
+	/** Task of each row of {@link #tasksModel}, null for no task */
+	private final ArrayList<String> taskNames = new ArrayList<>();
+	private final JBList<String> tasksList = new JBList<>(tasksModel);
+	private final DefaultListModel<String> daysModel = new DefaultListModel<>();
+	private final JCheckBox countsToGitCheckBox = new JCheckBox("Count to Git time");
+	private final JButton removeButton = new JButton("Remove");
+
+	public TaskDialog(@NotNull TimeTrackerService service) {
+		super(service.project, false);
+		this.service = service;
+		setTitle("Tasks");
+		setOKButtonText("Close");
+		init();
+		refresh(service.getTaskName());
+	}
+
+	@Nullable
+	@Override
+	protected JComponent createCenterPanel() {
+		final JPanel panel = new JPanel(new BorderLayout(0, 4));
+
+		tasksList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		tasksList.addListSelectionListener(e -> selected());
+		tasksList.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2 && tasksList.getSelectedIndex() >= 0) {
+					switchToSelected();
+				}
+			}
+		});
+		final JBList<String> daysList = new JBList<>(daysModel);
+		daysList.setEmptyText("No time was counted to the task yet");
+
+		final JPanel lists = new JPanel(new GridLayout(1, 2, 4, 0));
+		final JBScrollPane tasksScroll = new JBScrollPane(tasksList);
+		tasksScroll.setPreferredSize(new Dimension(300, 250));
+		lists.add(tasksScroll);
+		lists.add(new JBScrollPane(daysList));
+		panel.add(lists, BorderLayout.CENTER);
+
+		final Box buttons = Box.createHorizontalBox();
+		final JButton switchButton = new JButton("Switch");
+		switchButton.setToolTipText("Count the time to the selected task from now on");
+		switchButton.addActionListener(e -> switchToSelected());
+		buttons.add(switchButton);
+
+		final JButton newButton = new JButton("New...");
+		newButton.addActionListener(e -> {
+			final String name = Messages.showInputDialog(service.project, "Name of the task, for example a ticket number:", "New Task", null);
+			if (name != null && !name.trim().isEmpty()) {
+				service.switchTask(name.trim());
+				refresh(name.trim());
+			}
+		});
+		buttons.add(newButton);
+
+		removeButton.setToolTipText("Forget the selected task and its time");
+		removeButton.addActionListener(e -> {
+			final String name = selectedName();
+			if (name != null && Messages.showYesNoDialog(service.project, "Forget task " + name + " and its time?", "Remove Task", null) == Messages.YES) {
+				service.removeTask(name);
+				refresh(service.getTaskName());
+			}
+		});
+		buttons.add(removeButton);
+
+		buttons.add(Box.createHorizontalGlue());
+		countsToGitCheckBox.setToolTipText("Add the time of the task to the time injected into Git commits");
+		countsToGitCheckBox.addActionListener(e -> {
+			final String name = selectedName();
+			if (name != null) {
+				service.setTaskCountsToGitTime(name, countsToGitCheckBox.isSelected());
+			}
+		});
+		buttons.add(countsToGitCheckBox);
+		panel.add(buttons, BorderLayout.SOUTH);
+
+		return panel;
+	}
+
+	@NotNull
+	@Override
+	protected Action[] createActions() {
+		return new Action[]{getOKAction()};
+	}
+
+	@Nullable
+	private String selectedName() {
+		final int index = tasksList.getSelectedIndex();
+		return index >= 0 && index < taskNames.size() ? taskNames.get(index) : null;
+	}
+
+	private void switchToSelected() {
+		final String name = selectedName();
+		service.switchTask(name);
+		refresh(name);
+	}
+
+	private void selected() {
+		final String name = selectedName();
+		daysModel.clear();
+		removeButton.setEnabled(name != null);
+		countsToGitCheckBox.setEnabled(name != null);
+		countsToGitCheckBox.setSelected(name == null || service.taskCountsToGitTime(name));
+		if (name == null) {
+			return;
+		}
+		for (Map.Entry<LocalDate, Long> day : service.taskDays(name).entrySet()) {
+			daysModel.addElement(day.getKey() + "  " + TimeTrackerService.NOTIFICATION_TIME_FORMATTING.millisecondsToString(day.getValue()));
+		}
+	}
+
+	private void refresh(@Nullable String selectName) {
+		final String activeName = service.getTaskName();
+		tasksModel.clear();
+		taskNames.clear();
+		tasksModel.addElement(activeName == null ? "> " + NO_TASK : NO_TASK);
+		taskNames.add(null);
+		for (Map.Entry<String, Long> task : service.taskTimes()) {
+			final String name = task.getKey();
+			tasksModel.addElement((name.equals(activeName) ? "> " : "") + name
+					+ "  " + TimeTrackerService.NOTIFICATION_TIME_FORMATTING.millisecondsToString(task.getValue()));
+			taskNames.add(name);
+		}
+		for (int i = 0; i < taskNames.size(); i++) {
+			if (Objects.equals(taskNames.get(i), selectName)) {
+				tasksList.setSelectedIndex(i);
+				break;
+			}
+		}
+		selected();
+	}
+}
@@ -0,0 +1,239 @@
+package com.darkyen;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Named task timers of the project, at most one of them active, each with its total and its time of each local day.
+ * <p>
+ * The active task and its counter of the current day are kept at hand, so counting time is a single addition
+ * and switching tasks is a single lookup, the history is never rescanned.
+ * Not thread safe.
+ */
+final class TaskTimers {
+
+	private static final Logger LOG = Logger.getLogger(TaskTimers.class.getName());
+
+	static final String FILE_NAME = "tasks.bin";
+
+	/*
+	File format (all numbers are big endian):
+	 int magic 'DTTK'
+	 int format version
+	 UTF name of the active task, empty if none is active
+	 int amount of tasks
+	 For each task:
+	  UTF name
+	  boolean whether the time counts to git time
+	  long total ms
+	  int amount of days
+	  For each day, sorted:
+	   long local epoch day
+	   long ms
+	 */
+	private static final int MAGIC = 0x4454544B;
+	private static final int VERSION = 1;
+
+	private final HashMap<String, Task> tasks = new HashMap<>();
+	@Nullable
+	private Task active = null;
+
+	/** Bounds of the local day of {@link #dayMs}, so that the day is computed only when it changes */
+	private long dayStartMs = Long.MAX_VALUE;
+	private long dayEndMs = Long.MIN_VALUE;
+	/** Task of {@link #dayMs}, usually the active one, null if no counter was looked up yet */
+	@Nullable
+	private Task dayTask = null;
+	/** Counter of {@link #dayTask} for the local day of the last counted time */
+	private long[] dayMs = null;
+
+	/** A task was changed or timed since the last snapshot */
+	private boolean dirty = false;
+
+	/**
+	 * Make the task active, creating it if it does not exist, so that the time is counted to it.
+	 * @param name of the task, null to count the time to no task
+	 */
+	void activate(@Nullable String name) {
+		active = name == null ? null : tasks.computeIfAbsent(name, Task::new);
+		dirty = true;
+	}
+
+	/** Forget the task with its time */
+	void remove(@NotNull String name) {
+		final Task task = tasks.remove(name);
+		if (task != null && task == active) {
+			active = null;
+		}
+		if (task != null && task == dayTask) {
+			dayTask = null;
+			dayMs = null;
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Count the time to the task, time after local midnight is counted to the next day.
+	 * @param name of the task which was active when the time was worked, nothing is counted when it is null or removed
+	 */
+	void add(@Nullable String name, long startMs, long ms) {
+		final Task task = name == null ? null : active != null && active.name.equals(name) ? active : tasks.get(name);
+		if (task == null || ms == 0) {
+			return;
+		}
+		task.totalMs = Math.max(0L, task.totalMs + ms);
+		if (ms < 0) {
+			final long[] dayMs = dayMs(task, startMs);
+			dayMs[0] = Math.max(0L, dayMs[0] + ms);
+		} else {
+			final long endMs = startMs + ms;
+			while (startMs < endMs) {
+				final long[] dayMs = dayMs(task, startMs);
+				final long untilMs = Math.min(endMs, dayEndMs);
+				dayMs[0] += untilMs - startMs;
+				startMs = untilMs;
+			}
+		}
+		dirty = true;
+	}
+
+	/** @return counter of the task for the local day of the time */
+	@NotNull
+	private long[] dayMs(@NotNull Task task, long timeMs) {
+		if (task != dayTask || timeMs < dayStartMs || timeMs >= dayEndMs) {
+			final ZoneId zone = ZoneId.systemDefault();
+			final LocalDate date = Instant.ofEpochMilli(timeMs).atZone(zone).toLocalDate();
+			dayStartMs = date.atStartOfDay(zone).toInstant().toEpochMilli();
+			dayEndMs = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+			dayTask = task;
+			dayMs = task.days.computeIfAbsent(date.toEpochDay(), d -> new long[1]);
+		}
+		return dayMs;
+	}
+
+	/** @return name of the active task, null if no task is active */
+	@Nullable
+	String activeName() {
+		final Task task = active;
+		return task == null ? null : task.name;
+	}
+
+	/** @return time counted to the active task */
+	long activeMs() {
+		final Task task = active;
+		return task == null ? 0L : task.totalMs;
+	}
+
+	/** @return whether the time of the task counts to git time, true for no task and for removed tasks */
+	boolean countsToGit(@Nullable String name) {
+		final Task task = name == null ? null : tasks.get(name);
+		return task == null || task.countsToGit;
+	}
+
+	void setCountsToGit(@NotNull String name, boolean countsToGit) {
+		final Task task = tasks.get(name);
+		if (task != null && task.countsToGit != countsToGit) {
+			task.countsToGit = countsToGit;
+			dirty = true;
+		}
+	}
+
+	/** @return time of each task, sorted from the one with most time */
+	@NotNull
+	List<Map.Entry<String, Long>> sorted() {
+		final ArrayList<Map.Entry<String, Long>> result = new ArrayList<>(tasks.size());
+		for (Task task : tasks.values()) {
+			result.add(new AbstractMap.SimpleImmutableEntry<>(task.name, task.totalMs));
+		}
+		result.sort((a, b) -> {
+			final int byTime = Long.compare(b.getValue(), a.getValue());
+			return byTime != 0 ? byTime : a.getKey().compareTo(b.getKey());
+		});
+		return result;
+	}
+
+	/** @return time of the task by local day, from the most recent day */
+	@NotNull
+	TreeMap<LocalDate, Long> days(@NotNull String name) {
+		final TreeMap<LocalDate, Long> result = new TreeMap<>((a, b) -> b.compareTo(a));
+		final Task task = tasks.get(name);
+		if (task != null) {
+			for (Map.Entry<Long, long[]> entry : task.days.entrySet()) {
+				if (entry.getValue()[0] > 0) {
+					result.put(LocalDate.ofEpochDay(entry.getKey()), entry.getValue()[0]);
+				}
+			}
+		}
+		return result;
+	}
+
+	/** @return the tasks to save to the directory, null if none was changed or timed since the last snapshot */
+	@Nullable
+	byte[] snapshot() {
+		if (!dirty) {
+			return null;
+		}
+		dirty = false;
+		return Util.dataFileBytes(MAGIC, VERSION, out -> {
+			final Task active = this.active;
+			out.writeUTF(active == null ? "" : active.name);
+			out.writeInt(tasks.size());
+			for (Task task : tasks.values()) {
+				out.writeUTF(task.name);
+				out.writeBoolean(task.countsToGit);
+				out.writeLong(task.totalMs);
+				out.writeInt(task.days.size());
+				for (Map.Entry<Long, long[]> entry : task.days.entrySet()) {
+					out.writeLong(entry.getKey());
+					out.writeLong(entry.getValue()[0]);
+				}
+			}
+		});
+	}
+
+	/** Load what was saved to the directory */
+	void load(@NotNull Path directory) {
+		Util.readDataFile(directory.resolve(FILE_NAME), MAGIC, VERSION, in -> {
+			final String activeName = in.readUTF();
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final Task task = new Task(in.readUTF());
+				task.countsToGit = in.readBoolean();
+				task.totalMs = in.readLong();
+				final int days = in.readInt();
+				for (int d = 0; d < days; d++) {
+					task.days.put(in.readLong(), new long[]{in.readLong()});
+				}
+				tasks.put(task.name, task);
+			}
+			active = activeName.isEmpty() ? null : tasks.get(activeName);
+			dayTask = null;
+			dayMs = null;
+		}, LOG, "task timers");
+	}
+
+	private static final class Task {
+		@NotNull
+		final String name;
+		long totalMs = 0L;
+		boolean countsToGit = true;
+		/** Time of each local epoch day, in a single element array, so that the active day can be counted in place */
+		final TreeMap<Long, long[]> days = new TreeMap<>();
+
+		Task(@NotNull String name) {
+			this.name = name;
+		}
+	}
+}
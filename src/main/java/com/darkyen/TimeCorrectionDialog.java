@@ -0,0 +1,148 @@
+package com.darkyen;
+
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.ui.components.JBList;
+import com.intellij.ui.components.JBScrollPane;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Dialog for retroactive corrections of tracked time, showing one day at a time.
+ */
+public final class TimeCorrectionDialog extends DialogWrapper {
+
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+
+	@NotNull
+	private final TimeTrackerService service;
+
+	private final JSpinner daySpinner = new JSpinner(new SpinnerDateModel(new Date(), null, null, Calendar.DAY_OF_MONTH));
+	private final JSpinner fromSpinner = new JSpinner(new SpinnerDateModel(new Date(), null, null, Calendar.MINUTE));
+	private final JSpinner toSpinner = new JSpinner(new SpinnerDateModel(new Date(), null, null, Calendar.MINUTE));
+	private final DefaultListModel<String> intervalsModel = new DefaultListModel<>();
+	private final JLabel dayTotalLabel = new JLabel();
+	private final JLabel resultLabel = new JLabel(" ");
+
+	public TimeCorrectionDialog(@NotNull TimeTrackerService service) {
+		super(service.project, false);
+		this.service = service;
+		setTitle("Correct Tracked Time");
+		setOKButtonText("Close");
+		init();
+		refresh();
+	}
+
+	@Nullable
+	@Override
+	protected JComponent createCenterPanel() {
+		final JPanel panel = new JPanel(new BorderLayout(0, 4));
+
+		final Box dayRow = Box.createHorizontalBox();
+		dayRow.add(new JLabel("Day: "));
+		daySpinner.setEditor(new JSpinner.DateEditor(daySpinner, "yyyy-MM-dd"));
+		daySpinner.addChangeListener(e -> refresh());
+		dayRow.add(daySpinner);
+		dayRow.add(Box.createHorizontalStrut(10));
+		dayRow.add(dayTotalLabel);
+		dayRow.add(Box.createHorizontalGlue());
+		panel.add(dayRow, BorderLayout.NORTH);
+
+		final JBList<String> intervalsList = new JBList<>(intervalsModel);
+		intervalsList.setEmptyText("No time tracked on this day");
+		final JBScrollPane scroll = new JBScrollPane(intervalsList);
+		scroll.setPreferredSize(new Dimension(350, 250));
+		panel.add(scroll, BorderLayout.CENTER);
+
+		final Box rangeRow = Box.createHorizontalBox();
+		rangeRow.add(new JLabel("From: "));
+		fromSpinner.setEditor(new JSpinner.DateEditor(fromSpinner, "HH:mm"));
+		rangeRow.add(fromSpinner);
+		rangeRow.add(new JLabel(" To: "));
+		toSpinner.setEditor(new JSpinner.DateEditor(toSpinner, "HH:mm"));
+		rangeRow.add(toSpinner);
+		rangeRow.add(Box.createHorizontalGlue());
+
+		final JButton removeButton = new JButton("Not worked");
+		removeButton.setToolTipText("Remove the range from tracked time, for example a meeting");
+		removeButton.addActionListener(e -> correct(false));
+		rangeRow.add(removeButton);
+
+		final JButton addButton = new JButton("Worked");
+		addButton.setToolTipText("Add the range to tracked time, time which was already tracked is not added twice");
+		addButton.addActionListener(e -> correct(true));
+		rangeRow.add(addButton);
+
+		final Box bottom = Box.createVerticalBox();
+		bottom.add(rangeRow);
+		resultLabel.setAlignmentX(0f);
+		rangeRow.setAlignmentX(0f);
+		bottom.add(resultLabel);
+		panel.add(bottom, BorderLayout.SOUTH);
+
+		return panel;
+	}
+
+	@NotNull
+	@Override
+	protected Action[] createActions() {
+		return new Action[]{getOKAction()};
+	}
+
+	@NotNull
+	private LocalDate selectedDay() {
+		return Instant.ofEpochMilli(((Date) daySpinner.getValue()).getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+	}
+
+	private long selectedTimeMs(@NotNull JSpinner timeSpinner) {
+		final ZoneId zone = ZoneId.systemDefault();
+		final LocalTime time = Instant.ofEpochMilli(((Date) timeSpinner.getValue()).getTime()).atZone(zone).toLocalTime().withSecond(0).withNano(0);
+		return selectedDay().atTime(time).atZone(zone).toInstant().toEpochMilli();
+	}
+
+	private void correct(boolean add) {
+		final long fromMs = selectedTimeMs(fromSpinner);
+		final long toMs = selectedTimeMs(toSpinner);
+		if (toMs <= fromMs) {
+			resultLabel.setText("The range must end after it starts");
+			return;
+		}
+
+		final long changeMs = service.correctTime(fromMs, toMs, add);
+		if (changeMs == 0) {
+			resultLabel.setText(add ? "The whole range was already tracked" : "No time was tracked in this range");
+		} else {
+			resultLabel.setText((changeMs > 0 ? "Added " : "Removed ") + TimeTrackerService.NOTIFICATION_TIME_FORMATTING.millisecondsToString(Math.abs(changeMs)));
+		}
+		refresh();
+	}
+
+	private void refresh() {
+		final ZoneId zone = ZoneId.systemDefault();
+		final LocalDate day = selectedDay();
+		final long dayStartMs = day.atStartOfDay(zone).toInstant().toEpochMilli();
+		final long dayEndMs = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+
+		final List<long[]> intervals = service.trackedIntervals(dayStartMs, dayEndMs);
+		intervalsModel.clear();
+		long dayTotalMs = 0;
+		for (long[] interval : intervals) {
+			final long durationMs = interval[1] - interval[0];
+			dayTotalMs += durationMs;
+			intervalsModel.addElement(TIME_FORMAT.format(Instant.ofEpochMilli(interval[0]).atZone(zone))
+					+ " - " + TIME_FORMAT.format(Instant.ofEpochMilli(interval[1]).atZone(zone))
+					+ "  (" + TimeTrackerService.NOTIFICATION_TIME_FORMATTING.millisecondsToString(durationMs) + ")");
+		}
+		dayTotalLabel.setText("Tracked: " + TimeTrackerService.NOTIFICATION_TIME_FORMATTING.millisecondsToString(dayTotalMs));
+	}
+}
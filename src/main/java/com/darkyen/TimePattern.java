@@ -2,6 +2,8 @@ package com.darkyen;
 
 import java.util.*;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static com.darkyen.Util.msToS;
 
@@ -16,6 +18,8 @@ public final class TimePattern {
 	public final String source;
 	private final List<Token> tokens;
 	private final EnumSet<TimeUnit> units;
+	/** Inverse of this pattern, built on first use */
+	private Pattern regex = null;
 
 	private TimePattern(String source, List<Token> tokens) {
 		this.source = source;
@@ -99,6 +103,72 @@ public final class TimePattern {
 		return sb.toString();
 	}
 
+	/**
+	 * Find the time formatted by this pattern in the text.
+	 * Precision is the same as of the formatted text, so it may be rounded.
+	 * @return the time in seconds, or -1 if the text does not contain it
+	 */
+	public int stringToSeconds(CharSequence text) {
+		Pattern regex = this.regex;
+		if (regex == null) {
+			this.regex = regex = buildRegex();
+		}
+
+		final Matcher matcher = regex.matcher(text);
+		while (matcher.find()) {
+			long seconds = 0;
+			boolean found = false;
+			int group = 1;
+			for (Token token : tokens) {
+				if (token instanceof TimeToken) {
+					final String value = matcher.group(group++);
+					if (value != null) {
+						seconds += Long.parseLong(value) * ((TimeToken) token).unit.ofSeconds;
+						found = true;
+					}
+				}
+			}
+			if (found && seconds <= Integer.MAX_VALUE) {
+				return (int) seconds;
+			}
+		}
+		return -1;
+	}
+
+	private Pattern buildRegex() {
+		// Spaces are collapsed when formatting, so any amount of them (even none, when tokens are omitted) is accepted
+		final StringBuilder sb = new StringBuilder();
+		for (Token token : tokens) {
+			if (token instanceof LiteralToken) {
+				final String literal = ((LiteralToken) token).value;
+				int start = 0;
+				for (int i = 0; i <= literal.length(); i++) {
+					if (i == literal.length() || literal.charAt(i) == ' ') {
+						if (i > start) {
+							sb.append(Pattern.quote(literal.substring(start, i)));
+						}
+						if (i < literal.length()) {
+							sb.append(" *");
+						}
+						start = i + 1;
+					}
+				}
+			} else {
+				final TimeToken timeToken = (TimeToken) token;
+				sb.append("(?:(\\d{1,9})");
+				if (timeToken.unitPrefixedWithSpace) {
+					sb.append(' ');
+				}
+				sb.append(Pattern.quote(timeToken.text));
+				if (timeToken.pluralizeWith != null) {
+					sb.append("(?:").append(Pattern.quote(timeToken.pluralizeWith)).append(")?");
+				}
+				sb.append(timeToken.mode == TimeTokenMode.ALWAYS ? ")" : ")?");
+			}
+		}
+		return Pattern.compile(sb.toString());
+	}
+
 	public static TimePattern parse(CharSequence pattern) {
 		final ArrayList<ParseError> errors = new ArrayList<>();
 		final TimePattern result = parse(pattern, errors);
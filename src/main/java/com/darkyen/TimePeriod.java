@@ -0,0 +1,21 @@
+package com.darkyen;
+
+/**
+ * Period of which the time is shown by the widget.
+ */
+public enum TimePeriod {
+	TOTAL("Total"),
+	TODAY("Today"),
+	WEEK("This week");
+
+	public final String label;
+
+	TimePeriod(String label) {
+		this.label = label;
+	}
+
+	@Override
+	public String toString() {
+		return label;
+	}
+}
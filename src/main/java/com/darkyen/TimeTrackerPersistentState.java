@@ -1,5 +1,8 @@
 package com.darkyen;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  *
  */
@@ -11,15 +14,31 @@ public final class TimeTrackerPersistentState {
     public boolean autoStart = true;
     public long idleThresholdMs = 2 * 60 * 1000;
     public int autoCountIdleSeconds = 30;
+    /** Derive the idle threshold and auto-counted idle time from the pauses of the user */
+    public boolean adaptiveIdle = false;
+    /** How long each kind of input keeps the user active, in percent of the idle threshold, by {@link InputKind} name */
+    public Map<String, Integer> inputIdlePercent = new HashMap<>();
+    /** Amount of inputs of each kind, by {@link InputKind} name */
+    public Map<String, Long> inputCounts = new HashMap<>();
     public boolean stopWhenIdleRatherThanPausing = false;
     public boolean pauseOtherTrackerInstances = true;
 
     public boolean gitIntegration = false;
+    /** Record git time in git notes (refs/notes/time) instead of in commit messages */
+    public boolean gitTimeInNotes = false;
+
+    /** Time counted to each changelist, by changelist id */
+    public Map<String, Long> changelistTimeMs = new HashMap<>();
+
+    /** Time counted to each tool window, by tool window id */
+    public Map<String, Long> toolWindowTimeMs = new HashMap<>();
 
     /** Bit field recording which features did we suggest user to enable. */
     public long naggedAbout = 0;
 
     public String ideTimePattern = DEFAULT_IDE_TIME_PATTERN;
+    /** Which time the widget shows */
+    public TimePeriod widgetPeriod = TimePeriod.TOTAL;
     public String gitTimePattern = DEFAULT_GIT_TIME_PATTERN;
 
     public String gitRepoPath = DEFAULT_GIT_REPO_PATH;
@@ -29,10 +48,13 @@ public final class TimeTrackerPersistentState {
         this.autoStart = state.autoStart;
         this.idleThresholdMs = state.idleThresholdMs;
         this.autoCountIdleSeconds = state.autoCountIdleSeconds;
+        this.adaptiveIdle = state.adaptiveIdle;
+        this.inputIdlePercent = new HashMap<>(state.inputIdlePercent);
         this.stopWhenIdleRatherThanPausing = state.stopWhenIdleRatherThanPausing;
         this.pauseOtherTrackerInstances = state.pauseOtherTrackerInstances;
 
         this.ideTimePattern = state.ideTimePattern;
+        this.widgetPeriod = state.widgetPeriod;
         this.gitTimePattern = state.gitTimePattern;
     }
 
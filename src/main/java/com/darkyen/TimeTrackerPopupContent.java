@@ -29,6 +29,8 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -86,6 +88,37 @@ final class TimeTrackerPopupContent extends Box {
 					service.setAutoCountIdleSeconds(((Number) autoCountSpinner.getValue()).intValue()));
 		}
 
+		{
+			optionsPanel.add(new JLabel("Learn idle times from my pauses:", JLabel.RIGHT));
+			final JCheckBox adaptiveIdleCheckBox = new JCheckBox();
+			adaptiveIdleCheckBox.setHorizontalAlignment(SwingConstants.CENTER);
+			adaptiveIdleCheckBox.setVerticalAlignment(SwingConstants.CENTER);
+			adaptiveIdleCheckBox.setSelected(service.isAdaptiveIdle());
+			adaptiveIdleCheckBox.setToolTipText("<html>Pause after the usual pauses in work and auto-count the longer ones, the fields above are used until enough pauses are seen.<br>"
+					+ "Now pausing after " + msToS(InactivityService.getInstance().adaptiveIdleThresholdMs(service.getIdleThresholdMs())) + " sec, auto-counting "
+					+ InactivityService.getInstance().adaptiveAutoCountIdleSeconds(service.getAutoCountIdleSeconds()) + " sec</html>");
+			optionsPanel.add(adaptiveIdleCheckBox);
+			adaptiveIdleCheckBox.addActionListener(al -> {
+				service.setAdaptiveIdle(adaptiveIdleCheckBox.isSelected());
+			});
+		}
+
+		{
+			optionsPanel.add(new JLabel("Input keeps active for (% of pause time):", JLabel.RIGHT));
+			final Box inputIdleBox = Box.createHorizontalBox();
+			for (InputKind kind : InputKind.VALUES) {
+				final JSpinner percentSpinner = new JSpinner(new SpinnerNumberModel(service.getInputIdlePercent(kind),
+						TimeTrackerService.MIN_INPUT_IDLE_PERCENT, TimeTrackerService.MAX_INPUT_IDLE_PERCENT, 10));
+				percentSpinner.setToolTipText(kind.label);
+				percentSpinner.addChangeListener(ce ->
+						service.setInputIdlePercent(kind, ((Number) percentSpinner.getValue()).intValue()));
+				inputIdleBox.add(new JLabel(kind.label.substring(0, 1) + " "));
+				inputIdleBox.add(percentSpinner);
+			}
+			inputIdleBox.setToolTipText("Typing, Clicking, Scrolling, Navigation with arrow and page keys");
+			optionsPanel.add(inputIdleBox);
+		}
+
 		{
 			optionsPanel.add(new JLabel("Auto start on typing:", JLabel.RIGHT));
 			final JCheckBox autoStartCheckBox = new JCheckBox();
@@ -127,6 +160,50 @@ final class TimeTrackerPopupContent extends Box {
 			});
 		}
 
+		{
+			optionsPanel.add(new JLabel("Record Git time in notes instead:", JLabel.RIGHT));
+			final JCheckBox gitTimeInNotesCheckBox = new JCheckBox();
+			gitTimeInNotesCheckBox.setSelected(service.isGitTimeInNotes());
+			gitTimeInNotesCheckBox.setToolTipText("Time of each commit is recorded in refs/notes/time and commit messages are left unchanged");
+			gitTimeInNotesCheckBox.setHorizontalAlignment(SwingConstants.CENTER);
+			gitTimeInNotesCheckBox.setVerticalAlignment(SwingConstants.CENTER);
+			optionsPanel.add(gitTimeInNotesCheckBox);
+			gitTimeInNotesCheckBox.addActionListener(al -> {
+				service.setGitTimeInNotes(gitTimeInNotesCheckBox.isSelected());
+			});
+		}
+
+		{
+			optionsPanel.add(new JLabel("Count time to task:", JLabel.RIGHT));
+			final List<Map.Entry<String, Long>> tasks = service.taskTimes();
+			final String[] taskNames = new String[tasks.size() + 1];
+			taskNames[0] = TaskDialog.NO_TASK;
+			for (int i = 0; i < tasks.size(); i++) {
+				taskNames[i + 1] = tasks.get(i).getKey();
+			}
+			final ComboBox<String> taskComboBox = new ComboBox<>(taskNames);
+			final String activeTask = service.getTaskName();
+			taskComboBox.setSelectedItem(activeTask == null ? TaskDialog.NO_TASK : activeTask);
+			taskComboBox.addActionListener(e -> {
+				final int index = taskComboBox.getSelectedIndex();
+				service.switchTask(index <= 0 ? null : taskNames[index]);
+			});
+			optionsPanel.add(taskComboBox);
+		}
+
+		{
+			optionsPanel.add(new JLabel("Display time of:", JLabel.RIGHT));
+			final ComboBox<TimePeriod> periodComboBox = new ComboBox<>(TimePeriod.values());
+			periodComboBox.setSelectedItem(service.getWidgetPeriod());
+			periodComboBox.addActionListener(e -> {
+				final TimePeriod period = (TimePeriod) periodComboBox.getSelectedItem();
+				if (period != null) {
+					service.setWidgetPeriod(period);
+				}
+			});
+			optionsPanel.add(periodComboBox);
+		}
+
 		{
 			optionsPanel.add(new JLabel("Display time format:", JLabel.RIGHT));
 			final TimePatternTextField patternField = new TimePatternTextField(
@@ -170,6 +247,40 @@ final class TimeTrackerPopupContent extends Box {
 			final Box otherButtons = Box.createHorizontalBox();
 			this.add(otherButtons);
 
+			if (service.hasHistory()) {
+				final JButton correctTime = new JButton("Correct time...");
+				correctTime.setToolTipText("Retroactively add or remove a range of time");
+				correctTime.addActionListener(e1 -> {
+					popup.cancel();
+					new TimeCorrectionDialog(service).show();
+				});
+				otherButtons.add(correctTime);
+			}
+
+			final JButton topFiles = new JButton("Top files...");
+			topFiles.setToolTipText("Files with the most tracked time, time by file type, module, directory and tool window");
+			topFiles.addActionListener(e1 -> {
+				popup.cancel();
+				new TopFilesDialog(service).show();
+			});
+			otherButtons.add(topFiles);
+
+			final JButton activityButton = new JButton("Activity...");
+			activityButton.setToolTipText("Heatmap of activity in the last year");
+			activityButton.addActionListener(e1 -> {
+				popup.cancel();
+				new ActivityHeatmapDialog(service).show();
+			});
+			otherButtons.add(activityButton);
+
+			final JButton tasksButton = new JButton("Tasks...");
+			tasksButton.setToolTipText("Create, switch and review task timers");
+			tasksButton.addActionListener(e1 -> {
+				popup.cancel();
+				new TaskDialog(service).show();
+			});
+			otherButtons.add(tasksButton);
+
 			otherButtons.add(Box.createHorizontalGlue());
 
 			final JButton loadDefaults = new JButton("Reset to defaults");
@@ -1,6 +1,10 @@
 package com.darkyen;
 
 import com.intellij.AppTopics;
+import com.intellij.execution.ExecutionListener;
+import com.intellij.execution.ExecutionManager;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.runners.ExecutionEnvironment;
 import com.intellij.notification.Notification;
 import com.intellij.notification.NotificationGroupManager;
 import com.intellij.notification.NotificationType;
@@ -9,6 +13,9 @@ import com.intellij.openapi.Disposable;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.command.CommandProcessor;
+import com.intellij.openapi.command.undo.GlobalUndoableAction;
+import com.intellij.openapi.command.undo.UndoManager;
 import com.intellij.openapi.components.PersistentStateComponent;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.components.State;
@@ -24,11 +31,31 @@ import com.intellij.openapi.fileChooser.FileChooserDialog;
 import com.intellij.openapi.fileChooser.FileChooserFactory;
 import com.intellij.openapi.fileEditor.FileDocumentManagerListener;
 import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.FileEditorManagerEvent;
+import com.intellij.openapi.fileEditor.FileEditorManagerListener;
+import com.intellij.openapi.fileTypes.FileTypeManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.DumbAwareAction;
+import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.ManagingFS;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowManager;
+import com.intellij.task.ProjectTaskContext;
+import com.intellij.task.ProjectTaskListener;
+import com.intellij.task.ProjectTaskManager;
 import com.intellij.util.concurrency.EdtExecutorService;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.ui.UIUtil;
@@ -36,10 +63,20 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.awt.*;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -74,13 +111,70 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 	public final Project project;
 
 	@Nullable
-	private GitIntegration gitIntegrationComponent;
+	private volatile GitIntegration gitIntegrationComponent;
+	/** All repositories in the project, including the {@link #gitIntegrationComponent}, null until discovered */
+	@Nullable
+	private volatile GitRepositories gitRepositories;
+	/** File in the selected editor, git time is credited to its repository */
+	@Nullable
+	private volatile Path activeFile;
 
 	@Nullable
 	private TimeTrackerWidget widget;
 
+	/** Null when the project has no directory for IDE files, total time is then stored in the workspace file. */
+	@Nullable
+	private final TimeTrackerStorage storage;
+
 	private long totalTimeMs = 0;
+	/** Time tracked today and this week, only tracked intervals count, not manual adjustments */
+	private final PeriodCounters periodCounters = new PeriodCounters(System.currentTimeMillis());
+	/** Rolls the period counters over at the end of the day */
+	private ScheduledFuture<?> periodDeadline;
+	private TimePeriod widgetPeriod = TimePeriod.TOTAL;
+	/** Time of each file, counted to the file of the selected editor */
+	private final FileTimes fileTimes = new FileTimes();
+	/** Minutes with any user input */
+	private final ActivityBitmaps activity = new ActivityBitmaps();
+	private final FocusStreaks streaks = new FocusStreaks();
+	/** Days in which each file was counted some time */
+	private final FileDayFilters fileDays = new FileDayFilters();
+	/** Id of the file of the selected editor, 0 if it has none */
+	private int fileId = 0;
+	/** Time of files by file type, module and directory, counted with {@link #fileTimes} */
+	private final FileRollups fileRollups = new FileRollups();
+	/** Since when is the time counted to the active file of {@link #fileTimes} */
+	private long fileSinceMs = System.currentTimeMillis();
+	/** Time of each tool window, counted to the one with the focus */
+	private final ToolWindowTimes toolWindowTimes = new ToolWindowTimes();
+	/** Whether the tool window times of the workspace file are still to be merged, like {@link #changelistTimesInWorkspace} */
+	private boolean toolWindowTimesInWorkspace = true;
+	/** Since when is the time counted to the focused tool window of {@link #toolWindowTimes} */
+	private long toolWindowSinceMs = System.currentTimeMillis();
+	/** Tool window (or {@link ToolWindowTimes#EDITOR}) of each focused component, so that the hierarchy is walked only once for each */
+	private final WeakHashMap<Component, String> focusedToolWindows = new WeakHashMap<>();
+	/** Tracked time during which the IDE was indexing, building or running */
+	private final WaitTimes waitTimes = new WaitTimes();
+	/** Start of each idle time which was not counted, but can still be counted in from its notification, see {@link #forgetWaits()} */
+	private final ArrayList<Long> uncountedIdleStartsMs = new ArrayList<>();
+	/** Idle time older than this is not waited for to be counted in, so that notifications left in the log do not keep the busy periods forever */
+	private static final long MAX_UNCOUNTED_IDLE_AGE_MS = 24L * 60L * 60L * 1000L;
+	/** Named task timers, time is counted to the active one */
+	private final TaskTimers tasks = new TaskTimers();
+	/** Time of each changelist, counted with the git time */
+	private final ChangelistTimes changelistTimes = new ChangelistTimes();
+	/** Whether the changelist times of the workspace file are still to be merged, they are kept there by older versions and when there is no storage */
+	private boolean changelistTimesInWorkspace = true;
+	/** Id of the default changelist, null when the IDE has no VCS support or when it is not known yet */
+	@Nullable
+	private String changelist = null;
 	private volatile TimeTrackingStatus status = TimeTrackingStatus.STOPPED;
+	/** Task which was active when the status became {@link TimeTrackingStatus#IDLE}, the idle time is counted to it when it is counted in */
+	@Nullable
+	private String idleTask = null;
+	/** File which was active when the status became {@link TimeTrackingStatus#IDLE}, the idle time is counted in to its repository */
+	@Nullable
+	private Path idleFile = null;
 	private long statusStartedMs = System.currentTimeMillis();
 	private long lastTickMs = System.currentTimeMillis();
 	private volatile long lastActivityMs = System.currentTimeMillis();
@@ -88,10 +182,23 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 	private boolean autoStart;
 	private long idleThresholdMs;
 	private int autoCountIdleSeconds;
+	private boolean adaptiveIdle;
+	/** How long each kind of input keeps the user active, in percent of the idle threshold, by {@link InputKind} ordinal */
+	private final int[] inputIdlePercent = new int[InputKind.VALUES.length];
+	{
+		Arrays.fill(inputIdlePercent, 100);
+	}
+	private final InputCounters inputCounters = new InputCounters();
+	/** Whether the counters kept next to the history were loaded, see {@link #loadStores()} */
+	private boolean storesLoaded = false;
+	private final StoreWriter storeWriter = new StoreWriter();
+	/** Whether the input counts of the workspace file are still to be merged, like {@link #changelistTimesInWorkspace} */
+	private boolean inputCountsInWorkspace = true;
 	private boolean stopWhenIdleRatherThanPausing;
 	private boolean pauseOtherTrackerInstances;
 
 	private boolean gitIntegration;
+	private boolean gitTimeInNotes;
 	@NotNull
 	private String gitRepoPath = TimeTrackerPersistentState.DEFAULT_GIT_REPO_PATH;
 	@NotNull
@@ -108,6 +215,9 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 	@Nullable
 	private ScheduledFuture<?> ticker;
 
+	static final int MIN_INPUT_IDLE_PERCENT = 10;
+	static final int MAX_INPUT_IDLE_PERCENT = 300;
+
 	private static final long TICK_DELAY = 1;
 	private static final TimeUnit TICK_DELAY_UNIT = TimeUnit.SECONDS;
 	private static final long TICK_JUMP_DETECTION_THRESHOLD_MS = TICK_DELAY_UNIT.toMillis(TICK_DELAY * 20);
@@ -117,6 +227,15 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 	public TimeTrackerService(@NotNull Project project) {
 		if (DEBUG_LIFECYCLE) LOG.log(Level.INFO, "Instantiated "+this);
 		this.project = project;
+
+		final long storageOpenStartNs = System.nanoTime();
+		this.storage = TimeTrackerStorage.open(project);
+		if (storage != null) {
+			this.totalTimeMs = storage.getLoadedTotalTimeMs();
+		}
+		toolWindowTimes.activate(ToolWindowTimes.EDITOR);
+		if (DEBUG_LIFECYCLE) LOG.log(Level.INFO, "Opened storage in "+(System.nanoTime() - storageOpenStartNs) / 1000+" us");
+
 		Disposer.register(project, this);
 
 		ALL_OPENED_TRACKERS.add(this);
@@ -153,6 +272,75 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 				}
 			});
 
+		project.getMessageBus().connect(this).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+			@Override
+			public void after(@NotNull List<? extends VFileEvent> events) {
+				filesMoved(events);
+				final GitRepositories gitRepositories = TimeTrackerService.this.gitRepositories;
+				final GitIntegration gitIntegrationComponent = TimeTrackerService.this.gitIntegrationComponent;
+				if (gitRepositories != null) {
+					for (GitIntegration repository : gitRepositories.all()) {
+						repository.versionTimeFileEvents(events);
+					}
+				} else if (gitIntegrationComponent != null) {
+					gitIntegrationComponent.versionTimeFileEvents(events);
+				}
+			}
+		});
+		project.getMessageBus().connect(this).subscribe(DumbService.DUMB_MODE, new DumbService.DumbModeListener() {
+			@Override
+			public void enteredDumbMode() {
+				waitStarted(WaitTimes.Kind.INDEXING);
+			}
+
+			@Override
+			public void exitDumbMode() {
+				waitEnded(WaitTimes.Kind.INDEXING);
+			}
+		});
+		synchronized (this) {
+			// Indexing which started before the listener was subscribed, unless it was already reported to it
+			if (DumbService.isDumb(project) && !waitTimes.isRunning(WaitTimes.Kind.INDEXING)) {
+				waitStarted(WaitTimes.Kind.INDEXING);
+			}
+		}
+		project.getMessageBus().connect(this).subscribe(ProjectTaskListener.TOPIC, new ProjectTaskListener() {
+			@Override
+			public void started(@NotNull ProjectTaskContext context) {
+				waitStarted(WaitTimes.Kind.BUILD);
+			}
+
+			@Override
+			public void finished(@NotNull ProjectTaskManager.Result result) {
+				waitEnded(WaitTimes.Kind.BUILD);
+			}
+		});
+		project.getMessageBus().connect(this).subscribe(ExecutionManager.EXECUTION_TOPIC, new ExecutionListener() {
+			@Override
+			public void processStarted(@NotNull String executorId, @NotNull ExecutionEnvironment env, @NotNull ProcessHandler handler) {
+				waitStarted(WaitTimes.Kind.RUN);
+			}
+
+			@Override
+			public void processTerminated(@NotNull String executorId, @NotNull ExecutionEnvironment env, @NotNull ProcessHandler handler, int exitCode) {
+				waitEnded(WaitTimes.Kind.RUN);
+			}
+		});
+		project.getMessageBus().connect(this).subscribe(FileEditorManagerListener.FILE_EDITOR_MANAGER, new FileEditorManagerListener() {
+			@Override
+			public void selectionChanged(@NotNull FileEditorManagerEvent event) {
+				final Path file = convertToIOFile(event.getNewFile());
+				synchronized (TimeTrackerService.this) {
+					if (repositoryOf(file) != repositoryOf(activeFile)) {
+						// Time until now belongs to the repository of the previous file
+						saveTime();
+					}
+					activeFile = file;
+				}
+				fileSelected(event.getNewFile());
+			}
+		});
+
 		EditorFactory.getInstance().getEventMulticaster().addDocumentListener(new DocumentListener() {
 			@Override
 			public void documentChanged(@NotNull DocumentEvent e) {
@@ -172,6 +360,61 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 		}, this);
 
 		InactivityService.getInstance().assignProjectWindow(this, null);
+
+		ApplicationManager.getApplication().executeOnPooledThread(() -> {
+			loadStores();
+			loadPeriodCounters();
+		});
+	}
+
+	/**
+	 * Load the counters kept next to the history, unless they are loaded already.
+	 * Loaded on a pooled thread after the project opens, or by the first entry point which uses them, whichever comes first,
+	 * so that nothing is counted to them or saved over their files before they are loaded.
+	 * Input counts, activity and focus streaks are counted without locking, so their loaded values are added to what was counted so far.
+	 */
+	private synchronized void loadStores() {
+		if (storesLoaded) {
+			return;
+		}
+		storesLoaded = true;
+		final TimeTrackerStorage storage = this.storage;
+		if (storage == null) {
+			return;
+		}
+		final long loadStartNs = System.nanoTime();
+		fileTimes.load(storage.directory(), ManagingFS.getInstance().getCreationTimestamp());
+		fileRollups.load(storage.directory(), ManagingFS.getInstance().getCreationTimestamp());
+		fileDays.load(storage.directory(), ManagingFS.getInstance().getCreationTimestamp());
+		activity.load(storage.directory());
+		streaks.load(storage.directory());
+		waitTimes.load(storage.directory());
+		tasks.load(storage.directory());
+		changelistTimesInWorkspace = !changelistTimes.load(storage.directory());
+		inputCountsInWorkspace = !inputCounters.load(storage.directory());
+		toolWindowTimesInWorkspace = !toolWindowTimes.load(storage.directory());
+		if (DEBUG_LIFECYCLE) LOG.log(Level.INFO, "Loaded counters in "+(System.nanoTime() - loadStartNs) / 1000+" us");
+		repaintWidget(false);
+	}
+
+	/** Save what has changed in the counters kept next to the history, in background. The snapshots are taken under the lock. */
+	private synchronized void saveStores(@NotNull TimeTrackerStorage storage) {
+		if (!storesLoaded) {
+			// What was counted so far is added to the loaded values and saved after the load
+			return;
+		}
+		final Path directory = storage.directory();
+		final long vfsTimestamp = ManagingFS.getInstance().getCreationTimestamp();
+		storeWriter.write(directory.resolve(FileTimes.FILE_NAME), fileTimes.snapshot(vfsTimestamp));
+		storeWriter.write(directory.resolve(FileRollups.FILE_NAME), fileRollups.snapshot(vfsTimestamp));
+		storeWriter.write(directory.resolve(FileDayFilters.FILE_NAME), fileDays.snapshot(vfsTimestamp));
+		storeWriter.write(directory.resolve(ActivityBitmaps.FILE_NAME), activity.snapshot());
+		storeWriter.write(directory.resolve(FocusStreaks.FILE_NAME), streaks.snapshot());
+		storeWriter.write(directory.resolve(WaitTimes.FILE_NAME), waitTimes.snapshot());
+		storeWriter.write(directory.resolve(TaskTimers.FILE_NAME), tasks.snapshot());
+		storeWriter.write(directory.resolve(ChangelistTimes.FILE_NAME), changelistTimes.snapshot());
+		storeWriter.write(directory.resolve(InputCounters.FILE_NAME), inputCounters.snapshot());
+		storeWriter.write(directory.resolve(ToolWindowTimes.FILE_NAME), toolWindowTimes.snapshot());
 	}
 
 	@NotNull
@@ -213,6 +456,7 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 		final long sinceLastTickMs = now - lastTickMs;
 		final long lastActivityMs = this.lastActivityMs;
 		final long sinceLastActivityMs = now - lastActivityMs;
+		final long idleThresholdMs = effectiveIdleThresholdMs();
 
 		if (sinceLastTickMs > TICK_JUMP_DETECTION_THRESHOLD_MS) {
 			final long lastValidTimeMs = lastTickMs + TICK_JUMP_DETECTION_THRESHOLD_MS;
@@ -232,32 +476,222 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 		}
 	}
 
-	public synchronized void addOrResetTotalTimeMs(long milliseconds) {
+	/**
+	 * Manually adjust the total time (or reset it, when {@code milliseconds} is {@link #RESET_TIME_TO_ZERO}).
+	 * When called from the event dispatch thread, the change can be undone through the IDE undo.
+	 * <p>
+	 * Reset clears the total time, the git time and the time of changelists, files, file types, modules, directories and tool windows.
+	 * Task times, wait times, days worked on files, activity, focus streaks and the history are kept.
+	 */
+	public void addOrResetTotalTimeMs(long milliseconds) {
+		final boolean reset = milliseconds == RESET_TIME_TO_ZERO;
+		final ResetCounters cleared = reset ? new ResetCounters() : null;
+		// The adjustment is counted to the active task, and so is its undo, even if another task is active by then
+		final String task = getTaskName();
+		final long changeMs = changeTotalTimeMs(milliseconds, cleared);
+
+		final Project project = project();
+		if (project == null || changeMs == 0 || !ApplicationManager.getApplication().isDispatchThread()) {
+			return;
+		}
+		CommandProcessor.getInstance().executeCommand(project,
+				() -> UndoManager.getInstance(project).undoableActionPerformed(new TimeChangeUndoableAction(changeMs, cleared, task)),
+				reset ? "Reset Tracked Time" : "Adjust Tracked Time", null);
+	}
+
+	/**
+	 * @param cleared filled with the counters cleared by a reset, so that it can be undone
+	 * @return by how much has the total time actually changed
+	 */
+	private synchronized long changeTotalTimeMs(long milliseconds, @Nullable ResetCounters cleared) {
+		final long now = System.currentTimeMillis();
+		final long changeMs;
+		loadStores();
 		if (milliseconds == RESET_TIME_TO_ZERO) {
+			final TimeTrackerStorage storage = this.storage;
+			if (storage != null) {
+				storage.append(TimeTrackerStorage.KIND_RESET, now, totalTimeMs);
+			}
+			// Time of the current status is dropped as well
+			changeMs = -(totalTimeMs + (status == TimeTrackingStatus.RUNNING ? Math.max(0L, now - statusStartedMs) : 0L));
 			totalTimeMs = 0L;
-			statusStartedMs = System.currentTimeMillis();
+			statusStartedMs = now;
+			if (cleared != null) {
+				cleared.changelistTimes = changelistTimes.toMap();
+				cleared.fileTimes = fileTimes.copy();
+				cleared.toolWindowTimes = toolWindowTimes.toMap();
+				cleared.fileRollups = fileRollups.copy();
+			}
+			changelistTimes.clear();
+			fileTimes.clear();
+			toolWindowTimes.clear();
+			fileRollups.clear();
 			updateGitTime(RESET_TIME_TO_ZERO);
 		} else {
-			addTotalTimeMs(milliseconds);
+			final long beforeMs = totalTimeMs;
+			addTotalTimeMs(TimeTrackerStorage.KIND_ADJUSTMENT, now, milliseconds);
+			changeMs = totalTimeMs - beforeMs;
 		}
 		repaintWidget(false);
+		return changeMs;
+	}
+
+	/** Counters cleared by a reset, added back when the reset is undone, the time counted since the reset is kept */
+	private static final class ResetCounters {
+		@NotNull
+		Map<String, Long> changelistTimes = Collections.emptyMap();
+		@NotNull
+		Map<String, Long> toolWindowTimes = Collections.emptyMap();
+		@Nullable
+		FileTimes fileTimes = null;
+		@Nullable
+		FileRollups fileRollups = null;
+	}
+
+	/**
+	 * Undoes a manual change of the total time by recording the opposite adjustment,
+	 * so it costs the same, no matter how long the history is.
+	 */
+	private final class TimeChangeUndoableAction extends GlobalUndoableAction {
+
+		private long changeMs;
+		/** Counters cleared by the reset, null if this is not a reset */
+		@Nullable
+		private final ResetCounters cleared;
+		/** Task to which the change was counted */
+		@Nullable
+		private final String task;
+
+		TimeChangeUndoableAction(long changeMs, @Nullable ResetCounters cleared, @Nullable String task) {
+			this.changeMs = changeMs;
+			this.cleared = cleared;
+			this.task = task;
+		}
+
+		@Override
+		public void undo() {
+			synchronized (TimeTrackerService.this) {
+				// Git time consumed by commits can't be returned, so only the time added or removed by hand is returned to git
+				addTotalTimeMs(TimeTrackerStorage.KIND_ADJUSTMENT, System.currentTimeMillis(), -changeMs, cleared == null, task);
+				final ResetCounters cleared = this.cleared;
+				if (cleared != null) {
+					changelistTimes.merge(cleared.changelistTimes);
+					toolWindowTimes.merge(cleared.toolWindowTimes);
+					if (cleared.fileTimes != null) {
+						fileTimes.addAll(cleared.fileTimes);
+					}
+					if (cleared.fileRollups != null) {
+						fileRollups.addAll(cleared.fileRollups);
+					}
+				}
+				repaintWidget(false);
+			}
+		}
+
+		@Override
+		public void redo() {
+			if (cleared != null) {
+				changeMs = changeTotalTimeMs(RESET_TIME_TO_ZERO, cleared);
+			} else {
+				synchronized (TimeTrackerService.this) {
+					addTotalTimeMs(TimeTrackerStorage.KIND_ADJUSTMENT, System.currentTimeMillis(), changeMs, true, task);
+					repaintWidget(false);
+				}
+			}
+		}
 	}
 
 	public synchronized void resetGitTime() {
 		updateGitTime(RESET_TIME_TO_ZERO);
 	}
 
-	private synchronized void addTotalTimeMs(long milliseconds) {
+	/**
+	 * Retroactively mark the range as worked or not worked.
+	 * Only the part of the range that was not counted (when adding) or that was counted (when removing)
+	 * changes the total time and the git time.
+	 * @return by how much has the total time changed
+	 */
+	synchronized long correctTime(long fromMs, long toMs, boolean add) {
+		final TimeTrackerStorage storage = this.storage;
+		if (storage == null || toMs <= fromMs) {
+			return 0L;
+		}
+		// Running time must be in the history, so that it can be corrected as well
+		saveTime();
+
+		final IntervalTree intervals = IntervalTree.load(storage.segments(), fromMs, toMs);
+		final long changeMs = add ? intervals.add(fromMs, toMs) : -intervals.remove(fromMs, toMs);
+		storage.append(add ? TimeTrackerStorage.KIND_CORRECTION_ADD : TimeTrackerStorage.KIND_CORRECTION_REMOVE, fromMs, toMs - fromMs);
+		// The task which was active in the range is not known, so the task times are not corrected
+		addTotalTimeMs(TimeTrackerStorage.KIND_ADJUSTMENT, System.currentTimeMillis(), changeMs, true, null);
+		if (toMs > periodCounters.startMs(TimePeriod.WEEK)) {
+			loadPeriodCounters();
+		}
+		repaintWidget(false);
+		return changeMs;
+	}
+
+	/** @return intervals of tracked time (pairs of start and end) that overlap given range, clipped to it */
+	@NotNull
+	synchronized List<long[]> trackedIntervals(long fromMs, long toMs) {
+		final TimeTrackerStorage storage = this.storage;
+		if (storage == null) {
+			return Collections.emptyList();
+		}
+		return IntervalTree.load(storage.segments(), fromMs, toMs).overlapping(fromMs, toMs);
+	}
+
+	/** @return true if the project has stored history, which can be corrected */
+	boolean hasHistory() {
+		return storage != null;
+	}
+
+	/**
+	 * @param recordKind kind of history record, see {@link TimeTrackerStorage}
+	 * @param sinceMs when did the counted time start, or when was the adjustment made
+	 */
+	private synchronized void addTotalTimeMs(byte recordKind, long sinceMs, long milliseconds) {
+		loadStores();
+		addTotalTimeMs(recordKind, sinceMs, milliseconds, true, tasks.activeName());
+	}
+
+	/** @param task which was active when the time was worked, the time is counted to it */
+	private synchronized void addTotalTimeMs(byte recordKind, long sinceMs, long milliseconds, boolean countToGitTime, @Nullable String task) {
+		addTotalTimeMs(recordKind, sinceMs, milliseconds, countToGitTime, task, activeFile);
+	}
+
+	/** @param file which was active when the time was worked, the git time is counted to its repository */
+	private synchronized void addTotalTimeMs(byte recordKind, long sinceMs, long milliseconds, boolean countToGitTime, @Nullable String task, @Nullable Path file) {
+		loadStores();
 		totalTimeMs = Math.max(0L, totalTimeMs + milliseconds);
-		updateGitTime(msToS(milliseconds));
+		final TimeTrackerStorage storage = this.storage;
+		if (storage != null && milliseconds != 0) {
+			storage.append(recordKind, sinceMs, milliseconds);
+		}
+		if (recordKind == TimeTrackerStorage.KIND_INTERVAL) {
+			periodCounters.addInterval(sinceMs, sinceMs + milliseconds);
+			// Time before the file was selected was already counted to the previous file
+			countFileTime(sinceMs + milliseconds - Math.max(sinceMs, fileSinceMs), sinceMs + milliseconds);
+			toolWindowTimes.add(sinceMs + milliseconds - Math.max(sinceMs, toolWindowSinceMs));
+			waitTimes.addInterval(sinceMs, sinceMs + milliseconds);
+		}
+		if (countToGitTime) {
+			tasks.add(task, sinceMs, milliseconds);
+			if (tasks.countsToGit(task)) {
+				changelistTimes.add(milliseconds);
+				updateGitTime(msToS(milliseconds), file);
+			}
+		}
 	}
 
 	private synchronized void saveTime() {
 		if (status == TimeTrackingStatus.RUNNING) {
 			final long now = System.currentTimeMillis();
 			final long msInState = Math.max(0L, now - statusStartedMs);
+			final long startedMs = statusStartedMs;
 			statusStartedMs = now;
-			addTotalTimeMs(msInState);
+			addTotalTimeMs(TimeTrackerStorage.KIND_INTERVAL, startedMs, msInState);
+			forgetWaits();
 		}
 	}
 
@@ -276,15 +710,19 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 		}
 
 		final long msInState = Math.max(0L, now - statusStartedMs);
+		final long stateStartedMs = statusStartedMs;
 
 		switch (this.status) {
 			case RUNNING: {
-				addTotalTimeMs(msInState);
+				addTotalTimeMs(TimeTrackerStorage.KIND_INTERVAL, stateStartedMs, msInState);
+				streaks.stopped();
 				break;
 			}
 			case IDLE: {
-				if (msToS(msInState) <= autoCountIdleSeconds) {
-					addTotalTimeMs(msInState);
+				final String idleTask = this.idleTask;
+				final Path idleFile = this.idleFile;
+				if (msToS(msInState) <= effectiveAutoCountIdleSeconds()) {
+					addTotalTimeMs(TimeTrackerStorage.KIND_INTERVAL, stateStartedMs, msInState, true, idleTask, idleFile);
 				} else if (msInState > 1000) {
 					final Project project = project();
 					if (project != null) {
@@ -300,7 +738,7 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 							@Override
 							public void actionPerformed(@NotNull AnActionEvent e) {
 								if (primed) {
-									addTotalTimeMs(msInState);
+									addTotalTimeMs(TimeTrackerStorage.KIND_INTERVAL, stateStartedMs, msInState, true, idleTask, idleFile);
 									repaintWidget(false);
 									primed = false;
 									getTemplatePresentation().setText("Already counted in");
@@ -310,6 +748,14 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 							}
 						});
 
+						// Busy periods which overlap the idle time are kept until it is counted in, or until the notification expires
+						uncountedIdleStartsMs.add(stateStartedMs);
+						notification.whenExpired(() -> {
+							synchronized (TimeTrackerService.this) {
+								uncountedIdleStartsMs.remove((Long) stateStartedMs);
+								forgetWaits();
+							}
+						});
 						Notifications.Bus.notify(notification, project);
 					}
 				}
@@ -321,6 +767,12 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 		this.lastTickMs = now;
 		this.lastActivityMs = now;
 		this.status = status;
+		if (status == TimeTrackingStatus.IDLE) {
+			loadStores();
+			idleTask = tasks.activeName();
+			idleFile = activeFile;
+		}
+		forgetWaits();
 
 		if (status == TimeTrackingStatus.RUNNING) {
 			if (pauseOtherTrackerInstances) {
@@ -347,6 +799,620 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 		return (int) msToS(resultMs);
 	}
 
+	/** Count the time to the file from now on, called when the selected editor changes. */
+	private void fileSelected(@Nullable VirtualFile file) {
+		final int id = file instanceof VirtualFileWithId ? ((VirtualFileWithId) file).getId() : 0;
+		final String type = id > 0 ? file.getFileType().getName() : null;
+		final String module = id > 0 ? moduleName(file) : null;
+		synchronized (this) {
+			loadStores();
+			final long now = System.currentTimeMillis();
+			if (status == TimeTrackingStatus.RUNNING) {
+				countFileTime(now - Math.max(statusStartedMs, fileSinceMs), now);
+			}
+			fileSinceMs = now;
+			fileId = id;
+			fileTimes.activate(id);
+			fileRollups.activate(id, type, module, id > 0 ? file.getParent() : null);
+		}
+	}
+
+	/** Count the time to the tool window which contains the focused component from now on. Called on the event dispatch thread. */
+	void focusChanged(@NotNull Component focusOwner) {
+		final String toolWindow = toolWindowOf(focusOwner);
+		synchronized (this) {
+			loadStores();
+			final long now = System.currentTimeMillis();
+			if (status == TimeTrackingStatus.RUNNING) {
+				toolWindowTimes.add(now - Math.max(statusStartedMs, toolWindowSinceMs));
+			}
+			toolWindowSinceMs = now;
+			toolWindowTimes.activate(toolWindow);
+		}
+	}
+
+	/** @return id of the tool window of this project which contains the component, or {@link ToolWindowTimes#EDITOR}. Called on the event dispatch thread. */
+	@NotNull
+	String toolWindowOf(@NotNull Component component) {
+		String toolWindow = focusedToolWindows.get(component);
+		if (toolWindow == null) {
+			toolWindow = findToolWindow(component);
+			focusedToolWindows.put(component, toolWindow);
+		}
+		return toolWindow;
+	}
+
+	@NotNull
+	private String findToolWindow(@NotNull Component component) {
+		final ToolWindowManager toolWindowManager = ToolWindowManager.getInstance(project);
+		final IdentityHashMap<Component, String> toolWindowComponents = new IdentityHashMap<>();
+		for (String id : toolWindowManager.getToolWindowIds()) {
+			final ToolWindow toolWindow = toolWindowManager.getToolWindow(id);
+			if (toolWindow != null) {
+				toolWindowComponents.put(toolWindow.getComponent(), id);
+			}
+		}
+		for (Component parent = component; parent != null; parent = parent.getParent()) {
+			final String id = toolWindowComponents.get(parent);
+			if (id != null) {
+				return id;
+			}
+		}
+		return ToolWindowTimes.EDITOR;
+	}
+
+	private synchronized void waitStarted(@NotNull WaitTimes.Kind kind) {
+		waitTimes.started(kind, System.currentTimeMillis());
+	}
+
+	private synchronized void waitEnded(@NotNull WaitTimes.Kind kind) {
+		waitTimes.ended(kind, System.currentTimeMillis());
+	}
+
+	/** Forget the ended busy periods which can't overlap any time which is yet to be counted */
+	private synchronized void forgetWaits() {
+		final long now = System.currentTimeMillis();
+		long countableSinceMs = status == TimeTrackingStatus.STOPPED ? now : statusStartedMs;
+		uncountedIdleStartsMs.removeIf(startMs -> startMs < now - MAX_UNCOUNTED_IDLE_AGE_MS);
+		for (long startMs : uncountedIdleStartsMs) {
+			countableSinceMs = Math.min(countableSinceMs, startMs);
+		}
+		waitTimes.forgetBefore(countableSinceMs);
+	}
+
+	/** @return tracked time during which the IDE was busy, by local day from the most recent one, indexed by {@link WaitTimes.Kind} ordinal */
+	@NotNull
+	synchronized TreeMap<LocalDate, long[]> waitTimeReport() {
+		loadStores();
+		return waitTimes.report();
+	}
+
+	/** @return time of each tool window, sorted from the one with most time */
+	@NotNull
+	synchronized List<Map.Entry<String, Long>> toolWindowTimes() {
+		loadStores();
+		return toolWindowTimes.sorted();
+	}
+
+	private void countFileTime(long ms, long endMs) {
+		if (ms <= 0) {
+			return;
+		}
+		fileTimes.add(ms);
+		fileRollups.add(ms);
+		fileDays.add(fileId, endMs - ms);
+		fileDays.add(fileId, endMs);
+	}
+
+	@Nullable
+	private String moduleName(@NotNull VirtualFile file) {
+		final Module module = ModuleUtilCore.findModuleForFile(file, project);
+		return module == null ? null : module.getName();
+	}
+
+	/** Move the time of moved and renamed files to their new directories, modules and file types. */
+	private void filesMoved(@NotNull List<? extends VFileEvent> events) {
+		for (VFileEvent event : events) {
+			if (event instanceof VFileMoveEvent) {
+				final VFileMoveEvent move = (VFileMoveEvent) event;
+				final VirtualFile file = move.getFile();
+				final String oldModule = moduleName(move.getOldParent());
+				final String newModule = moduleName(move.getNewParent());
+				synchronized (this) {
+					loadStores();
+					final long fileMs = file instanceof VirtualFileWithId ? fileTimes.timeMs(((VirtualFileWithId) file).getId()) : 0L;
+					fileRollups.moved(file, move.getOldParent(), move.getNewParent(), oldModule, newModule, fileMs);
+				}
+			} else if (event instanceof VFilePropertyChangeEvent) {
+				final VFilePropertyChangeEvent change = (VFilePropertyChangeEvent) event;
+				final VirtualFile file = change.getFile();
+				if (!VirtualFile.PROP_NAME.equals(change.getPropertyName()) || file.isDirectory() || !(file instanceof VirtualFileWithId)) {
+					continue;
+				}
+				final FileTypeManager fileTypeManager = FileTypeManager.getInstance();
+				final String oldType = fileTypeManager.getFileTypeByFileName((String) change.getOldValue()).getName();
+				final String newType = fileTypeManager.getFileTypeByFileName((String) change.getNewValue()).getName();
+				final int id = ((VirtualFileWithId) file).getId();
+				synchronized (this) {
+					loadStores();
+					fileRollups.renamed(id, oldType, newType, fileTimes.timeMs(id));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find the files with the most time.
+	 * @return amount of found files, see {@link FileTimes#top(int[], long[])}
+	 */
+	synchronized int topFiles(int[] topIds, long[] topTimesMs) {
+		loadStores();
+		return fileTimes.top(topIds, topTimesMs);
+	}
+
+	/** @return local days in which the file was worked on, a few may be false positives */
+	@NotNull
+	synchronized List<LocalDate> fileDays(@NotNull VirtualFile file) {
+		loadStores();
+		return file instanceof VirtualFileWithId ? fileDays.days(((VirtualFileWithId) file).getId()) : Collections.emptyList();
+	}
+
+	/** Notify about the days in which the file was worked on. */
+	public void showFileDays(@NotNull VirtualFile file) {
+		final List<LocalDate> days = fileDays(file);
+		final String content;
+		if (days.isEmpty()) {
+			content = "No time was counted to this file";
+		} else {
+			final StringBuilder sb = new StringBuilder();
+			sb.append(days.size()).append(days.size() == 1 ? " day" : " days");
+			// The most recent days are the interesting ones
+			final int shown = Math.min(days.size(), 14);
+			for (int i = days.size() - shown; i < days.size(); i++) {
+				sb.append(i == days.size() - shown ? ": " : ", ").append(days.get(i));
+			}
+			if (shown < days.size()) {
+				sb.append(" and ").append(days.size() - shown).append(" earlier");
+			}
+			content = sb.toString();
+		}
+		Notifications.Bus.notify(NotificationGroupManager.getInstance().getNotificationGroup(NOTIFICATION_GROUP_ID).createNotification(
+				"Worked on " + file.getName(),
+				content,
+				NotificationType.INFORMATION), project);
+	}
+
+	/**
+	 * Find the directories with the most time in their subtree.
+	 * @return amount of found directories, see {@link FileTimes#top(int[], long[])}
+	 */
+	synchronized int topDirectories(int[] topIds, long[] topTimesMs) {
+		loadStores();
+		return fileRollups.topDirectories(topIds, topTimesMs);
+	}
+
+	/** @return time of each file type, sorted from the one with most time */
+	@NotNull
+	synchronized List<Map.Entry<String, Long>> fileTypeTimes() {
+		loadStores();
+		return fileRollups.types();
+	}
+
+	/** @return time of each module, sorted from the one with most time */
+	@NotNull
+	synchronized List<Map.Entry<String, Long>> moduleTimes() {
+		loadStores();
+		return fileRollups.modules();
+	}
+
+	/** Count the time to the changelist from now on, called when the default changelist changes. */
+	synchronized void changelistActivated(@NotNull String id, @NotNull String name) {
+		loadStores();
+		if (id.equals(changelist)) {
+			changelistTimes.renamed(id, name);
+			return;
+		}
+		// Time until now belongs to the previous changelist
+		saveTime();
+		changelist = id;
+		changelistTimes.activate(id, name);
+		final GitRepositories gitRepositories = this.gitRepositories;
+		final GitIntegration gitIntegrationComponent = this.gitIntegrationComponent;
+		if (gitRepositories != null) {
+			for (GitIntegration repository : gitRepositories.all()) {
+				repository.setChangelist(id);
+			}
+		} else if (gitIntegrationComponent != null) {
+			gitIntegrationComponent.setChangelist(id);
+		}
+		repaintWidget(false);
+	}
+
+	synchronized void changelistRenamed(@NotNull String id, @NotNull String name) {
+		loadStores();
+		changelistTimes.renamed(id, name);
+	}
+
+	synchronized void changelistRemoved(@NotNull String id) {
+		loadStores();
+		changelistTimes.remove(id);
+	}
+
+	/** @return name of the default changelist, null if it is not known */
+	@Nullable
+	public synchronized String getChangelistName() {
+		loadStores();
+		return changelistTimes.activeName();
+	}
+
+	/** @return time counted to the default changelist, including the time which is being counted now */
+	public synchronized int getChangelistTimeSeconds() {
+		loadStores();
+		long resultMs = changelistTimes.activeMs();
+		if (this.status == TimeTrackingStatus.RUNNING) {
+			resultMs += Math.max(0L, System.currentTimeMillis() - statusStartedMs);
+		}
+		return (int) msToS(resultMs);
+	}
+
+	/**
+	 * Count the time to the task from now on.
+	 * @param name of the task, created if it does not exist, null to count the time to no task
+	 */
+	public synchronized void switchTask(@Nullable String name) {
+		loadStores();
+		if (Objects.equals(name, tasks.activeName())) {
+			return;
+		}
+		// Time until now belongs to the previous task
+		saveTime();
+		tasks.activate(name);
+		repaintWidget(false);
+	}
+
+	synchronized void removeTask(@NotNull String name) {
+		loadStores();
+		tasks.remove(name);
+		repaintWidget(false);
+	}
+
+	/** @return name of the active task, null if no task is active */
+	@Nullable
+	public synchronized String getTaskName() {
+		loadStores();
+		return tasks.activeName();
+	}
+
+	/** @return time counted to the active task, including the time which is being counted now */
+	public synchronized int getTaskTimeSeconds() {
+		loadStores();
+		long resultMs = tasks.activeMs();
+		if (this.status == TimeTrackingStatus.RUNNING) {
+			resultMs += Math.max(0L, System.currentTimeMillis() - statusStartedMs);
+		}
+		return (int) msToS(resultMs);
+	}
+
+	/** @return time of each task, sorted from the one with most time */
+	@NotNull
+	synchronized List<Map.Entry<String, Long>> taskTimes() {
+		loadStores();
+		return tasks.sorted();
+	}
+
+	/** @return time of the task by local day, from the most recent day */
+	@NotNull
+	synchronized TreeMap<LocalDate, Long> taskDays(@NotNull String name) {
+		loadStores();
+		return tasks.days(name);
+	}
+
+	synchronized boolean taskCountsToGitTime(@NotNull String name) {
+		loadStores();
+		return tasks.countsToGit(name);
+	}
+
+	/** Set whether the time of the task is added to git time as well */
+	synchronized void setTaskCountsToGitTime(@NotNull String name, boolean countsToGitTime) {
+		loadStores();
+		if (name.equals(tasks.activeName())) {
+			// Time until now is counted with the previous setting
+			saveTime();
+		}
+		tasks.setCountsToGit(name, countsToGitTime);
+	}
+
+	/**
+	 * Compute the time of today and this week from the history, which also contains the time tracked before the project was opened,
+	 * and schedule their roll over.
+	 */
+	private synchronized void loadPeriodCounters() {
+		if (project() == null) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		periodCounters.rollOver(now);
+		final TimeTrackerStorage storage = this.storage;
+		if (storage != null) {
+			final long weekStartMs = periodCounters.startMs(TimePeriod.WEEK);
+			final long dayStartMs = periodCounters.startMs(TimePeriod.TODAY);
+			long dayMs = 0;
+			long weekMs = 0;
+			for (long[] interval : IntervalTree.load(storage.segments(), weekStartMs, now).overlapping(weekStartMs, now)) {
+				weekMs += interval[1] - interval[0];
+				dayMs += Math.max(0L, interval[1] - Math.max(interval[0], dayStartMs));
+			}
+			periodCounters.set(dayMs, weekMs);
+		}
+		schedulePeriodDeadline();
+		repaintWidget(false);
+	}
+
+	private void schedulePeriodDeadline() {
+		if (periodDeadline != null) {
+			periodDeadline.cancel(false);
+		}
+		// The scheduled time may be late after the computer sleeps, but the counters also check the deadline when they count
+		final long delayMs = Math.max(0L, periodCounters.deadlineMs() - System.currentTimeMillis()) + 1000L;
+		periodDeadline = EdtExecutorService.getScheduledExecutorInstance().schedule(() -> {
+			synchronized (this) {
+				periodCounters.rollOver(System.currentTimeMillis());
+				schedulePeriodDeadline();
+			}
+			repaintWidget(false);
+		}, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	/** @return time tracked in the period, including the time which is being counted now */
+	public synchronized int getTimeSeconds(@NotNull TimePeriod period) {
+		if (period == TimePeriod.TOTAL) {
+			return getTotalTimeSeconds();
+		}
+		final long now = System.currentTimeMillis();
+		periodCounters.rollOver(now);
+		long resultMs = periodCounters.timeMs(period);
+		if (this.status == TimeTrackingStatus.RUNNING) {
+			resultMs += Math.max(0L, now - Math.max(statusStartedMs, periodCounters.startMs(period)));
+		}
+		return (int) msToS(resultMs);
+	}
+
+	/** @return time which the widget shows */
+	public int getWidgetTimeSeconds() {
+		return getTimeSeconds(widgetPeriod);
+	}
+
+	@NotNull
+	public TimePeriod getWidgetPeriod() {
+		return widgetPeriod;
+	}
+
+	public synchronized void setWidgetPeriod(@NotNull TimePeriod widgetPeriod) {
+		this.widgetPeriod = widgetPeriod;
+		repaintWidget(false);
+	}
+
+	/** @return minutes with any user input in this project */
+	@NotNull
+	ActivityBitmaps activity() {
+		loadStores();
+		return activity;
+	}
+
+	/** @return amount, total ms and longest ms of the focus streaks of each local day, from the most recent day */
+	@NotNull
+	TreeMap<LocalDate, long[]> focusStreaks() {
+		loadStores();
+		return streaks.report(System.currentTimeMillis());
+	}
+
+	/** @return history of this project, split into segments, or null if the project has no history storage */
+	@Nullable
+	HistorySegments historySegments() {
+		final TimeTrackerStorage storage = this.storage;
+		return storage == null ? null : storage.segments();
+	}
+
+	/**
+	 * Check the stored history for consistency in background, rebuild the segment index if it differs and notify about the result.
+	 * Total time which differs from the history is only reported, the notification offers to use the time of the history instead.
+	 */
+	public void verifyHistory() {
+		final Project project = project();
+		if (project == null) {
+			return;
+		}
+		final TimeTrackerStorage storage = this.storage;
+		if (storage == null) {
+			Notifications.Bus.notify(NotificationGroupManager.getInstance().getNotificationGroup(NOTIFICATION_GROUP_ID).createNotification(
+					"No time history to verify",
+					"Project has no directory for IDE files",
+					NotificationType.INFORMATION), project);
+			return;
+		}
+
+		ProgressManager.getInstance().run(new Task.Backgroundable(project, "Verifying tracked time history", true) {
+			@Override
+			public void run(@NotNull ProgressIndicator indicator) {
+				indicator.setIndeterminate(true);
+				synchronized (TimeTrackerService.this) {
+					storage.flush(totalTimeMs);
+				}
+
+				final long startNs = System.nanoTime();
+				final HistoryVerifier.Summary summary;
+				try {
+					summary = HistoryVerifier.verify(storage, indicator);
+				} catch (IOException e) {
+					LOG.log(Level.WARNING, "Failed to verify history", e);
+					Notifications.Bus.notify(NotificationGroupManager.getInstance().getNotificationGroup(NOTIFICATION_GROUP_ID).createNotification(
+							"Failed to verify time history",
+							e.getMessage(),
+							NotificationType.WARNING), project);
+					return;
+				}
+
+				final HistorySegments segments = storage.segments();
+				final boolean indexRebuilt = segments.replaceIndexIfDifferent(summary.segments, summary.toRecord);
+
+				final long storedTotalMs;
+				final long replayedTotalMs;
+				synchronized (TimeTrackerService.this) {
+					storedTotalMs = totalTimeMs;
+					replayedTotalMs = storage.totalAfter(summary.totalAfter(0L), summary.toRecord);
+				}
+				final long tookMs = (System.nanoTime() - startNs) / 1_000_000L;
+
+				final StringBuilder report = new StringBuilder();
+				report.append("Verified ").append(summary.toRecord).append(" records in ").append(tookMs).append(" ms");
+				final boolean problems = summary.corrupted > 0 || summary.overlaps > 0 || indexRebuilt || storedTotalMs != replayedTotalMs;
+				if (summary.corrupted > 0) {
+					report.append("<br>Corrupted records (ignored): ").append(summary.corrupted);
+				}
+				if (summary.overlaps > 0) {
+					report.append("<br>Overlapping intervals: ").append(summary.overlaps)
+							.append(", counted twice: ").append(NOTIFICATION_TIME_FORMATTING.millisecondsToString(summary.overlapMs));
+				}
+				if (storedTotalMs != replayedTotalMs) {
+					report.append("<br>Total time is <b>").append(NOTIFICATION_TIME_FORMATTING.millisecondsToString(storedTotalMs))
+							.append("</b>, but the history adds up to <b>").append(NOTIFICATION_TIME_FORMATTING.millisecondsToString(replayedTotalMs)).append("</b>");
+					if (summary.corrupted > 0) {
+						report.append(", without the corrupted records");
+					}
+				}
+				if (indexRebuilt) {
+					report.append("<br>Rebuilt the segment index");
+				}
+				report.append("<br>Segment cache: ").append(segments.getCacheHits()).append(" hits, ")
+						.append(segments.getCacheMisses()).append(" misses");
+
+				final Notification notification = NotificationGroupManager.getInstance().getNotificationGroup(NOTIFICATION_GROUP_ID).createNotification(
+						problems ? "Time history has problems" : "Time history is consistent",
+						report.toString(),
+						problems ? NotificationType.WARNING : NotificationType.INFORMATION);
+				if (storedTotalMs != replayedTotalMs) {
+					// Not done automatically, the history may be missing the time of corrupted records, or of versions which did not record it
+					notification.addAction(new DumbAwareAction("Use the time of the history") {
+						@Override
+						public void actionPerformed(@NotNull AnActionEvent e) {
+							if (notification.isExpired()) {
+								return;
+							}
+							notification.expire();
+							synchronized (TimeTrackerService.this) {
+								// Time counted since the verification is kept
+								totalTimeMs = Math.max(0L, totalTimeMs + replayedTotalMs - storedTotalMs);
+								storage.flush(totalTimeMs);
+							}
+							repaintWidget(false);
+						}
+					});
+				}
+				Notifications.Bus.notify(notification, project);
+			}
+		});
+	}
+
+	/** Import the time of commits made before the history was recorded from their messages, in background, and notify about the result. */
+	public void importGitHistory() {
+		final Project project = project();
+		if (project == null) {
+			return;
+		}
+		final TimeTrackerStorage storage = this.storage;
+		final Path projectBase = convertToIOFile(getProjectBaseDir(project));
+		if (storage == null || projectBase == null) {
+			Notifications.Bus.notify(NotificationGroupManager.getInstance().getNotificationGroup(NOTIFICATION_GROUP_ID).createNotification(
+					"Can't import time from git",
+					storage == null ? "Project has no directory for IDE files" : "Project is not on a local filesystem",
+					NotificationType.INFORMATION), project);
+			return;
+		}
+
+		final ArrayList<Path> gitDirectories = new ArrayList<>();
+		final GitRepositories gitRepositories = this.gitRepositories;
+		final GitIntegration gitIntegrationComponent = this.gitIntegrationComponent;
+		if (gitRepositories != null) {
+			for (GitIntegration repository : gitRepositories.all()) {
+				gitDirectories.add(repository.gitDirectory());
+			}
+		} else if (gitIntegrationComponent != null) {
+			gitDirectories.add(gitIntegrationComponent.gitDirectory());
+		} else {
+			gitDirectories.add(projectBase.resolve(gitRepoPath));
+		}
+
+		// The time may have been written with the default pattern, before the pattern was changed
+		final ArrayList<TimePattern> patterns = new ArrayList<>();
+		patterns.add(getGitTimePattern());
+		if (!getGitTimePattern().source.equals(TimeTrackerPersistentState.DEFAULT_GIT_TIME_PATTERN)) {
+			patterns.add(TimePattern.parse(TimeTrackerPersistentState.DEFAULT_GIT_TIME_PATTERN));
+		}
+
+		ProgressManager.getInstance().run(new Task.Backgroundable(project, "Importing time from git history", true) {
+			@Override
+			public void run(@NotNull ProgressIndicator indicator) {
+				indicator.setIndeterminate(true);
+				synchronized (TimeTrackerService.this) {
+					storage.flush(totalTimeMs);
+				}
+
+				final long startNs = System.nanoTime();
+				final GitHistoryImport historyImport;
+				try {
+					historyImport = new GitHistoryImport(storage, patterns);
+				} catch (IOException e) {
+					LOG.log(Level.WARNING, "Failed to read history", e);
+					Notifications.Bus.notify(NotificationGroupManager.getInstance().getNotificationGroup(NOTIFICATION_GROUP_ID).createNotification(
+							"Failed to import time from git",
+							e.getMessage(),
+							NotificationType.WARNING), project);
+					return;
+				}
+				int failedRepositories = 0;
+				for (Path gitDirectory : gitDirectories) {
+					if (indicator.isCanceled()) {
+						break;
+					}
+					indicator.setText(gitDirectory.toString());
+					if (!historyImport.importRepository(gitDirectory, indicator)) {
+						failedRepositories++;
+					}
+				}
+				synchronized (TimeTrackerService.this) {
+					storage.flush(totalTimeMs);
+				}
+				if (historyImport.importedCommits > 0) {
+					// Imported commits may fall into the current day or week
+					loadPeriodCounters();
+				}
+				final long tookMs = (System.nanoTime() - startNs) / 1_000_000L;
+
+				final StringBuilder report = new StringBuilder();
+				report.append("Found time in ").append(historyImport.commits).append(" commits in ").append(tookMs).append(" ms");
+				if (historyImport.importedCommits > 0) {
+					report.append("<br>Imported: ").append(historyImport.importedCommits)
+							.append(", <b>").append(NOTIFICATION_TIME_FORMATTING.millisecondsToString(historyImport.importedMs)).append("</b>");
+				}
+				if (historyImport.alreadyImportedCommits > 0) {
+					report.append("<br>Imported before: ").append(historyImport.alreadyImportedCommits);
+				}
+				if (historyImport.trackedCommits > 0) {
+					report.append("<br>Already tracked: ").append(historyImport.trackedCommits);
+				}
+				if (failedRepositories > 0) {
+					report.append("<br>Repositories which could not be read: ").append(failedRepositories);
+				}
+				report.append("<br>The total time is not changed");
+
+				Notifications.Bus.notify(NotificationGroupManager.getInstance().getNotificationGroup(NOTIFICATION_GROUP_ID).createNotification(
+						historyImport.importedCommits == 1 ? "Imported time of 1 commit" : "Imported time of " + historyImport.importedCommits + " commits",
+						report.toString(),
+						failedRepositories > 0 ? NotificationType.WARNING : NotificationType.INFORMATION), project);
+			}
+		});
+	}
+
 	public boolean isAutoStart() {
 		return autoStart;
 	}
@@ -371,6 +1437,38 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 		this.autoCountIdleSeconds = autoCountIdleSeconds;
 	}
 
+	public boolean isAdaptiveIdle() {
+		return adaptiveIdle;
+	}
+
+	public synchronized void setAdaptiveIdle(boolean adaptiveIdle) {
+		this.adaptiveIdle = adaptiveIdle;
+	}
+
+	/** @return idle threshold in use, learned from the pauses of the user in the adaptive mode */
+	public long effectiveIdleThresholdMs() {
+		return adaptiveIdle ? InactivityService.getInstance().adaptiveIdleThresholdMs(idleThresholdMs) : idleThresholdMs;
+	}
+
+	/** @return how long idle time is counted in, learned from the pauses of the user in the adaptive mode */
+	public int effectiveAutoCountIdleSeconds() {
+		return adaptiveIdle ? InactivityService.getInstance().adaptiveAutoCountIdleSeconds(autoCountIdleSeconds) : autoCountIdleSeconds;
+	}
+
+	/** @return how long the kind of input keeps the user active, in percent of the idle threshold */
+	public int getInputIdlePercent(@NotNull InputKind kind) {
+		return inputIdlePercent[kind.ordinal()];
+	}
+
+	public synchronized void setInputIdlePercent(@NotNull InputKind kind, int percent) {
+		inputIdlePercent[kind.ordinal()] = Math.min(Math.max(percent, MIN_INPUT_IDLE_PERCENT), MAX_INPUT_IDLE_PERCENT);
+	}
+
+	/** @return amount of inputs of the kind in this project */
+	public long getInputCount(@NotNull InputKind kind) {
+		return inputCounters.count(kind);
+	}
+
 	public boolean isStopWhenIdleRatherThanPausing() {
 		return stopWhenIdleRatherThanPausing;
 	}
@@ -408,14 +1506,20 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 			final Path gitDir = projectBase.resolve(gitRepoPath);
 			final Path gitHooksDir = projectBase.resolve(gitHooksPath);
 			gitIntegrationComponent = this.gitIntegrationComponent = new GitIntegration(gitDir, gitHooksDir);
+			gitIntegrationComponent.setTimeInNotes(gitTimeInNotes);
+			gitIntegrationComponent.setChangelist(changelist);
 		}
 
 		final GitIntegration.SetupCommitHookResult result = gitIntegrationComponent.setupCommitHook(enable);
 		switch (result) {
 			case SUCCESS: {
 				if (enable) {
+					gitIntegrationComponent.watchVersionTimeFile();
 					updateGitTime(0);
+					discoverGitRepositories(projectBase, gitIntegrationComponent);
 				} else {
+					gitIntegrationComponent.stopWatchingVersionTimeFile();
+					dropGitRepositories(true);
 					nagAboutGitIntegrationIfNeeded();
 				}
 				return this.gitIntegration = enable;
@@ -489,6 +1593,12 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 									chosenPath = chosenPath.toAbsolutePath();
 								}
 
+								final GitIntegration oldGitIntegrationComponent = TimeTrackerService.this.gitIntegrationComponent;
+								if (oldGitIntegrationComponent != null) {
+									oldGitIntegrationComponent.flushVersionTimeFile();
+									oldGitIntegrationComponent.stopWatchingVersionTimeFile();
+								}
+								dropGitRepositories(false);
 								TimeTrackerService.this.gitIntegrationComponent = null;
 
 								String chosenPathString = chosenPath.toString();
@@ -522,6 +1632,24 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 		}
 	}
 
+	public boolean isGitTimeInNotes() {
+		return gitTimeInNotes;
+	}
+
+	/** Record git time in git notes instead of in commit messages. */
+	public synchronized void setGitTimeInNotes(boolean gitTimeInNotes) {
+		this.gitTimeInNotes = gitTimeInNotes;
+		final GitRepositories gitRepositories = this.gitRepositories;
+		final GitIntegration gitIntegrationComponent = this.gitIntegrationComponent;
+		if (gitRepositories != null) {
+			for (GitIntegration repository : gitRepositories.all()) {
+				repository.setTimeInNotes(gitTimeInNotes);
+			}
+		} else if (gitIntegrationComponent != null) {
+			gitIntegrationComponent.setTimeInNotes(gitTimeInNotes);
+		}
+	}
+
 	public boolean isPauseOtherTrackerInstances() {
 		return pauseOtherTrackerInstances;
 	}
@@ -604,14 +1732,119 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 		updateGitTime(0);
 	}
 
+	/**
+	 * Search the project for other repositories in background, install hooks into them and start tracking their time.
+	 * @param primary the repository configured by the user
+	 */
+	private void discoverGitRepositories(@NotNull Path projectBase, @NotNull GitIntegration primary) {
+		ApplicationManager.getApplication().executeOnPooledThread(() -> {
+			final long startNs = System.nanoTime();
+			final GitRepositories repositories = GitRepositories.discover(projectBase, primary);
+			synchronized (this) {
+				if (!gitIntegration || gitIntegrationComponent != primary) {
+					// Changed in the meantime
+					return;
+				}
+				for (GitIntegration repository : repositories.all()) {
+					if (repository == primary) {
+						continue;
+					}
+					repository.setTimeInNotes(gitTimeInNotes);
+					repository.setChangelist(changelist);
+					final GitIntegration.SetupCommitHookResult result = repository.setupCommitHook(true);
+					if (result != GitIntegration.SetupCommitHookResult.SUCCESS) {
+						LOG.log(Level.WARNING, "Failed to set up commit hook in " + repository.gitDirectory() + ": " + result);
+					}
+					repository.watchVersionTimeFile();
+				}
+				this.gitRepositories = repositories;
+			}
+			LOG.log(Level.INFO, "Found " + repositories.all().size() + " git repositories in " + (System.nanoTime() - startNs) / 1_000_000L + " ms");
+		});
+	}
+
+	/** Stop tracking time of repositories other than {@link #gitIntegrationComponent}. */
+	private void dropGitRepositories(boolean removeHooks) {
+		final GitRepositories repositories = this.gitRepositories;
+		this.gitRepositories = null;
+		if (repositories == null) {
+			return;
+		}
+		for (GitIntegration repository : repositories.all()) {
+			if (repository == gitIntegrationComponent) {
+				continue;
+			}
+			repository.flushVersionTimeFile();
+			repository.stopWatchingVersionTimeFile();
+			if (removeHooks) {
+				repository.setupCommitHook(false);
+			}
+		}
+	}
+
+	/** Find the time counted for a commit or a range of commits ({@code from..to}) in background and notify about it. */
+	public void showCommitTime(@NotNull String commits) {
+		final Project project = project();
+		final GitIntegration gitIntegrationComponent = this.gitIntegrationComponent;
+		if (project == null || gitIntegrationComponent == null) {
+			return;
+		}
+		final GitRepositories gitRepositories = this.gitRepositories;
+		final List<GitIntegration> repositories = gitRepositories == null ? Collections.singletonList(gitIntegrationComponent) : gitRepositories.all();
+
+		ApplicationManager.getApplication().executeOnPooledThread(() -> {
+			final int rangeSeparator = commits.indexOf("..");
+			long seconds = -1;
+			for (GitIntegration repository : repositories) {
+				final CommitLedger ledger = repository.commitLedger();
+				seconds = rangeSeparator < 0
+						? ledger.secondsOf(commits)
+						: ledger.rangeSeconds(commits.substring(0, rangeSeparator), commits.substring(rangeSeparator + 2));
+				if (seconds >= 0) {
+					break;
+				}
+			}
+
+			Notifications.Bus.notify(NotificationGroupManager.getInstance().getNotificationGroup(NOTIFICATION_GROUP_ID).createNotification(
+					seconds < 0 ? "Time of " + commits + " is not known" : commits + " took " + NOTIFICATION_TIME_FORMATTING.secondsToString((int) seconds),
+					seconds < 0 ? "Only commits made with git integration enabled are known" : "",
+					NotificationType.INFORMATION), project);
+		});
+	}
+
+	/** Add the seconds to the repository of the active file, reset or refresh is done in all repositories. */
 	private void updateGitTime(long seconds) {
+		updateGitTime(seconds, activeFile);
+	}
+
+	/** @param file whose repository gets the seconds */
+	private void updateGitTime(long seconds, @Nullable Path file) {
 		final GitIntegration gitIntegrationComponent = this.gitIntegrationComponent;
 		final TimePattern gitTimePattern = this.gitTimePattern;
-		if (gitIntegration && gitIntegrationComponent != null && gitTimePattern != null) {
+		if (!gitIntegration || gitIntegrationComponent == null || gitTimePattern == null) {
+			return;
+		}
+
+		final GitRepositories gitRepositories = this.gitRepositories;
+		if (gitRepositories == null) {
 			gitIntegrationComponent.updateVersionTimeFile(seconds, gitTimePattern);
+		} else if (seconds == RESET_TIME_TO_ZERO || seconds == 0) {
+			for (GitIntegration repository : gitRepositories.all()) {
+				repository.updateVersionTimeFile(seconds, gitTimePattern);
+			}
+		} else {
+			final GitIntegration repository = repositoryOf(file);
+			(repository == null ? gitIntegrationComponent : repository).updateVersionTimeFile(seconds, gitTimePattern);
 		}
 	}
 
+	/** @return discovered repository which contains the file, null when there is none or the repositories are not discovered yet */
+	@Nullable
+	private GitIntegration repositoryOf(@Nullable Path file) {
+		final GitRepositories gitRepositories = this.gitRepositories;
+		return gitRepositories == null || file == null ? null : gitRepositories.forFile(file);
+	}
+
 	@Nullable
 	private Project project() {
 		final Project project = this.project;
@@ -650,17 +1883,50 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 		if (DEBUG_LIFECYCLE) LOG.log(Level.INFO, "loadState() "+this);
 		ApplicationManager.getApplication().invokeLater(() -> {
 			synchronized (this) {
-				this.totalTimeMs = state.totalTimeSeconds * 1000L;
+				// Decides whether the counters of the workspace file are still to be merged
+				loadStores();
+				final TimeTrackerStorage storage = this.storage;
+				if (storage == null) {
+					this.totalTimeMs = state.totalTimeSeconds * 1000L;
+				} else if (state.totalTimeSeconds > 0 && storage.isEmpty()) {
+					// Older versions stored the time in the workspace file
+					final long migratedMs = state.totalTimeSeconds * 1000L;
+					storage.append(TimeTrackerStorage.KIND_MIGRATED, System.currentTimeMillis(), migratedMs);
+					this.totalTimeMs = TimeTrackerStorage.applyRecord(this.totalTimeMs, TimeTrackerStorage.KIND_MIGRATED, migratedMs);
+					storage.flush(this.totalTimeMs);
+				}
 				setAutoStart(state.autoStart);
 				setIdleThresholdMs(state.idleThresholdMs);
 				setAutoCountIdleSeconds(state.autoCountIdleSeconds);
+				setAdaptiveIdle(state.adaptiveIdle);
+				for (InputKind kind : InputKind.VALUES) {
+					final Integer percent = state.inputIdlePercent.get(kind.name());
+					setInputIdlePercent(kind, percent == null ? 100 : percent);
+				}
+				if (inputCountsInWorkspace) {
+					// Merged, not replaced, the inputs counted since the project opened are kept
+					inputCounters.merge(state.inputCounts);
+					inputCountsInWorkspace = false;
+				}
 				setStopWhenIdleRatherThanPausing(state.stopWhenIdleRatherThanPausing);
 				setPauseOtherTrackerInstances(state.pauseOtherTrackerInstances);
 				setNaggedAbout(state.naggedAbout);
+				if (changelistTimesInWorkspace) {
+					// Merged, not replaced, the time counted since the project opened is kept
+					changelistTimes.merge(state.changelistTimeMs);
+					changelistTimesInWorkspace = false;
+				}
+				if (toolWindowTimesInWorkspace) {
+					// Merged, not replaced, the time counted since the project opened is kept
+					toolWindowTimes.merge(state.toolWindowTimeMs);
+					toolWindowTimesInWorkspace = false;
+				}
 				setIdeTimePattern(TimePattern.parse(state.ideTimePattern));
+				setWidgetPeriod(state.widgetPeriod == null ? TimePeriod.TOTAL : state.widgetPeriod);
 
 				gitIntegration = false;//Otherwise setGitTimePattern triggers update
 				setGitTimePattern(TimePattern.parse(state.gitTimePattern));
+				setGitTimeInNotes(state.gitTimeInNotes);
 				this.gitRepoPath = state.gitRepoPath;
 				this.gitHooksPath = state.gitHooksPath;
 				setGitIntegration(state.gitIntegration);
@@ -674,28 +1940,62 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 	public synchronized TimeTrackerPersistentState getState() {
 		if (DEBUG_LIFECYCLE) LOG.log(Level.INFO, "getState() "+this);
 		final TimeTrackerPersistentState result = new TimeTrackerPersistentState();
-		result.totalTimeSeconds = msToS(totalTimeMs);
+		final TimeTrackerStorage storage = this.storage;
+		if (storage == null) {
+			result.totalTimeSeconds = msToS(totalTimeMs);
+		} else {
+			// State is requested when the IDE saves, so this is a good time to save the history as well
+			storage.flush(totalTimeMs);
+			saveStores(storage);
+		}
 
 		result.autoStart = autoStart;
 		result.idleThresholdMs = idleThresholdMs;
 		result.autoCountIdleSeconds = autoCountIdleSeconds;
+		result.adaptiveIdle = adaptiveIdle;
+		if (storage == null) {
+			result.toolWindowTimeMs = toolWindowTimes.toMap();
+		}
+		for (InputKind kind : InputKind.VALUES) {
+			result.inputIdlePercent.put(kind.name(), inputIdlePercent[kind.ordinal()]);
+		}
+		if (storage == null) {
+			result.inputCounts = inputCounters.toMap();
+		}
 		result.stopWhenIdleRatherThanPausing = stopWhenIdleRatherThanPausing;
 		result.gitIntegration = gitIntegration;
+		result.gitTimeInNotes = gitTimeInNotes;
 		result.gitRepoPath = gitRepoPath;
 		result.gitHooksPath = gitHooksPath;
 		result.pauseOtherTrackerInstances = pauseOtherTrackerInstances;
 
 		result.naggedAbout = naggedAbout;
+		if (storage == null) {
+			result.changelistTimeMs = changelistTimes.toMap();
+		}
 
+		result.widgetPeriod = widgetPeriod;
 		result.ideTimePattern = ideTimePattern != null ? ideTimePattern.source : TimeTrackerPersistentState.DEFAULT_IDE_TIME_PATTERN;
 		result.gitTimePattern = gitTimePattern != null ? gitTimePattern.source : TimeTrackerPersistentState.DEFAULT_GIT_TIME_PATTERN;
 		return result;
 	}
 
-	/** User did something, this resets the idle timer and restarts counting, if applicable. */
-	public void notifyUserNotIdle() {
+	/**
+	 * User did something, this resets the idle timer and restarts counting, if applicable.
+	 * @param counted whether the input should be counted, false for the events which are a part of an already counted input
+	 */
+	public void notifyUserNotIdle(@NotNull InputKind kind, boolean counted) {
 		final long now = System.currentTimeMillis();
-		this.lastActivityMs = now;
+		if (counted) {
+			inputCounters.increment(kind);
+		}
+		final int idlePercent = inputIdlePercent[kind.ordinal()];
+		// Input which keeps the user active for a shorter time acts as if it happened earlier
+		final long activityMs = idlePercent == 100 ? now : now - effectiveIdleThresholdMs() * (100 - idlePercent) / 100;
+		if (activityMs > this.lastActivityMs) {
+			this.lastActivityMs = activityMs;
+		}
+		activity.mark(now);
 		if (status == TimeTrackingStatus.IDLE) {
 			synchronized (this) {
 				if (status == TimeTrackingStatus.IDLE) {
@@ -703,6 +2003,9 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 				}
 			}
 		}
+		if (status == TimeTrackingStatus.RUNNING) {
+			streaks.input(now);
+		}
 	}
 
 	@Override
@@ -710,7 +2013,30 @@ public final class TimeTrackerService implements PersistentStateComponent<TimeTr
 		if (DEBUG_LIFECYCLE) LOG.log(Level.INFO, "disposeComponent() "+this);
 		ALL_OPENED_TRACKERS.remove(this);
 
-		setStatus(TimeTrackingStatus.STOPPED);
+		synchronized (this) {
+			setStatus(TimeTrackingStatus.STOPPED);
+			if (periodDeadline != null) {
+				periodDeadline.cancel(false);
+				periodDeadline = null;
+			}
+
+			final TimeTrackerStorage storage = this.storage;
+			if (storage != null) {
+				storage.flush(totalTimeMs);
+				storage.close();
+				// Usually loaded long ago, otherwise what was counted since the project opened would be lost
+				loadStores();
+				saveStores(storage);
+			}
+
+			final GitIntegration gitIntegrationComponent = this.gitIntegrationComponent;
+			if (gitIntegrationComponent != null) {
+				gitIntegrationComponent.flushVersionTimeFile();
+				gitIntegrationComponent.stopWatchingVersionTimeFile();
+			}
+			dropGitRepositories(false);
+		}
+		storeWriter.flush();
 	}
 
 	@Override
@@ -0,0 +1,441 @@
+package com.darkyen;
+
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Binary storage of tracked time, in its own directory next to the project files of the IDE
+ * (typically {@code .idea/darkyenus-time-tracker/}), so that it does not bloat the workspace XML.
+ * <p>
+ * Small header with the snapshot of the total time is read eagerly when the project is opened,
+ * the history records are read only when something asks for them, through {@link #segments()}.
+ * New records are buffered and written out on {@link #flush(long)}.
+ */
+final class TimeTrackerStorage {
+
+	private static final Logger LOG = Logger.getLogger(TimeTrackerStorage.class.getName());
+
+	static final String STORAGE_DIRECTORY_NAME = "darkyenus-time-tracker";
+	private static final String HISTORY_FILE_NAME = "history.bin";
+
+	/*
+	History file format (all numbers are big endian):
+	Header (HEADER_SIZE bytes):
+	 0. int magic 'DTTH'
+	 4. int format version
+	 8. long total time in ms, valid after applying first N records
+	 16. long N - amount of records that the total already includes
+	 24. reserved, zero
+	 60. int CRC32 of bytes 0-60
+	Followed by any amount of records (RECORD_SIZE bytes each):
+	 0. int time in seconds since epoch, unsigned, when the recorded event started
+	 4. long value in ms, meaning depends on kind
+	 12. byte kind, one of KIND_ constants
+	 13. byte tag, zero
+	 14. short lower 16 bits of CRC32 of bytes 0-14
+	 */
+
+	private static final int MAGIC = 0x44545448;
+	private static final int VERSION = 1;
+	static final int HEADER_SIZE = 64;
+	static final int RECORD_SIZE = 16;
+
+	/** Time counted by the tracker, value is the duration. */
+	static final byte KIND_INTERVAL = 1;
+	/** Manual adjustment of the total time, value is the (possibly negative) difference. */
+	static final byte KIND_ADJUSTMENT = 2;
+	/** Total time was reset to zero, value is the total time before the reset. */
+	static final byte KIND_RESET = 3;
+	/** Total time migrated from the workspace file of older versions, value is that time. */
+	static final byte KIND_MIGRATED = 4;
+	/**
+	 * Range of time was retroactively marked as worked, value is the length of the range.
+	 * Does not change the total by itself, the resulting change is recorded as a following {@link #KIND_ADJUSTMENT}.
+	 */
+	static final byte KIND_CORRECTION_ADD = 5;
+	/** Like {@link #KIND_CORRECTION_ADD}, but the range was marked as not worked. */
+	static final byte KIND_CORRECTION_REMOVE = 6;
+	/**
+	 * Time of a commit, imported from its message, value is the duration and time is the commit time minus the duration.
+	 * Does not change the total, because the time was already counted when it was worked,
+	 * but it is read as a tracked interval everywhere else, for example in the day and week periods.
+	 */
+	static final byte KIND_IMPORTED = 7;
+
+	@NotNull
+	private final Path directory;
+	@NotNull
+	private final FileChannel channel;
+
+	private long snapshotTotalTimeMs;
+	private long snapshotRecords;
+	/** Total time after applying all written records */
+	private final long loadedTotalTimeMs;
+	/** Amount of records in the file */
+	private long writtenRecords;
+
+	@NotNull
+	private ByteBuffer pending = ByteBuffer.allocate(RECORD_SIZE * 32);
+	private final CRC32 crc = new CRC32();
+
+	@Nullable
+	private HistorySegments segments = null;
+
+	private TimeTrackerStorage(@NotNull Path directory, @NotNull FileChannel channel) throws IOException {
+		this.directory = directory;
+		this.channel = channel;
+
+		final long size = channel.size();
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		if (size < HEADER_SIZE) {
+			snapshotTotalTimeMs = 0;
+			snapshotRecords = 0;
+			writtenRecords = 0;
+			channel.truncate(0);
+			writeHeader();
+		} else {
+			readFully(header, 0);
+			header.flip();
+			final int magic = header.getInt(0);
+			final int version = header.getInt(4);
+			if (magic != MAGIC) {
+				throw new IOException("Not a time tracker history file");
+			}
+			if (version > VERSION) {
+				throw new IOException("History file version " + version + " is not supported, update the plugin");
+			}
+
+			writtenRecords = (size - HEADER_SIZE) / RECORD_SIZE;
+			if (HEADER_SIZE + writtenRecords * RECORD_SIZE != size) {
+				LOG.log(Level.WARNING, "History file has incomplete record, dropping it");
+				channel.truncate(HEADER_SIZE + writtenRecords * RECORD_SIZE);
+			}
+
+			snapshotTotalTimeMs = header.getLong(8);
+			snapshotRecords = header.getLong(16);
+			if (header.getInt(60) != checksum(header.array(), 0, 60) || snapshotRecords < 0 || snapshotRecords > writtenRecords) {
+				LOG.log(Level.WARNING, "History file header is corrupted, recomputing total time from records");
+				snapshotTotalTimeMs = 0;
+				snapshotRecords = 0;
+			}
+		}
+
+		// Records written after the last header update (only after a crash)
+		final long[] total = { snapshotTotalTimeMs };
+		readRecords(snapshotRecords, writtenRecords, (index, timeMs, valueMs, kind, tag) -> total[0] = applyRecord(total[0], kind, valueMs));
+		loadedTotalTimeMs = total[0];
+	}
+
+	/**
+	 * Open the storage of given project.
+	 * @return null if the project does not have a directory for IDE files or if the storage can't be opened
+	 */
+	@Nullable
+	static TimeTrackerStorage open(@NotNull Project project) {
+		final String projectFilePath = project.getProjectFilePath();
+		if (projectFilePath == null) {
+			return null;
+		}
+		final Path ideDirectory = Paths.get(projectFilePath).getParent();
+		if (ideDirectory == null) {
+			return null;
+		}
+
+		final Path directory = ideDirectory.resolve(STORAGE_DIRECTORY_NAME);
+		try {
+			Files.createDirectories(directory);
+			final Path gitIgnore = directory.resolve(".gitignore");
+			if (!Files.exists(gitIgnore)) {
+				// This is personal data, just like workspace.xml
+				Files.write(gitIgnore, "*\n".getBytes(StandardCharsets.UTF_8));
+			}
+
+			final FileChannel channel = FileChannel.open(directory.resolve(HISTORY_FILE_NAME), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+			try {
+				return new TimeTrackerStorage(directory, channel);
+			} catch (Throwable e) {
+				channel.close();
+				throw e;
+			}
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to open time tracker storage at " + directory, e);
+			return null;
+		}
+	}
+
+	/** @return directory of the storage, where other data of the tracker can be stored as well */
+	@NotNull
+	Path directory() {
+		return directory;
+	}
+
+	/** @return total time, as was stored when the storage was opened */
+	long getLoadedTotalTimeMs() {
+		return loadedTotalTimeMs;
+	}
+
+	/** @return true if no time was ever recorded */
+	synchronized boolean isEmpty() {
+		return writtenRecords == 0 && pending.position() == 0 && snapshotTotalTimeMs == 0;
+	}
+
+	/** @return true if records of given kind add their value to the total time */
+	static boolean addsToTotal(byte kind) {
+		switch (kind) {
+			case KIND_INTERVAL:
+			case KIND_ADJUSTMENT:
+			case KIND_MIGRATED:
+				return true;
+			default:
+				// Unknown kind, possibly from a newer version
+				return false;
+		}
+	}
+
+	/** @return true if records of given kind cover the range which starts at their time and is as long as their value */
+	static boolean isRange(byte kind) {
+		switch (kind) {
+			case KIND_INTERVAL:
+			case KIND_CORRECTION_ADD:
+			case KIND_CORRECTION_REMOVE:
+			case KIND_IMPORTED:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/** Apply the record to the total time, same way the {@link TimeTrackerService} does it. */
+	static long applyRecord(long totalTimeMs, byte kind, long valueMs) {
+		if (kind == KIND_RESET) {
+			return 0L;
+		} else if (addsToTotal(kind)) {
+			return Math.max(0L, totalTimeMs + valueMs);
+		} else {
+			return totalTimeMs;
+		}
+	}
+
+	/** @return total time after applying all records from given index to given total */
+	synchronized long totalAfter(long totalTimeMs, long fromRecord) {
+		final long[] total = { totalTimeMs };
+		readRecords(fromRecord, recordCount(), (index, timeMs, valueMs, kind, tag) -> total[0] = applyRecord(total[0], kind, valueMs));
+		return total[0];
+	}
+
+	/** Append a new record, it will be written on next {@link #flush(long)}. */
+	synchronized void append(byte kind, long timeMs, long valueMs) {
+		final long index = recordCount();
+		ByteBuffer pending = this.pending;
+		if (pending.remaining() < RECORD_SIZE) {
+			final ByteBuffer grown = ByteBuffer.allocate(pending.capacity() * 2);
+			pending.flip();
+			grown.put(pending);
+			this.pending = pending = grown;
+		}
+
+		final int start = pending.position();
+		pending.putInt((int) (timeMs / 1000L));
+		pending.putLong(valueMs);
+		pending.put(kind);
+		pending.put((byte) 0);
+		pending.putShort((short) checksum(pending.array(), start, RECORD_SIZE - 2));
+
+		final HistorySegments segments = this.segments;
+		if (segments != null) {
+			segments.recordAppended(index, timeMs / 1000L * 1000L, valueMs, kind);
+		}
+	}
+
+	/** @return amount of all records, including those not yet written */
+	synchronized long recordCount() {
+		return writtenRecords + pending.position() / RECORD_SIZE;
+	}
+
+	/**
+	 * Write all pending records and update the header.
+	 * @param totalTimeMs current total time, which must be the result of applying all records
+	 */
+	synchronized void flush(long totalTimeMs) {
+		if (!channel.isOpen()) {
+			return;
+		}
+		try {
+			final ByteBuffer pending = this.pending;
+			final long pendingRecords = pending.position() / RECORD_SIZE;
+			if (pendingRecords > 0) {
+				pending.flip();
+				long position = HEADER_SIZE + writtenRecords * RECORD_SIZE;
+				while (pending.hasRemaining()) {
+					position += channel.write(pending, position);
+				}
+				pending.clear();
+				writtenRecords += pendingRecords;
+			} else if (snapshotRecords == writtenRecords && snapshotTotalTimeMs == totalTimeMs) {
+				return;
+			}
+
+			snapshotTotalTimeMs = totalTimeMs;
+			snapshotRecords = writtenRecords;
+			writeHeader();
+			channel.force(false);
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to write time tracker history", e);
+		}
+
+		final HistorySegments segments = this.segments;
+		if (segments != null) {
+			segments.saveIndex();
+		}
+	}
+
+	synchronized void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to close time tracker history", e);
+		}
+	}
+
+	/** Index of the history, loaded on first use. */
+	@NotNull
+	synchronized HistorySegments segments() {
+		HistorySegments segments = this.segments;
+		if (segments == null) {
+			this.segments = segments = new HistorySegments(this, directory);
+		}
+		return segments;
+	}
+
+	interface RecordVisitor {
+		void record(long index, long timeMs, long valueMs, byte kind, byte tag);
+	}
+
+	/**
+	 * Read records in given index range, including those not yet written.
+	 * Records with invalid checksum are skipped. Caller must hold the lock of this storage.
+	 */
+	void readRecords(long fromRecord, long toRecord, @NotNull RecordVisitor visitor) {
+		long record = fromRecord;
+		final long writtenTo = Math.min(toRecord, writtenRecords);
+		if (record < writtenTo) {
+			final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+			try {
+				while (record < writtenTo) {
+					buffer.clear();
+					buffer.limit((int) Math.min(buffer.capacity(), (writtenTo - record) * RECORD_SIZE));
+					readFully(buffer, HEADER_SIZE + record * RECORD_SIZE);
+					buffer.flip();
+					while (buffer.remaining() >= RECORD_SIZE) {
+						decodeRecord(buffer, record++, visitor);
+					}
+				}
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Failed to read time tracker history from record " + record, e);
+				record = writtenTo;
+			}
+		}
+
+		if (record < toRecord) {
+			final ByteBuffer pending = ByteBuffer.wrap(this.pending.array(), 0, this.pending.position());
+			pending.position((int) ((record - writtenRecords) * RECORD_SIZE));
+			while (record < toRecord && pending.remaining() >= RECORD_SIZE) {
+				decodeRecord(pending, record++, visitor);
+			}
+		}
+	}
+
+	/**
+	 * Read records that are already written, without locking, so that multiple threads can read at once.
+	 * @param toRecord must not be more than {@link #writtenRecordCount()} was at some point
+	 * @return amount of records skipped, because their checksum was invalid
+	 */
+	long readWrittenRecordsConcurrently(long fromRecord, long toRecord, @NotNull RecordVisitor visitor) throws IOException {
+		final CRC32 crc = new CRC32();
+		final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+		long corrupted = 0;
+		long record = fromRecord;
+		while (record < toRecord) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), (toRecord - record) * RECORD_SIZE));
+			readFully(buffer, HEADER_SIZE + record * RECORD_SIZE);
+			buffer.flip();
+			while (buffer.remaining() >= RECORD_SIZE) {
+				if (!decodeRecord(buffer, record++, crc, visitor)) {
+					corrupted++;
+				}
+			}
+		}
+		return corrupted;
+	}
+
+	synchronized long writtenRecordCount() {
+		return writtenRecords;
+	}
+
+	private void decodeRecord(@NotNull ByteBuffer buffer, long record, @NotNull RecordVisitor visitor) {
+		if (!decodeRecord(buffer, record, crc, visitor)) {
+			LOG.log(Level.WARNING, "History record " + record + " is corrupted, skipping");
+		}
+	}
+
+	private static boolean decodeRecord(@NotNull ByteBuffer buffer, long record, @NotNull CRC32 crc, @NotNull RecordVisitor visitor) {
+		final int start = buffer.position();
+		final long timeMs = Integer.toUnsignedLong(buffer.getInt()) * 1000L;
+		final long valueMs = buffer.getLong();
+		final byte kind = buffer.get();
+		final byte tag = buffer.get();
+		final short check = buffer.getShort();
+		if (check != (short) checksum(crc, buffer.array(), start, RECORD_SIZE - 2)) {
+			return false;
+		}
+		visitor.record(record, timeMs, valueMs, kind, tag);
+		return true;
+	}
+
+	private void readFully(@NotNull ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Unexpected end of history file");
+			}
+			position += read;
+		}
+	}
+
+	private void writeHeader() throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(0, MAGIC);
+		header.putInt(4, VERSION);
+		header.putLong(8, snapshotTotalTimeMs);
+		header.putLong(16, snapshotRecords);
+		header.putInt(60, checksum(header.array(), 0, 60));
+		long position = 0;
+		while (header.hasRemaining()) {
+			position += channel.write(header, position);
+		}
+	}
+
+	private int checksum(byte[] bytes, int offset, int length) {
+		return checksum(crc, bytes, offset, length);
+	}
+
+	private static int checksum(@NotNull CRC32 crc, byte[] bytes, int offset, int length) {
+		crc.reset();
+		crc.update(bytes, offset, length);
+		return (int) crc.getValue();
+	}
+}
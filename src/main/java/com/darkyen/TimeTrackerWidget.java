@@ -7,6 +7,7 @@ import com.intellij.openapi.ui.popup.JBPopup;
 import com.intellij.openapi.ui.popup.JBPopupFactory;
 import com.intellij.openapi.ui.popup.JBPopupListener;
 import com.intellij.openapi.ui.popup.LightweightWindowEvent;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.wm.CustomStatusBarWidget;
 import com.intellij.openapi.wm.StatusBar;
 import com.intellij.ui.JBColor;
@@ -74,6 +75,7 @@ public final class TimeTrackerWidget extends JButton implements CustomStatusBarW
         setBorder(JBUI.CurrentTheme.StatusBar.Widget.border());
         setOpaque(false);
         setFocusable(false);
+        ToolTipManager.sharedInstance().registerComponent(this);
 
         addMouseListener(new MouseAdapter() {
             @Override
@@ -190,7 +192,7 @@ public final class TimeTrackerWidget extends JButton implements CustomStatusBarW
 
     @Override
     public void paintComponent(final Graphics g) {
-        final int timeToShow = service.getTotalTimeSeconds();
+        final int timeToShow = service.getWidgetTimeSeconds();
         final String info = currentShowTimePattern().secondsToString(timeToShow);
 
         final Dimension size = getSize();
@@ -247,6 +249,29 @@ public final class TimeTrackerWidget extends JButton implements CustomStatusBarW
         }
     }
 
+    /** Time of the active task and of the default changelist, when they are known */
+    @Override
+    public String getToolTipText(MouseEvent event) {
+        final String taskName = service.getTaskName();
+        final String changelistName = service.getChangelistName();
+        if (taskName == null && changelistName == null) {
+            return null;
+        }
+        final StringBuilder sb = new StringBuilder("<html>");
+        if (taskName != null) {
+            sb.append("Task ").append(StringUtil.escapeXmlEntities(taskName)).append(": ")
+                    .append(currentShowTimePattern().secondsToString(service.getTaskTimeSeconds()));
+        }
+        if (changelistName != null) {
+            if (taskName != null) {
+                sb.append("<br>");
+            }
+            sb.append(StringUtil.escapeXmlEntities(changelistName)).append(": ")
+                    .append(currentShowTimePattern().secondsToString(service.getChangelistTimeSeconds()));
+        }
+        return sb.append("</html>").toString();
+    }
+
     @Override
     public JComponent getComponent() {
         return this;
@@ -0,0 +1,129 @@
+package com.darkyen;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Time counted for each tool window, by its id, and for the editors, by {@link #EDITOR}.
+ * The counter of the focused one is remembered, so counting time is a single addition. Not thread safe.
+ */
+final class ToolWindowTimes {
+
+	private static final Logger LOG = Logger.getLogger(ToolWindowTimes.class.getName());
+
+	static final String FILE_NAME = "toolwindows.bin";
+
+	/*
+	File format (all numbers are big endian):
+	 int magic 'DTTW'
+	 int format version
+	 int amount of tool windows
+	 For each tool window:
+	  UTF tool window id
+	  long ms
+	 */
+	private static final int MAGIC = 0x44545457;
+	private static final int VERSION = 1;
+
+	/** Name under which the time in editors (and anything else which is not in a tool window) is counted */
+	static final String EDITOR = "Editor";
+
+	private final HashMap<String, long[]> times = new HashMap<>();
+	@Nullable
+	private long[] active = null;
+
+	/** A tool window was used since the last snapshot */
+	private boolean dirty = false;
+
+	/** Count the time to the tool window from now on */
+	void activate(@NotNull String toolWindow) {
+		active = times.computeIfAbsent(toolWindow, t -> new long[1]);
+	}
+
+	void add(long ms) {
+		if (active != null && ms > 0) {
+			active[0] += ms;
+			dirty = true;
+		}
+	}
+
+	void clear() {
+		for (long[] time : times.values()) {
+			time[0] = 0;
+		}
+		dirty = true;
+	}
+
+	/** @return time of each tool window, sorted from the one with most time */
+	@NotNull
+	List<Map.Entry<String, Long>> sorted() {
+		final ArrayList<Map.Entry<String, Long>> result = new ArrayList<>(times.size());
+		for (Map.Entry<String, long[]> entry : times.entrySet()) {
+			if (entry.getValue()[0] > 0) {
+				result.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()[0]));
+			}
+		}
+		result.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+		return result;
+	}
+
+	@NotNull
+	Map<String, Long> toMap() {
+		final HashMap<String, Long> result = new HashMap<>();
+		for (Map.Entry<String, long[]> entry : times.entrySet()) {
+			if (entry.getValue()[0] > 0) {
+				result.put(entry.getKey(), entry.getValue()[0]);
+			}
+		}
+		return result;
+	}
+
+	/** Add the times to the counted times, used for times kept in the workspace file */
+	void merge(@NotNull Map<String, Long> loaded) {
+		for (Map.Entry<String, Long> entry : loaded.entrySet()) {
+			if (entry.getKey() != null && entry.getValue() != null && entry.getValue() > 0) {
+				times.computeIfAbsent(entry.getKey(), t -> new long[1])[0] += entry.getValue();
+				dirty = true;
+			}
+		}
+	}
+
+	/** @return the times to save to the directory, null if no tool window was used since the last snapshot */
+	@Nullable
+	byte[] snapshot() {
+		if (!dirty) {
+			return null;
+		}
+		dirty = false;
+		final Map<String, Long> saved = toMap();
+		return Util.dataFileBytes(MAGIC, VERSION, out -> {
+			out.writeInt(saved.size());
+			for (Map.Entry<String, Long> entry : saved.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue());
+			}
+		});
+	}
+
+	/**
+	 * Load what was saved to the directory.
+	 * @return whether the file existed, false if the times were never saved there
+	 */
+	boolean load(@NotNull Path directory) {
+		return Util.readDataFile(directory.resolve(FILE_NAME), MAGIC, VERSION, in -> {
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final String toolWindow = in.readUTF();
+				times.computeIfAbsent(toolWindow, t -> new long[1])[0] = in.readLong();
+			}
+		}, LOG, "tool window times");
+	}
+}
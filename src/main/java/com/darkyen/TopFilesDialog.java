@@ -0,0 +1,125 @@
+package com.darkyen;
+
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.ManagingFS;
+import com.intellij.ui.components.JBList;
+import com.intellij.ui.components.JBScrollPane;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dialog listing the files with the most tracked time, and the time by file type, module, directory and tool window.
+ * Double click opens the file.
+ */
+public final class TopFilesDialog extends DialogWrapper {
+
+	private static final int TOP_FILES = 50;
+
+	@NotNull
+	private final TimeTrackerService service;
+
+	private final DefaultListModel<String> filesModel = new DefaultListModel<>();
+	private final ArrayList<VirtualFile> files = new ArrayList<>();
+	private final DefaultListModel<String> typesModel = new DefaultListModel<>();
+	private final DefaultListModel<String> modulesModel = new DefaultListModel<>();
+	private final DefaultListModel<String> directoriesModel = new DefaultListModel<>();
+	private final DefaultListModel<String> toolWindowsModel = new DefaultListModel<>();
+
+	public TopFilesDialog(@NotNull TimeTrackerService service) {
+		super(service.project, false);
+		this.service = service;
+		setTitle("Tracked Time by File");
+		setOKButtonText("Close");
+		init();
+		refresh();
+	}
+
+	@Nullable
+	@Override
+	protected JComponent createCenterPanel() {
+		final JBList<String> filesList = new JBList<>(filesModel);
+		filesList.setEmptyText("No time was counted to any file yet");
+		filesList.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				final int index = filesList.getSelectedIndex();
+				if (e.getClickCount() == 2 && index >= 0 && index < files.size()) {
+					FileEditorManager.getInstance(service.project).openFile(files.get(index), true);
+				}
+			}
+		});
+		final JBScrollPane scroll = new JBScrollPane(filesList);
+		scroll.setPreferredSize(new Dimension(500, 300));
+
+		final JTabbedPane tabs = new JTabbedPane();
+		tabs.addTab("Files", scroll);
+		tabs.addTab("File types", listTab(typesModel));
+		tabs.addTab("Modules", listTab(modulesModel));
+		tabs.addTab("Directories", listTab(directoriesModel));
+		tabs.addTab("Tool windows", listTab(toolWindowsModel));
+		return tabs;
+	}
+
+	@NotNull
+	private static JComponent listTab(@NotNull DefaultListModel<String> model) {
+		final JBList<String> list = new JBList<>(model);
+		list.setEmptyText("No time was counted to any file yet");
+		return new JBScrollPane(list);
+	}
+
+	@NotNull
+	@Override
+	protected Action[] createActions() {
+		return new Action[]{getOKAction()};
+	}
+
+	private void refresh() {
+		final int[] ids = new int[TOP_FILES];
+		final long[] timesMs = new long[TOP_FILES];
+		final int found = service.topFiles(ids, timesMs);
+
+		final ManagingFS fs = ManagingFS.getInstance();
+		filesModel.clear();
+		files.clear();
+		for (int i = 0; i < found; i++) {
+			final VirtualFile file = fs.findFileById(ids[i]);
+			if (file == null || !file.isValid()) {
+				// Deleted since
+				continue;
+			}
+			files.add(file);
+			filesModel.addElement(TimeTrackerService.NOTIFICATION_TIME_FORMATTING.millisecondsToString(timesMs[i]) + "  " + file.getPresentableUrl());
+		}
+
+		fillNamed(typesModel, service.fileTypeTimes());
+		fillNamed(modulesModel, service.moduleTimes());
+		fillNamed(toolWindowsModel, service.toolWindowTimes());
+
+		// Time of directories includes their subdirectories
+		final int foundDirectories = service.topDirectories(ids, timesMs);
+		directoriesModel.clear();
+		for (int i = 0; i < foundDirectories; i++) {
+			final VirtualFile directory = fs.findFileById(ids[i]);
+			if (directory != null && directory.isValid()) {
+				directoriesModel.addElement(TimeTrackerService.NOTIFICATION_TIME_FORMATTING.millisecondsToString(timesMs[i]) + "  " + directory.getPresentableUrl());
+			}
+		}
+	}
+
+	private static void fillNamed(@NotNull DefaultListModel<String> model, @NotNull List<Map.Entry<String, Long>> times) {
+		model.clear();
+		for (Map.Entry<String, Long> entry : times) {
+			model.addElement(TimeTrackerService.NOTIFICATION_TIME_FORMATTING.millisecondsToString(entry.getValue()) + "  " + entry.getKey());
+		}
+	}
+}
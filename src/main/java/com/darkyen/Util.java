@@ -6,10 +6,22 @@ import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.PathUtil;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Utility methods.
@@ -48,4 +60,71 @@ public final class Util {
 		return Paths.get(path);
 	}
 
+	/** Writes the content of a data file, after its header */
+	interface DataWriter {
+		void write(@NotNull DataOutputStream out) throws IOException;
+	}
+
+	/** Reads the content of a data file, after its header */
+	interface DataReader {
+		void read(@NotNull DataInputStream in) throws IOException;
+	}
+
+	/*
+	Data files of the storage directory start with a header (all numbers are big endian):
+	 int magic, distinct for each file
+	 int format version
+	 */
+
+	/** @return bytes of a data file with the header and the content */
+	@NotNull
+	static byte[] dataFileBytes(int magic, int version, @NotNull DataWriter writer) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(magic);
+			out.writeInt(version);
+			writer.write(out);
+		} catch (IOException e) {
+			// Not thrown by the byte array
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Replace the file with the bytes, through a temporary file next to it, so that it is never left half written.
+	 * @param what is in the file, for the log
+	 * @return whether the file was written, failures are logged
+	 */
+	static boolean writeFileAtomically(@NotNull Path file, @NotNull byte[] bytes, @NotNull Logger log, @NotNull String what) {
+		final Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			Files.write(tempFile, bytes);
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Failed to save " + what, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Read a data file written with the magic and at most the version, files of other formats are ignored.
+	 * @param what is in the file, for the log
+	 * @return whether the file exists, even if it could not be read, failures are logged
+	 */
+	static boolean readDataFile(@NotNull Path file, int magic, int version, @NotNull DataReader reader, @NotNull Logger log, @NotNull String what) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != magic || in.readInt() > version) {
+				log.log(Level.WARNING, "Unknown format of " + what + ", ignoring it");
+				return true;
+			}
+			reader.read(in);
+		} catch (NoSuchFileException ignored) {
+			return false;
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Failed to load " + what, e);
+		}
+		return true;
+	}
 }
@@ -0,0 +1,60 @@
+package com.darkyen;
+
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.ui.components.JBList;
+import com.intellij.ui.components.JBScrollPane;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * Dialog with the tracked time of each day during which the IDE was indexing, building or running.
+ */
+public final class WaitTimeDialog extends DialogWrapper {
+
+	@NotNull
+	private final TimeTrackerService service;
+
+	public WaitTimeDialog(@NotNull TimeTrackerService service) {
+		super(service.project, false);
+		this.service = service;
+		setTitle("IDE Wait Time");
+		setOKButtonText("Close");
+		init();
+	}
+
+	@Nullable
+	@Override
+	protected JComponent createCenterPanel() {
+		final DefaultListModel<String> daysModel = new DefaultListModel<>();
+		for (Map.Entry<LocalDate, long[]> day : service.waitTimeReport().entrySet()) {
+			final long[] waitMs = day.getValue();
+			final StringBuilder sb = new StringBuilder();
+			sb.append(day.getKey());
+			for (WaitTimes.Kind kind : WaitTimes.Kind.VALUES) {
+				sb.append(kind == WaitTimes.Kind.VALUES[0] ? "  " : ", ").append(kind.label).append(' ')
+						.append(TimeTrackerService.NOTIFICATION_TIME_FORMATTING.millisecondsToString(waitMs[kind.ordinal()]));
+			}
+			daysModel.addElement(sb.toString());
+		}
+
+		final JPanel panel = new JPanel(new BorderLayout(0, 4));
+		final JBList<String> daysList = new JBList<>(daysModel);
+		daysList.setEmptyText("The IDE was not busy while the time was tracked");
+		final JBScrollPane scroll = new JBScrollPane(daysList);
+		scroll.setPreferredSize(new Dimension(500, 300));
+		panel.add(scroll, BorderLayout.CENTER);
+		panel.add(new JLabel("Tracked time during which the IDE was indexing, building, or running or debugging something"), BorderLayout.SOUTH);
+		return panel;
+	}
+
+	@NotNull
+	@Override
+	protected Action[] createActions() {
+		return new Action[]{getOKAction()};
+	}
+}
@@ -0,0 +1,178 @@
+package com.darkyen;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Tracked time during which the IDE was busy, for each local day and {@link Kind}.
+ * <p>
+ * Only the starts and ends of the busy periods are recorded, their overlap with the tracked time is counted
+ * when the tracked intervals are, so it costs nothing while the timer runs.
+ * Ended periods are kept until no time they overlap can be counted anymore, see {@link #forgetBefore(long)},
+ * because idle time can be counted in long after it ends.
+ * Not thread safe.
+ */
+final class WaitTimes {
+
+	private static final Logger LOG = Logger.getLogger(WaitTimes.class.getName());
+
+	static final String FILE_NAME = "waits.bin";
+
+	/*
+	File format (all numbers are big endian):
+	 int magic 'DTTP'
+	 int format version
+	 int amount of kinds
+	 int amount of days
+	 For each day, sorted:
+	  long local epoch day
+	  For each kind: long ms
+	 */
+	private static final int MAGIC = 0x44545450;
+	private static final int VERSION = 1;
+
+	enum Kind {
+		INDEXING("Indexing"),
+		BUILD("Building"),
+		RUN("Running");
+
+		static final Kind[] VALUES = values();
+
+		@NotNull
+		final String label;
+
+		Kind(@NotNull String label) {
+			this.label = label;
+		}
+	}
+
+	/** Amount of running busy periods of each kind, they may overlap */
+	private final int[] running = new int[Kind.VALUES.length];
+	/** When has the kind become busy */
+	private final long[] sinceMs = new long[Kind.VALUES.length];
+	/** Ended busy periods (kind ordinal, start, end), in the order in which they ended */
+	private final ArrayDeque<long[]> ended = new ArrayDeque<>();
+	/** Time of each kind, by local epoch day */
+	private final TreeMap<Long, long[]> days = new TreeMap<>();
+
+	/** Wait time was added since the last snapshot */
+	private boolean dirty = false;
+
+	void started(@NotNull Kind kind, long nowMs) {
+		if (running[kind.ordinal()]++ == 0) {
+			sinceMs[kind.ordinal()] = nowMs;
+		}
+	}
+
+	void ended(@NotNull Kind kind, long nowMs) {
+		final int index = kind.ordinal();
+		if (running[index] == 0) {
+			return;
+		}
+		if (--running[index] == 0) {
+			ended.addLast(new long[]{index, sinceMs[index], nowMs});
+		}
+	}
+
+	boolean isRunning(@NotNull Kind kind) {
+		return running[kind.ordinal()] > 0;
+	}
+
+	/** Count the overlap of the tracked interval with the busy periods which are running or which have ended */
+	void addInterval(long startMs, long endMs) {
+		for (Kind kind : Kind.VALUES) {
+			if (running[kind.ordinal()] > 0) {
+				add(kind, Math.max(startMs, sinceMs[kind.ordinal()]), endMs);
+			}
+		}
+		final Iterator<long[]> periods = ended.descendingIterator();
+		while (periods.hasNext()) {
+			final long[] period = periods.next();
+			if (period[2] <= startMs) {
+				// The rest ended even earlier
+				break;
+			}
+			add(Kind.VALUES[(int) period[0]], Math.max(startMs, period[1]), Math.min(endMs, period[2]));
+		}
+	}
+
+	/** Forget the ended busy periods which end before the time, because no time before it will be counted */
+	void forgetBefore(long timeMs) {
+		while (!ended.isEmpty() && ended.peekFirst()[2] <= timeMs) {
+			ended.removeFirst();
+		}
+	}
+
+	/** Split the time between the local days */
+	private void add(@NotNull Kind kind, long startMs, long endMs) {
+		if (endMs <= startMs) {
+			return;
+		}
+		final ZoneId zone = ZoneId.systemDefault();
+		LocalDate day = Instant.ofEpochMilli(startMs).atZone(zone).toLocalDate();
+		while (startMs < endMs) {
+			final LocalDate nextDay = day.plusDays(1);
+			final long dayEndMs = Math.min(endMs, nextDay.atStartOfDay(zone).toInstant().toEpochMilli());
+			days.computeIfAbsent(day.toEpochDay(), d -> new long[Kind.VALUES.length])[kind.ordinal()] += dayEndMs - startMs;
+			startMs = dayEndMs;
+			day = nextDay;
+		}
+		dirty = true;
+	}
+
+	/** @return time of each kind by local day, from the most recent day */
+	@NotNull
+	TreeMap<LocalDate, long[]> report() {
+		final TreeMap<LocalDate, long[]> result = new TreeMap<>((a, b) -> b.compareTo(a));
+		for (Map.Entry<Long, long[]> entry : days.entrySet()) {
+			result.put(LocalDate.ofEpochDay(entry.getKey()), entry.getValue().clone());
+		}
+		return result;
+	}
+
+	/** @return the wait time to save to the directory, null if none was added since the last snapshot */
+	@Nullable
+	byte[] snapshot() {
+		if (!dirty) {
+			return null;
+		}
+		dirty = false;
+		return Util.dataFileBytes(MAGIC, VERSION, out -> {
+			out.writeInt(Kind.VALUES.length);
+			out.writeInt(days.size());
+			for (Map.Entry<Long, long[]> entry : days.entrySet()) {
+				out.writeLong(entry.getKey());
+				for (long ms : entry.getValue()) {
+					out.writeLong(ms);
+				}
+			}
+		});
+	}
+
+	/** Load what was saved to the directory */
+	void load(@NotNull Path directory) {
+		Util.readDataFile(directory.resolve(FILE_NAME), MAGIC, VERSION, in -> {
+			final int kinds = in.readInt();
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final long[] dayMs = days.computeIfAbsent(in.readLong(), d -> new long[Kind.VALUES.length]);
+				for (int k = 0; k < kinds; k++) {
+					final long ms = in.readLong();
+					if (k < dayMs.length) {
+						dayMs[k] += ms;
+					}
+				}
+			}
+		}, LOG, "IDE wait time");
+	}
+}
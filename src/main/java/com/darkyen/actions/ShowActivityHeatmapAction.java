@@ -0,0 +1,37 @@
+package com.darkyen.actions;
+
+import com.darkyen.ActivityHeatmapDialog;
+import com.darkyen.TimeTrackerService;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.project.DumbAwareAction;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+
+/** Open dialog with the heatmap of activity in the last year. */
+public class ShowActivityHeatmapAction extends DumbAwareAction {
+
+	@Override
+	public void actionPerformed(@NotNull AnActionEvent e) {
+		final Project project = e.getProject();
+		if (project == null) {
+			return;
+		}
+
+		final TimeTrackerService service = project.getService(TimeTrackerService.class);
+		if (service == null) {
+			return;
+		}
+
+		new ActivityHeatmapDialog(service).show();
+	}
+
+	@Override
+	public void update(@NotNull AnActionEvent e) {
+		e.getPresentation().setEnabledAndVisible(e.getProject() != null);
+	}
+
+	@Override
+	public boolean isDumbAware() {
+		return true;
+	}
+}
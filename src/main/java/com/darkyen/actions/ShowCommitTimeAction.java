@@ -0,0 +1,47 @@
+package com.darkyen.actions;
+
+import com.darkyen.TimeTrackerService;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.project.DumbAwareAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import org.jetbrains.annotations.NotNull;
+
+/** Show the time counted for a commit or a range of commits. */
+public class ShowCommitTimeAction extends DumbAwareAction {
+
+	@Override
+	public void actionPerformed(@NotNull AnActionEvent e) {
+		final Project project = e.getProject();
+		if (project == null) {
+			return;
+		}
+
+		final TimeTrackerService service = project.getService(TimeTrackerService.class);
+		if (service == null) {
+			return;
+		}
+
+		final String commits = Messages.showInputDialog(project, "Commit hash, or a range of commits as from..to", "Show Commit Time", null);
+		if (commits == null || commits.isBlank()) {
+			return;
+		}
+		service.showCommitTime(commits.trim());
+	}
+
+	@Override
+	public void update(@NotNull AnActionEvent e) {
+		final Project project = e.getProject();
+		if (project == null) {
+			e.getPresentation().setEnabledAndVisible(false);
+			return;
+		}
+		final TimeTrackerService service = project.getService(TimeTrackerService.class);
+		e.getPresentation().setEnabledAndVisible(service != null && service.isGitIntegration());
+	}
+
+	@Override
+	public boolean isDumbAware() {
+		return true;
+	}
+}
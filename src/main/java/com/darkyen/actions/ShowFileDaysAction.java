@@ -0,0 +1,39 @@
+package com.darkyen.actions;
+
+import com.darkyen.TimeTrackerService;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.project.DumbAwareAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+/** Show the days in which the selected file was worked on. */
+public class ShowFileDaysAction extends DumbAwareAction {
+
+	@Override
+	public void actionPerformed(@NotNull AnActionEvent e) {
+		final Project project = e.getProject();
+		final VirtualFile file = e.getData(CommonDataKeys.VIRTUAL_FILE);
+		if (project == null || file == null) {
+			return;
+		}
+
+		final TimeTrackerService service = project.getService(TimeTrackerService.class);
+		if (service == null) {
+			return;
+		}
+
+		service.showFileDays(file);
+	}
+
+	@Override
+	public void update(@NotNull AnActionEvent e) {
+		e.getPresentation().setEnabledAndVisible(e.getProject() != null && e.getData(CommonDataKeys.VIRTUAL_FILE) != null);
+	}
+
+	@Override
+	public boolean isDumbAware() {
+		return true;
+	}
+}
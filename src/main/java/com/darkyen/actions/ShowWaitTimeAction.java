@@ -0,0 +1,37 @@
+package com.darkyen.actions;
+
+import com.darkyen.TimeTrackerService;
+import com.darkyen.WaitTimeDialog;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.project.DumbAwareAction;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+
+/** Open dialog with the tracked time during which the IDE was busy. */
+public class ShowWaitTimeAction extends DumbAwareAction {
+
+	@Override
+	public void actionPerformed(@NotNull AnActionEvent e) {
+		final Project project = e.getProject();
+		if (project == null) {
+			return;
+		}
+
+		final TimeTrackerService service = project.getService(TimeTrackerService.class);
+		if (service == null) {
+			return;
+		}
+
+		new WaitTimeDialog(service).show();
+	}
+
+	@Override
+	public void update(@NotNull AnActionEvent e) {
+		e.getPresentation().setEnabledAndVisible(e.getProject() != null);
+	}
+
+	@Override
+	public boolean isDumbAware() {
+		return true;
+	}
+}
@@ -0,0 +1,104 @@
+package com.darkyen;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class CommitLedgerTest {
+
+	private static final String ZERO = "0000000000000000000000000000000000000000";
+	private static final String FIRST = "1111111111111111111111111111111111111111";
+	private static final String SECOND = "2222222222222222222222222222222222222222";
+	private static final String THIRD = "3333333333333333333333333333333333333333";
+
+	private Path gitDirectory;
+
+	@Before
+	public void setUp() throws IOException {
+		gitDirectory = Files.createTempDirectory("darkyen-time-tracker-ledger");
+		Files.createDirectories(gitDirectory.resolve("logs"));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(gitDirectory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	private void append(String fileName, String line) throws IOException {
+		Files.write(gitDirectory.resolve(fileName), (line + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	private void hook(long seconds, long timeS) throws IOException {
+		append(CommitLedger.COMMIT_SECONDS_FILE_NAME, seconds + " " + timeS);
+	}
+
+	private void commit(String oldHash, String newHash, long timeS) throws IOException {
+		append("logs/HEAD", oldHash + " " + newHash + " Name <name@example.com> " + timeS + " +0000\tcommit: Message");
+	}
+
+	@Test
+	public void abortedCommitIsDropped() throws IOException {
+		commit(ZERO, FIRST, 1_000);
+		final CommitLedger ledger = new CommitLedger(gitDirectory);
+		ledger.readReflog(null);
+
+		// Editor closed with an empty message, the hook entry has no commit
+		hook(120, 1_100);
+		hook(60, 1_200);
+		commit(FIRST, SECOND, 1_210);
+		hook(30, 1_300);
+		commit(SECOND, THIRD, 1_310);
+		ledger.readReflog(null);
+
+		assertEquals(60, ledger.secondsOf(SECOND));
+		assertEquals(30, ledger.secondsOf(THIRD));
+		assertEquals(-1, ledger.secondsOf(FIRST));
+	}
+
+	@Test
+	public void abortedCommitIsDroppedWhenReadAfterEachCommit() throws IOException {
+		commit(ZERO, FIRST, 1_000);
+		final CommitLedger ledger = new CommitLedger(gitDirectory);
+		ledger.readReflog(null);
+
+		hook(120, 1_100);
+		hook(60, 1_200);
+		commit(FIRST, SECOND, 1_210);
+		ledger.readReflog(null);
+		hook(30, 1_300);
+		commit(SECOND, THIRD, 1_310);
+		ledger.readReflog(null);
+
+		assertEquals(60, ledger.secondsOf(SECOND));
+		assertEquals(30, ledger.secondsOf(THIRD));
+	}
+
+	@Test
+	public void commitsInTheSameSecondKeepTheirOrder() throws IOException {
+		commit(ZERO, FIRST, 1_000);
+		final CommitLedger ledger = new CommitLedger(gitDirectory);
+		ledger.readReflog(null);
+
+		hook(10, 1_100);
+		commit(FIRST, SECOND, 1_100);
+		hook(20, 1_100);
+		commit(SECOND, THIRD, 1_100);
+		ledger.readReflog(null);
+
+		assertEquals(10, ledger.secondsOf(SECOND));
+		assertEquals(20, ledger.secondsOf(THIRD));
+		assertEquals(20, ledger.rangeSeconds(SECOND, THIRD));
+	}
+}
@@ -0,0 +1,62 @@
+package com.darkyen;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HistoryVerifierTest {
+
+	private static final long START_MS = 1_700_000_000_000L;
+	private static final long MINUTE_MS = 60_000L;
+
+	private static void interval(HistoryVerifier.Summary summary, long startMinute, long minutes) {
+		summary.record(summary.toRecord++, START_MS + startMinute * MINUTE_MS, minutes * MINUTE_MS, TimeTrackerStorage.KIND_INTERVAL);
+	}
+
+	@Test
+	public void idleTimeCountedInLaterIsNoProblem() {
+		final HistoryVerifier.Summary summary = new HistoryVerifier.Summary(0, 0);
+		interval(summary, 0, 10);
+		// Idle from minute 10 to 30, then running again
+		interval(summary, 30, 10);
+		interval(summary, 40, 5);
+		// Idle time counted in from its notification, after the intervals which followed it
+		interval(summary, 10, 20);
+		summary.finish();
+
+		assertEquals(0, summary.overlaps);
+		assertEquals(0, summary.overlapMs);
+		assertEquals(45 * MINUTE_MS, summary.totalAfter(0));
+	}
+
+	@Test
+	public void idleTimeCountedInLaterIsNoProblemAcrossRanges() {
+		final HistoryVerifier.Summary first = new HistoryVerifier.Summary(0, 0);
+		interval(first, 0, 10);
+		interval(first, 30, 10);
+		first.finish();
+		final HistoryVerifier.Summary second = new HistoryVerifier.Summary(first.toRecord, first.toRecord);
+		interval(second, 10, 20);
+		second.finish();
+		first.merge(second);
+
+		assertEquals(0, first.overlaps);
+		assertEquals(40 * MINUTE_MS, first.totalAfter(0));
+	}
+
+	@Test
+	public void overlapsAreCounted() {
+		final HistoryVerifier.Summary first = new HistoryVerifier.Summary(0, 0);
+		interval(first, 0, 10);
+		interval(first, 5, 10);
+		first.finish();
+		final HistoryVerifier.Summary second = new HistoryVerifier.Summary(first.toRecord, first.toRecord);
+		interval(second, 12, 2);
+		interval(second, 20, 5);
+		second.finish();
+		first.merge(second);
+
+		assertEquals(2, first.overlaps);
+		assertEquals(7 * MINUTE_MS, first.overlapMs);
+	}
+}